@@ -0,0 +1,65 @@
+package de.berlin.htw.boundary.dto;
+
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import org.hibernate.validator.messageinterpolation.ParameterMessageInterpolator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bean validation of the {@link Item} of every POST and PATCH on /basket,
+ * including the regular expression of the product id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemValidationBenchmark {
+
+    private ValidatorFactory factory;
+    private Validator validator;
+    private Item valid;
+    private Item invalid;
+
+    @Setup
+    public void setUp() {
+        factory = Validation.byDefaultProvider().configure()
+                .messageInterpolator(new ParameterMessageInterpolator())
+                .buildValidatorFactory();
+        validator = factory.getValidator();
+
+        valid = new Item();
+        valid.setProductId("1-2-3-4-5-6");
+        valid.setProductName("Product");
+        valid.setPrice(10.0);
+        valid.setCount(1);
+
+        invalid = new Item();
+        invalid.setProductId("1-2-3-4-5-X");
+        invalid.setProductName("Product");
+        invalid.setPrice(10.0);
+        invalid.setCount(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        factory.close();
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<Item>> validItem() {
+        return validator.validate(valid);
+    }
+
+    @Benchmark
+    public Set<ConstraintViolation<Item>> invalidProductId() {
+        return validator.validate(invalid);
+    }
+
+}
@@ -0,0 +1,49 @@
+package de.berlin.htw.boundary.dto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Order#getTotal()} sums up the items on every call, also for every basket
+ * that is serialized into a response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderTotalBenchmark {
+
+    /**
+     * Number of items in the order; a basket holds at most 10.
+     */
+    @Param({"1", "10"})
+    int items;
+
+    private Order order;
+
+    @Setup
+    public void setUp() {
+        List<Item> list = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            Item item = new Item();
+            item.setProductId("1-2-3-4-5-" + i);
+            item.setProductName("Product " + i);
+            item.setPrice(10.0 + i);
+            item.setCount(1 + i % 3);
+            list.add(item);
+        }
+        order = new Order();
+        order.setItems(list);
+    }
+
+    @Benchmark
+    public Double total() {
+        return order.getTotal();
+    }
+
+}
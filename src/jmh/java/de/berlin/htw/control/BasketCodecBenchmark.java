@@ -0,0 +1,105 @@
+package de.berlin.htw.control;
+
+import de.berlin.htw.boundary.dto.Basket;
+import de.berlin.htw.boundary.dto.Item;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of items and baskets between the DTOs and the values stored in Redis and in ORD.ITEMS.
+ * Every basket read decodes all items, every change encodes one item, and
+ * GET /orders decodes the items of old orders.
+ * The size of the basket hash in each item format is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BasketCodecBenchmark {
+
+    /**
+     * Number of items in the basket; a basket holds at most 10.
+     */
+    @Param({"1", "10"})
+    int items;
+
+    /**
+     * Format the items are written in.
+     */
+    @Param({"JSON", "BINARY"})
+    BasketCodec.Format format;
+
+    private BasketCodec codec;
+
+    private Item item;
+    private byte[] encodedItem;
+    private Basket basket;
+    private Map<String, byte[]> fields;
+    private String orderItemsJson;
+
+    @Setup
+    public void setUp() {
+        codec = new BasketCodec(format);
+        List<Item> list = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            Item next = new Item();
+            next.setProductId("1-2-3-4-5-" + i);
+            next.setProductName("Product " + i);
+            next.setPrice(10.0 + i);
+            next.setCount(1 + i % 3);
+            list.add(next);
+        }
+        item = list.get(0);
+        encodedItem = codec.encodeItem(item);
+        basket = new Basket();
+        basket.setItems(list);
+        basket.setRemainingBalance(100.0);
+        fields = codec.toFields(basket);
+        BasketCodec json = new BasketCodec();
+        orderItemsJson = "[" + String.join(",", list.stream()
+                .map(next -> new String(json.encodeItem(next), StandardCharsets.UTF_8)).toList()) + "]";
+
+        int bytes = 0;
+        for (Map.Entry<String, byte[]> field : fields.entrySet()) {
+            bytes += field.getKey().length() + field.getValue().length;
+        }
+        System.out.println(format + ": " + encodedItem.length + " bytes per item, "
+                + bytes + " bytes per basket of " + items + " items");
+    }
+
+    @Benchmark
+    public byte[] encodeItem() {
+        return codec.encodeItem(item);
+    }
+
+    @Benchmark
+    public Item decodeItem() {
+        return codec.decodeItem(encodedItem);
+    }
+
+    @Benchmark
+    public Map<String, byte[]> encodeBasket() {
+        return codec.toFields(basket);
+    }
+
+    @Benchmark
+    public Basket decodeBasket() {
+        return codec.toBasket(fields);
+    }
+
+    /**
+     * Decoding of ORD.ITEMS as done by {@link OrderController} for every order that still has its items as JSON.
+     */
+    @Benchmark
+    public List<Item> decodeOrderItems() {
+        return codec.decodeItems(orderItemsJson);
+    }
+
+}
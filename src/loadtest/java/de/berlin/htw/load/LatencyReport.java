@@ -0,0 +1,140 @@
+package de.berlin.htw.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and outcomes of the requests of a load run, per operation.
+ * <p>
+ * A latency is measured from the time the request was due to be sent, not from the time
+ * it was sent. If the generator or the server falls behind, the waiting time counts
+ * into the latency instead of being left out (coordinated omission).
+ * Latencies are kept in HdrHistograms with three significant digits.
+ */
+class LatencyReport {
+
+    /**
+     * Name of the figures over all operations.
+     */
+    static final String ALL = "all";
+
+    private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toNanos(5);
+
+    /**
+     * Interval in which a closed-model user sends its requests, used to correct the histograms.
+     * 0 if the model needs no correction.
+     */
+    private final long expectedIntervalNanos;
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    private final Operation all = new Operation();
+
+    private final LongAdder sessions = new LongAdder();
+
+    LatencyReport(long expectedIntervalNanos) {
+        this.expectedIntervalNanos = expectedIntervalNanos;
+    }
+
+    /**
+     * Records a response.
+     *
+     * @param operation    the operation, e.g. POST /basket/{productId}
+     * @param status       the HTTP status, 0 if the request failed without a response
+     * @param latencyNanos the time from the due time of the request until the response
+     */
+    void record(String operation, int status, long latencyNanos) {
+        Operation recorded = operations.computeIfAbsent(operation, name -> new Operation());
+        recorded.record(status, latencyNanos);
+        all.record(status, latencyNanos);
+    }
+
+    /**
+     * Records a finished session, whether it completed its workflow or was rejected on the way.
+     */
+    void sessionFinished() {
+        sessions.increment();
+    }
+
+    long requests() {
+        return all.count.sum();
+    }
+
+    long errors() {
+        return all.errors.sum();
+    }
+
+    /**
+     * The figures of all operations and in total, in the order they were first recorded.
+     *
+     * @param seconds the length of the measurement in seconds
+     */
+    Map<String, Object> summary(double seconds) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("sessions", sessions.sum());
+        summary.put("sessionsPerSecond", round(sessions.sum() / seconds));
+        summary.put("requestsPerSecond", round(all.count.sum() / seconds));
+        Map<String, Object> figures = new LinkedHashMap<>();
+        operations.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue((a, b) -> Long.compare(a.created, b.created)))
+                .forEach(operation -> figures.put(operation.getKey(), operation.getValue().summary(seconds)));
+        figures.put(ALL, all.summary(seconds));
+        summary.put("operations", figures);
+        return summary;
+    }
+
+    private static double millis(double nanos) {
+        return round(nanos / 1_000_000.0);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private final class Operation {
+
+        final long created = System.nanoTime();
+        final Histogram histogram = new ConcurrentHistogram(HIGHEST_LATENCY, 3);
+        final LongAdder count = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        void record(int status, long latencyNanos) {
+            long latency = Math.min(Math.max(latencyNanos, 1), HIGHEST_LATENCY);
+            count.increment();
+            // the correction adds the responses a user could not ask for while waiting
+            if (expectedIntervalNanos > 0) {
+                histogram.recordValueWithExpectedInterval(latency, expectedIntervalNanos);
+            } else {
+                histogram.recordValue(latency);
+            }
+            if (status == 0 || status >= 500) {
+                errors.increment();
+            } else if (status >= 400) {
+                // the basket does not allow the change, e.g. the balance is too low
+                rejected.increment();
+            }
+        }
+
+        Map<String, Object> summary(double seconds) {
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", count.sum());
+            summary.put("rejected", rejected.sum());
+            summary.put("errors", errors.sum());
+            summary.put("perSecond", round(count.sum() / seconds));
+            summary.put("meanMs", millis(histogram.getMean()));
+            summary.put("p50Ms", millis(histogram.getValueAtPercentile(50)));
+            summary.put("p99Ms", millis(histogram.getValueAtPercentile(99)));
+            summary.put("p999Ms", millis(histogram.getValueAtPercentile(99.9)));
+            summary.put("maxMs", millis(histogram.getMaxValue()));
+            return summary;
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package de.berlin.htw.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the basket and order API of a running application with simulated users
+ * and writes throughput and latency percentiles per operation as JSON.
+ * Every user runs {@link UserSession sessions} as one of the users seeded by Liquibase.
+ * <p>
+ * Two workload models are supported:
+ * <ul>
+ *     <li>open: sessions start at a fixed rate, however long the previous ones take.
+ *     A session is measured from the time it was due to start, so a server that
+ *     falls behind shows in the latencies.</li>
+ *     <li>closed: a fixed number of users each start their next session when the previous one
+ *     ended and the think time passed. The histograms are corrected for the requests a user
+ *     could not send while it waited for a slow response.</li>
+ * </ul>
+ * Run it with mvn test -Pload and pass the options with -Dload.args, e.g.
+ * <pre>-Dload.args="--model open --rate 200 --duration 60"</pre>
+ * The options and their defaults:
+ * <pre>
+ * --url            http://localhost:8080  the application
+ * --model          closed                 open or closed
+ * --rate           50                     sessions per second of the open model
+ * --users          50                     concurrent users of the closed model
+ * --think-ms       100                    pause of a closed-model user between sessions
+ * --duration       60                     seconds of the measurement
+ * --warmup         10                     seconds before the measurement, not recorded
+ * --user-ids       1,2,3,4                seeded users the sessions act as
+ * --checkout-ratio 0.2                    share of the sessions that check out their basket
+ * --out            target/load-result.json
+ * </pre>
+ * Checkouts spend the balances of the seeded users; once a balance is spent, the items
+ * and checkouts of that user are rejected and counted as rejected, not as errors.
+ */
+public class LoadGenerator {
+
+    private final Map<String, String> options;
+    private final URI baseUri;
+    private final boolean open;
+    private final String[] userIds;
+    private final double checkoutRatio;
+    private final long thinkNanos;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.baseUri = URI.create(option("url", "http://localhost:8080"));
+        String model = option("model", "closed");
+        if (!model.equals("open") && !model.equals("closed")) {
+            throw new IllegalArgumentException("Unknown model " + model + ", use open or closed");
+        }
+        this.open = model.equals("open");
+        this.userIds = option("user-ids", "1,2,3,4").split(",");
+        this.checkoutRatio = Double.parseDouble(option("checkout-ratio", "0.2"));
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(option("think-ms", "100")));
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option like --rate but got " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        LoadGenerator generator = new LoadGenerator(options);
+        Map<String, Object> result = generator.run();
+
+        File out = new File(generator.option("out", "target/load-result.json"));
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, result);
+        System.out.println("Result written to " + out.getAbsolutePath());
+    }
+
+    /**
+     * Warms up the application without recording, then measures for the configured duration.
+     *
+     * @return the settings and the figures of the run
+     */
+    Map<String, Object> run() {
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(option("warmup", "10")));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(option("duration", "60")));
+
+        System.out.printf("Warming up %s for %d s%n", baseUri, TimeUnit.NANOSECONDS.toSeconds(warmup));
+        drive(null, warmup);
+
+        // an open-model session is measured from its due time; a closed-model user is corrected for its interval
+        LatencyReport report = new LatencyReport(open ? 0 : thinkNanos);
+        System.out.printf("Measuring %s for %d s%n", baseUri, TimeUnit.NANOSECONDS.toSeconds(duration));
+        Instant started = Instant.now();
+        drive(report, duration);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("started", started.toString());
+        result.put("url", baseUri.toString());
+        result.put("model", open ? "open" : "closed");
+        if (open) {
+            result.put("rate", Double.parseDouble(option("rate", "50")));
+        } else {
+            result.put("users", Integer.parseInt(option("users", "50")));
+            result.put("thinkMs", TimeUnit.NANOSECONDS.toMillis(thinkNanos));
+        }
+        result.put("durationSeconds", TimeUnit.NANOSECONDS.toSeconds(duration));
+        result.put("userIds", List.of(userIds));
+        result.put("checkoutRatio", checkoutRatio);
+        result.put("coordinatedOmissionCorrection", open ? "latency from the due start of the session"
+                : thinkNanos > 0 ? "expected interval of " + TimeUnit.NANOSECONDS.toMillis(thinkNanos) + " ms"
+                : "none, a closed model without think time measures service times");
+        result.putAll(report.summary(duration / 1e9));
+        print(report, duration / 1e9);
+        return result;
+    }
+
+    /**
+     * Starts sessions for the given time and waits until the started sessions ended.
+     */
+    private void drive(LatencyReport report, long nanos) {
+        long end = System.nanoTime() + nanos;
+        List<CompletableFuture<Void>> sessions = new ArrayList<>();
+        if (open) {
+            double rate = Double.parseDouble(option("rate", "50"));
+            long interval = (long) (1e9 / rate);
+            long start = System.nanoTime();
+            for (long due = start; due < end; due += interval) {
+                LockSupport.parkNanos(due - System.nanoTime());
+                // a session that is due late still counts from its due time
+                sessions.add(session(report).run(due));
+            }
+        } else {
+            int users = Integer.parseInt(option("users", "50"));
+            for (int i = 0; i < users; i++) {
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                closedUser(report, end, System.nanoTime(), done);
+                sessions.add(done);
+            }
+            LockSupport.parkNanos(end - System.nanoTime());
+        }
+        CompletableFuture.allOf(sessions.toArray(CompletableFuture[]::new))
+                .completeOnTimeout(null, 60, TimeUnit.SECONDS)
+                .join();
+    }
+
+    /**
+     * Runs sessions one after the other, with the think time in between, until the end.
+     */
+    private void closedUser(LatencyReport report, long end, long due, CompletableFuture<Void> done) {
+        if (due >= end) {
+            done.complete(null);
+            return;
+        }
+        session(report).run(due).thenRun(() -> {
+            long next = System.nanoTime() + thinkNanos;
+            CompletableFuture.delayedExecutor(thinkNanos, TimeUnit.NANOSECONDS)
+                    .execute(() -> closedUser(report, end, next, done));
+        });
+    }
+
+    private UserSession session(LatencyReport report) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new UserSession(client, baseUri, report, userIds[random.nextInt(userIds.length)],
+                random.nextDouble() < checkoutRatio);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void print(LatencyReport report, double seconds) {
+        Map<String, Object> summary = report.summary(seconds);
+        System.out.printf("sessions=%d sessions/s=%.1f requests/s=%.1f errors=%d%n",
+                summary.get("sessions"), summary.get("sessionsPerSecond"), summary.get("requestsPerSecond"),
+                report.errors());
+        Map<String, Map<String, Object>> operations = (Map<String, Map<String, Object>>) summary.get("operations");
+        for (Map.Entry<String, Map<String, Object>> operation : operations.entrySet()) {
+            Map<String, Object> figures = operation.getValue();
+            System.out.printf("%-27s count=%7d rejected=%6d errors=%5d p50=%8.1f ms p99=%8.1f ms p999=%8.1f ms%n",
+                    operation.getKey(), figures.get("count"), figures.get("rejected"), figures.get("errors"),
+                    figures.get("p50Ms"), figures.get("p99Ms"), figures.get("p999Ms"));
+        }
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+}
@@ -0,0 +1,160 @@
+package de.berlin.htw.load;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.berlin.htw.boundary.dto.Item;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One visit of a user to the shop, as the web shop calls the API:
+ * <ol>
+ *     <li>GET /basket</li>
+ *     <li>POST /basket/{productId} for two items</li>
+ *     <li>PATCH /basket/{productId} to add one piece of the first item</li>
+ *     <li>DELETE /basket/{productId} to remove the second item</li>
+ *     <li>POST /basket to check out, or DELETE /basket to abandon the basket</li>
+ *     <li>GET /orders</li>
+ * </ol>
+ * The items pass the validation of {@link Item}: a product id of six digits, a price between
+ * 10 and 20 euros and one piece each, so that a basket stays within the balances of the users.
+ * A session ends at the first response that is not successful, e.g. when the balance of the user
+ * is spent or another session of the same user changed the basket.
+ */
+class UserSession {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    private final HttpClient client;
+    private final URI baseUri;
+    private final LatencyReport report;
+    private final String userId;
+    private final boolean checkout;
+
+    /**
+     * Time at which the next request is due.
+     */
+    private long due;
+
+    /**
+     * @param client   the client that sends the requests
+     * @param baseUri  the URI of the application, e.g. http://localhost:8080
+     * @param report   where the responses are recorded, or null while warming up
+     * @param userId   the seeded user the session acts as
+     * @param checkout true to check out the basket, false to abandon it
+     */
+    UserSession(HttpClient client, URI baseUri, LatencyReport report, String userId, boolean checkout) {
+        this.client = client;
+        this.baseUri = baseUri;
+        this.report = report;
+        this.userId = userId;
+        this.checkout = checkout;
+    }
+
+    /**
+     * Runs the session.
+     *
+     * @param start the time at which the session was due to start, from {@link System#nanoTime()};
+     *              the first request is measured from it
+     * @return completes when the session ended, never exceptionally
+     */
+    CompletableFuture<Void> run(long start) {
+        due = start;
+        Item first = randomItem();
+        Item second = randomItem();
+        while (second.getProductId().equals(first.getProductId())) {
+            second = randomItem();
+        }
+        Item morePieces = new Item();
+        morePieces.setProductId(first.getProductId());
+        morePieces.setProductName(first.getProductName());
+        morePieces.setPrice(first.getPrice());
+        morePieces.setCount(1);
+        String removed = second.getProductId();
+        Item added = second;
+
+        return send("GET /basket", request("/basket").GET())
+                .thenCompose(ok -> ok ? send("POST /basket/{productId}",
+                        request("/basket/" + first.getProductId()).POST(body(first))) : done())
+                .thenCompose(ok -> ok ? send("POST /basket/{productId}",
+                        request("/basket/" + added.getProductId()).POST(body(added))) : done())
+                .thenCompose(ok -> ok ? send("PATCH /basket/{productId}",
+                        request("/basket/" + first.getProductId()).method("PATCH", body(morePieces))) : done())
+                .thenCompose(ok -> ok ? send("DELETE /basket/{productId}",
+                        request("/basket/" + removed).DELETE()) : done())
+                .thenCompose(ok -> !ok ? done() : checkout
+                        ? send("POST /basket", request("/basket").POST(HttpRequest.BodyPublishers.noBody()))
+                        : send("DELETE /basket", request("/basket").DELETE()))
+                .thenCompose(ok -> ok ? send("GET /orders", request("/orders").GET()) : done())
+                .handle((ok, error) -> {
+                    if (report != null) {
+                        report.sessionFinished();
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Sends the request and records its latency from the time it was due.
+     * The next request of the session is due as soon as the response arrived.
+     *
+     * @return whether the response was successful
+     */
+    private CompletableFuture<Boolean> send(String operation, HttpRequest.Builder request) {
+        long requestDue = due;
+        return client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    due = System.nanoTime();
+                    int status = error == null ? response.statusCode() : 0;
+                    if (report != null) {
+                        report.record(operation, status, due - requestDue);
+                    }
+                    return status >= 200 && status < 300;
+                });
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path))
+                .header("X-User-Id", userId)
+                .header("Content-Type", "application/json")
+                .timeout(TIMEOUT);
+    }
+
+    private static CompletableFuture<Boolean> done() {
+        return CompletableFuture.completedFuture(false);
+    }
+
+    private static HttpRequest.BodyPublisher body(Item item) {
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(JSON.writeValueAsBytes(item));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Item " + item.getProductId() + " could not be serialized", e);
+        }
+    }
+
+    /**
+     * An item that passes the validation, with a random product id and a price of 10 to 20 euros.
+     */
+    private static Item randomItem() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder productId = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            productId.append(i == 0 ? "" : "-").append(random.nextInt(10));
+        }
+        Item item = new Item();
+        item.setProductId(productId.toString());
+        item.setProductName("Load test item " + productId);
+        item.priceCents(1_000 + random.nextInt(1_001));
+        item.setCount(1);
+        return item;
+    }
+
+}
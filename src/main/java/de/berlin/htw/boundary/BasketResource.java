@@ -1,26 +1,33 @@
 package de.berlin.htw.boundary;
 
-import de.berlin.htw.entity.dto.OrdersEntity;
+import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Size;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Request;
 import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.Response.Status;
-import jakarta.ws.rs.core.SecurityContext;
+import jakarta.ws.rs.core.UriBuilder;
 import jakarta.ws.rs.core.UriInfo;
 
+import java.util.List;
+
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.headers.Header;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
-import org.jboss.logging.Logger;
 
 import de.berlin.htw.boundary.dto.Basket;
+import de.berlin.htw.boundary.dto.BatchResult;
 import de.berlin.htw.boundary.dto.Item;
 import de.berlin.htw.boundary.dto.Order;
 import de.berlin.htw.control.BasketController;
@@ -36,38 +43,56 @@ public class BasketResource {
     @Context
     UriInfo uri;
     
-    @Context
-    SecurityContext context;
-    
     @Inject
     BasketController basket;
 
-    @Inject
-    Logger logger;
-
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Operation(summary = "Retrieve the basket with all items.")
-    @APIResponse(responseCode = "200", description = "Retieve all items in basket successfully")
+    @APIResponse(responseCode = "200", description = "Retieve all items in basket successfully",
+            headers = @Header(name = "ETag", description = "Revision of the basket, if it is stored"),
+            content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Basket.class)) )
+    @APIResponse(responseCode = "304", description = "The basket has not changed since the revision in If-None-Match")
     @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
     //@HeaderParam: Maps the value of the X-User-Id HTTP header to the userId parameter.
-    public Basket getBasket(@HeaderParam("X-User-Id") String userId) {
-    	logger.info(context.getUserPrincipal().getName() 
-    			+ " is calling " + uri.getAbsolutePath());
+    public Uni<Response> getBasket(@HeaderParam("X-User-Id") String userId,
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+            @Context Request request) {
+        if (ifNoneMatch == null) {
+            return basket.getBasket(userId).map(BasketResource::withRevision);
+        }
+        // a conditional request reads only the revision as long as the basket has not changed
+        return basket.getRevision(userId).chain(revision -> {
+            if (revision != null) {
+                EntityTag tag = new EntityTag(String.valueOf(revision));
+                Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+                if (notModified != null) {
+                    return Uni.createFrom().item(notModified.tag(tag).build());
+                }
+            }
+            return basket.getBasket(userId).map(BasketResource::withRevision);
+        });
+    }
 
-        return basket.getBasket(userId);
+    /**
+     * The basket with its revision as ETag; a basket that is not stored yet has none.
+     */
+    private static Response withRevision(Basket found) {
+        Response.ResponseBuilder response = Response.ok(found);
+        if (found.revision() != null) {
+            response.tag(new EntityTag(String.valueOf(found.revision())));
+        }
+        return response.build();
     }
 
     @DELETE
     @Operation(summary = "Remove all items from basket.")
     @APIResponse(responseCode = "204", description = "Items removed successfully")
     @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
-    public Response clearBasket(@HeaderParam("X-User-Id") String id) {
-    	logger.info(context.getUserPrincipal().getName() 
-    			+ " is calling " + uri.getAbsolutePath());
+    public Uni<Response> clearBasket(@HeaderParam("X-User-Id") String id) {
     	// no content
-        basket.clearBasket(id);
-        return Response.status(Status.NO_CONTENT).build();
+        return basket.clearBasket(id)
+                .map(cleared -> Response.status(Status.NO_CONTENT).build());
 
     }
 
@@ -77,17 +102,25 @@ public class BasketResource {
     @APIResponse(responseCode = "201", description = "Checkout successfully",
             headers = @Header(name = "Location", description = "URL to retrive all orders"),
             content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Order.class)) )
+    @APIResponse(responseCode = "202", description = "Checkout queued, the order is written later",
+            headers = @Header(name = "Location", description = "URL to retrive all orders"),
+            content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Order.class)) )
     @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
     @APIResponse(responseCode = "404", description = "No product with this ID in the basket")
-    public Response checkout(@HeaderParam("X-User-Id") String userId) {
-    	logger.info(context.getUserPrincipal().getName() 
-    			+ " is calling " + uri.getAbsolutePath());
+    public Uni<Response> checkout(@HeaderParam("X-User-Id") String userId) {
     	// return the url of orders and the created order itself
-        OrdersEntity order = basket.checkoutBasket(userId);
-        return Response
-                .created(uri.getBaseUriBuilder().path("/orders/" + order.getId()).build())
-                .entity(order)
-                .build();
+        UriBuilder orders = uri.getBaseUriBuilder();
+        if (basket.isAsyncCheckout()) {
+            // the order has no id before it is written
+            return basket.enqueueCheckout(userId).map(order -> Response
+                    .accepted(order)
+                    .location(orders.path("/orders").build())
+                    .build());
+        }
+        return basket.checkoutBasket(userId).map(order -> Response
+                .created(orders.path("/orders/" + order.getId()).build())
+                .entity(basket.toOrder(order))
+                .build());
     }
 
     /** explanation of annotations for me:
@@ -113,15 +146,32 @@ public class BasketResource {
     @APIResponse(responseCode = "400", description = "Invalid request message")
     @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
     @APIResponse(responseCode = "409", description = "Another product with this ID already exist in the basket")
-    public Response addItem(
+    public Uni<Response> addItem(
             @Parameter(description = "ID of the product", required = true) @PathParam("productId")
             @Pattern(regexp = "\\d-\\d-\\d-\\d-\\d-\\d", message = "Invalid productId format") final String productId,
             @Parameter(description = "The item to add in the basket", required = true) @Valid final Item item,
             @HeaderParam("X-User-Id") String userId) {
-        logger.info(context.getUserPrincipal().getName()
-                + " is calling " + uri.getAbsolutePath());
         // return basket with remaining balance
-        return Response.status(Status.CREATED).entity(basket.addItem(userId, item)).build();
+        return basket.addItem(userId, item)
+                .map(changed -> Response.status(Status.CREATED).entity(changed).build());
+    }
+
+    @POST
+    @Path("items")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(summary = "Add several items to basket at once.")
+    @APIResponse(responseCode = "200", description = "Items applied, the status of every item is in the results",
+        content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = BatchResult.class)) )
+    @APIResponse(responseCode = "400", description = "Invalid request message")
+    @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
+    public Uni<BatchResult> addItems(
+            @Parameter(description = "The items to add in the basket", required = true)
+            @NotNull @Size(min = 1, max = 10, message = "Der Inhalt des Warenkorbs darf nicht mehr als 10 Artikel überschreiten")
+            @Valid final List<Item> items,
+            @HeaderParam("X-User-Id") String userId) {
+        // return basket with remaining balance and the status of every item
+        return basket.addItems(userId, items);
     }
 
     @DELETE
@@ -130,15 +180,16 @@ public class BasketResource {
     @Operation(summary = "Remove an item from basket.")
     @APIResponse(responseCode = "200", description = "Item removed successfully",
         content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Basket.class)) )
+    @APIResponse(responseCode = "400", description = "Invalid request message")
     @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
     @APIResponse(responseCode = "404", description = "No product with this ID in the basket")
-    public Response removeItem(
-            @Parameter(description = "ID of the product", required = true) @PathParam("productId") final String productId,
+    public Uni<Response> removeItem(
+            @Parameter(description = "ID of the product", required = true) @PathParam("productId")
+            @Pattern(regexp = "\\d-\\d-\\d-\\d-\\d-\\d", message = "Invalid productId format") final String productId,
             @HeaderParam("X-User-Id") String userId) {
-        logger.info(context.getUserPrincipal().getName()
-                + " is calling " + uri.getAbsolutePath());
         // return basket with remaining balance
-        return Response.status(Status.OK).entity(basket.removeItem(userId, productId)).build();
+        return basket.removeItem(userId, productId)
+                .map(changed -> Response.status(Status.OK).entity(changed).build());
     }
 
     @PATCH
@@ -151,14 +202,14 @@ public class BasketResource {
     @APIResponse(responseCode = "400", description = "Invalid request message")
     @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
     @APIResponse(responseCode = "404", description = "No product with this ID in the basket")
-    public Response changeCount(
-            @Parameter(description = "ID of the product", required = true) @PathParam("productId") final String productId,
+    public Uni<Response> changeCount(
+            @Parameter(description = "ID of the product", required = true) @PathParam("productId")
+            @Pattern(regexp = "\\d-\\d-\\d-\\d-\\d-\\d", message = "Invalid productId format") final String productId,
             @Parameter(description = "The number of that product in the basket", required = true) @Valid final Item item
             , @HeaderParam("X-User-Id") String userID) {
-        logger.info(context.getUserPrincipal().getName()
-                + " is calling " + uri.getAbsolutePath());
         // return basket with remaining balance
-        return Response.status(Status.OK).entity(basket.patchBasket(userID, productId, item)).build();
+        return basket.patchBasket(userID, productId, item)
+                .map(changed -> Response.status(Status.OK).entity(changed).build());
     }
 
 
@@ -1,21 +1,30 @@
 package de.berlin.htw.boundary;
 
 import jakarta.inject.Inject;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityTag;
 import jakarta.ws.rs.core.MediaType;
-import jakarta.ws.rs.core.SecurityContext;
-import jakarta.ws.rs.core.UriInfo;
-
-import org.jboss.logging.Logger;
+import jakarta.ws.rs.core.Request;
+import jakarta.ws.rs.core.Response;
 
+import de.berlin.htw.boundary.dto.Order;
 import de.berlin.htw.boundary.dto.Orders;
 import de.berlin.htw.control.OrderController;
 import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.headers.Header;
+import org.eclipse.microprofile.openapi.annotations.media.Content;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
-import org.jboss.resteasy.annotations.jaxrs.HeaderParam;
 
 /**
  * @author Alexander Stanik [alexander.stanik@htw-berlin.de]
@@ -23,28 +32,46 @@ import org.jboss.resteasy.annotations.jaxrs.HeaderParam;
 @Path("/orders")
 public class OrderResource {
 
-    @Context
-    UriInfo uri;
-    
-    @Context
-    SecurityContext context;
-    
     @Inject
     OrderController order;
 
-    @Inject
-    Logger logger;
-
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    @Operation(summary = "Retrieve all completed orders of a users.")
-    @APIResponse(responseCode = "200", description = "Retieve all completed orders successfully")
+    @Operation(summary = "Retrieve all completed orders of a users, the oldest first, or one page of them if a size is given.")
+    @APIResponse(responseCode = "200", description = "Retieve the completed orders successfully",
+            headers = @Header(name = "ETag", description = "Version of the orders: the latest order and the balance"),
+            content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = Orders.class)))
+    @APIResponse(responseCode = "304", description = "No order and no change of the balance since the version in If-None-Match")
+    @APIResponse(responseCode = "400", description = "Invalid page size")
     @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
-    public Orders getCompletedOrders(@HeaderParam("X-User-Id") String id) {
-    	logger.info(context.getUserPrincipal().getName() 
-    			+ " is calling " + uri.getAbsolutePath());
+    public Uni<Response> getCompletedOrders(@HeaderParam("X-User-Id") String id,
+            @Parameter(description = "Id of the last order of the previous page (field next of the previous page)")
+            @QueryParam("after") final Long after,
+            @Parameter(description = "Maximum number of orders of the page; without it all orders are returned")
+            @QueryParam("size") @Min(1) @Max(500) final Integer size,
+            @Context Request request) {
+        // the version is read with the cached user, so an unchanged page is answered without a query
+        return order.getOrdersVersion(id).chain(version -> {
+            if (version == null) {
+                return order.getCompletedOrders(id, after, size).map(orders -> Response.ok(orders).build());
+            }
+            EntityTag tag = new EntityTag(version);
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            if (notModified != null) {
+                return Uni.createFrom().item(notModified.tag(tag).build());
+            }
+            return order.getCompletedOrders(id, after, size).map(orders -> Response.ok(orders).tag(tag).build());
+        });
+    }
 
-        return order.getCompletedOrders(id);
+    @GET
+    @Path("/stream")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Operation(summary = "Stream all completed orders of a users as one JSON array.")
+    @APIResponse(responseCode = "200", description = "Stream all completed orders successfully")
+    @APIResponse(responseCode = "401", description = "No or wrong User Id provided as header")
+    public Multi<Order> streamCompletedOrders(@HeaderParam("X-User-Id") String id) {
+        return order.streamCompletedOrders(id);
     }
 
 }
\ No newline at end of file
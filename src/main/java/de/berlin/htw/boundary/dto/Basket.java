@@ -5,14 +5,42 @@ package de.berlin.htw.boundary.dto;
  */
 public class Basket extends Order {
 
-    private Float remainingBalance;
+    /**
+     * Remaining balance in cents.
+     */
+    private long remainingBalance;
 
-	public Float getRemainingBalance() {
+    /**
+     * Revision of the basket in Redis, null for a basket that was not stored yet.
+     * Not part of the JSON, it is sent as ETag.
+     */
+    private Long revision;
+
+	public Double getRemainingBalance() {
+		return Money.euros(remainingBalance);
+	}
+
+	public void setRemainingBalance(Double remainingBalance) {
+		this.remainingBalance = Money.cents(remainingBalance);
+	}
+
+	/**
+	 * The remaining balance in cents, for calculations.
+	 */
+	public long remainingBalanceCents() {
 		return remainingBalance;
 	}
 
-	public void setRemainingBalance(Float remainingBalance) {
+	public void remainingBalanceCents(long remainingBalance) {
 		this.remainingBalance = remainingBalance;
 	}
 
+	public Long revision() {
+		return revision;
+	}
+
+	public void revision(Long revision) {
+		this.revision = revision;
+	}
+
 }
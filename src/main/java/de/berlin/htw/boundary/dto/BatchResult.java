@@ -0,0 +1,31 @@
+package de.berlin.htw.boundary.dto;
+
+import java.util.List;
+
+/**
+ * The basket after a batch of items was applied, with the outcome of every item
+ * in the order the items were sent.
+ */
+public class BatchResult {
+
+    private Basket basket;
+
+    private List<ItemResult> results;
+
+    public Basket getBasket() {
+        return basket;
+    }
+
+    public void setBasket(Basket basket) {
+        this.basket = basket;
+    }
+
+    public List<ItemResult> getResults() {
+        return results;
+    }
+
+    public void setResults(List<ItemResult> results) {
+        this.results = results;
+    }
+
+}
@@ -20,10 +20,12 @@ public class Item {
 	@Min(value = 1, message = "Die Anzahl muss mindestens 1 sein")
     private Integer count;
 
-	@NotNull
-	@DecimalMin(value = "10.0", message = "Der Preis muss mindestens 10 Euro betragen.")
-	@DecimalMax(value = "100.0", message = "Der Preis darf hoechstens 100 Euro betragen.")
-    private Float price;
+    /**
+     * Price in cents, {@link #NO_PRICE} if the JSON has none.
+     */
+    private long price = NO_PRICE;
+
+    private static final long NO_PRICE = Long.MIN_VALUE;
 
     public String getProductName() {
 		return productName;
@@ -49,11 +51,25 @@ public class Item {
         this.count = count;
     }
     
-	public Float getPrice() {
+	@NotNull
+	@DecimalMin(value = "10.0", message = "Der Preis muss mindestens 10 Euro betragen.")
+	@DecimalMax(value = "100.0", message = "Der Preis darf hoechstens 100 Euro betragen.")
+	public Double getPrice() {
+		return price == NO_PRICE ? null : Money.euros(price);
+	}
+
+	public void setPrice(Double price) {
+		this.price = price == null ? NO_PRICE : Money.cents(price);
+	}
+
+	/**
+	 * The price in cents, for calculations.
+	 */
+	public long priceCents() {
 		return price;
 	}
 
-	public void setPrice(Float price) {
+	public void priceCents(long price) {
 		this.price = price;
 	}
 
@@ -0,0 +1,37 @@
+package de.berlin.htw.boundary.dto;
+
+/**
+ * Outcome of one item of a batch: the status the item would have got from
+ * POST /basket/{productId}, e.g. 201 if it was added or 409 if it is in the basket already.
+ */
+public class ItemResult {
+
+    private String productId;
+
+    private int status;
+
+    public ItemResult() {
+    }
+
+    public ItemResult(String productId, int status) {
+        this.productId = productId;
+        this.status = status;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+}
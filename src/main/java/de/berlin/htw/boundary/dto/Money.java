@@ -0,0 +1,46 @@
+package de.berlin.htw.boundary.dto;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amounts of money are kept as primitive long cents: prices, totals and balances are
+ * added up without allocating and without the rounding errors of float, and they map
+ * exactly to the DECIMAL(10,2) columns and to the integers stored in Redis.
+ * The JSON of the DTOs still shows euros, so only the getters and setters convert.
+ */
+public final class Money {
+
+    private Money() {
+    }
+
+    /**
+     * Converts an amount in euros, as it comes from JSON, into cents.
+     */
+    public static long cents(double euros) {
+        return Math.round(euros * 100.0);
+    }
+
+    /**
+     * Converts an amount read from a DECIMAL column into cents.
+     */
+    public static long cents(BigDecimal euros) {
+        return euros.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /**
+     * Converts cents into euros for the JSON of the DTOs. A double, unlike a float,
+     * holds every amount of a DECIMAL(10,2) column to the cent.
+     */
+    public static double euros(long cents) {
+        return cents / 100.0;
+    }
+
+    /**
+     * Converts cents into the exact value of a DECIMAL(10,2) column.
+     */
+    public static BigDecimal decimal(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+}
@@ -12,11 +12,6 @@ public class Order {
     @NotNull
     @Size(min = 1, max = 10, message = "Der Inhalt des Warenkorbs darf nicht mehr als 10 Artikel überschreiten")
     private List<Item> items;
-
-    @NotNull(message = "Der Gesamtbetrag darf nicht null sein.")
-    @DecimalMin(value = "10.0", message = "Der Gesamtbetrag muss mindestens 10 Euro betragen.")
-    @DecimalMax(value = "10000.0", message = "Der Gesamtbetrag darf nicht mehr als 10.000 Euro betragen.")
-    private Float total;
     
     public List<Item> getItems() {
         return items;
@@ -26,18 +21,28 @@ public class Order {
         this.items = items;
     }
 
-    public Float getTotal() {
-        this.total = 0.0f;
-        // calculate total
-        for (Item item : items) {if (item.getCount() != null) {
-            this.total += item.getCount() * item.getPrice();
-        }
-        }
-        return total;
+    @NotNull(message = "Der Gesamtbetrag darf nicht null sein.")
+    @DecimalMin(value = "10.0", message = "Der Gesamtbetrag muss mindestens 10 Euro betragen.")
+    @DecimalMax(value = "10000.0", message = "Der Gesamtbetrag darf nicht mehr als 10.000 Euro betragen.")
+    public Double getTotal() {
+        return Money.euros(totalCents());
     }
 
-    public void setTotal(Float total) {
-        this.total = total;
+    /**
+     * The total in cents, calculated from the items on primitive values; it is not stored,
+     * so it always matches the items. An order without items has a total of 0.
+     */
+    public long totalCents() {
+        long sum = 0;
+        if (items == null) {
+            return sum;
+        }
+        for (Item item : items) {
+            if (item.getCount() != null) {
+                sum += item.getCount() * item.priceCents();
+            }
+        }
+        return sum;
     }
 
 }
@@ -9,7 +9,13 @@ public class Orders {
 
     private List<Order> orders;
     
-    private Float balance;
+    private Double balance;
+
+    /**
+     * Id of the last order of this page, to be passed as cursor 'after' for the next page
+     * of newer orders; null if there are no more orders or no page size was requested.
+     */
+    private Long next;
 
     public List<Order> getOrders() {
         return orders;
@@ -19,13 +25,21 @@ public class Orders {
         this.orders = orders;
     }
 
-	public Float getBalance() {
+	public Double getBalance() {
 		return balance;
 	}
 
-	public void setBalance(Float balance) {
+	public void setBalance(Double balance) {
 		this.balance = balance;
 	}
 
+	public Long getNext() {
+		return next;
+	}
+
+	public void setNext(Long next) {
+		this.next = next;
+	}
+
 }
 
@@ -1,50 +1,53 @@
 package de.berlin.htw.boundary.filter;
 
-import java.io.IOException;
 import java.security.Principal;
 
-import de.berlin.htw.entity.dao.UserRepository;
-import jakarta.annotation.Priority;
+import de.berlin.htw.control.UserCache;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.NotAuthorizedException;
 import jakarta.ws.rs.Priorities;
 import jakarta.ws.rs.container.ContainerRequestContext;
-import jakarta.ws.rs.container.ContainerRequestFilter;
 import jakarta.ws.rs.core.SecurityContext;
-import jakarta.ws.rs.ext.Provider;
 
 import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
 
 /**
  * @author Alexander Stanik [alexander.stanik@htw-berlin.de]
  */
-@Provider
-@Priority(Priorities.AUTHENTICATION)
-public class PrincipalRequestFilter implements ContainerRequestFilter {
+@ApplicationScoped
+public class PrincipalRequestFilter {
 
     @Inject
     Logger logger;
 
 	@Inject
-    UserRepository repository;
+    UserCache userCache;
 	
-    @Override
-    public void filter(ContainerRequestContext requestContext)
-        throws IOException {
+    /**
+     * Looks the user up without blocking, as the reactive endpoints run on the event loop.
+     */
+    @ServerRequestFilter(priority = Priorities.AUTHENTICATION)
+    public Uni<Void> filter(ContainerRequestContext requestContext) {
         final String userId = requestContext.getHeaderString("X-User-Id");
         if (userId == null) {
         	logger.error("X-User-Id header was not provided");
-        	throw new NotAuthorizedException("X-User-Id");
-        }
-        final Principal principal = repository.findUserById(Integer.valueOf(userId));
-        if (principal == null) {
-        	logger.error("Principal not found in database");
-        	throw new NotAuthorizedException("X-User-Id");
-        } else {
-            SecurityContext securityContext = requestContext.getSecurityContext();
-            securityContext = extendSecurityContext(securityContext, principal);
-            requestContext.setSecurityContext(securityContext);
+        	return Uni.createFrom().failure(new NotAuthorizedException("X-User-Id"));
         }
+        return userCache.findUserByIdAsync(Integer.valueOf(userId)).map(user -> {
+            final Principal principal = user;
+            if (principal == null) {
+            	logger.error("Principal not found in database");
+            	throw new NotAuthorizedException("X-User-Id");
+            } else {
+                SecurityContext securityContext = requestContext.getSecurityContext();
+                securityContext = extendSecurityContext(securityContext, principal);
+                requestContext.setSecurityContext(securityContext);
+            }
+            return null;
+        });
     }
 
     private SecurityContext extendSecurityContext(final SecurityContext securityContext,
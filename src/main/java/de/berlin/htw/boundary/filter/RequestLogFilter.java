@@ -0,0 +1,88 @@
+package de.berlin.htw.boundary.filter;
+
+import de.berlin.htw.boundary.dto.Basket;
+import de.berlin.htw.boundary.dto.Item;
+import de.berlin.htw.boundary.dto.Order;
+import de.berlin.htw.boundary.dto.Orders;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
+import org.jboss.resteasy.reactive.server.SimpleResourceInfo;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes one summary line per request instead of one line per step, e.g.
+ * <pre>user=1 op=BasketResource.addItem status=201 items=2 totalCents=2000 balanceCents=10030 ms=1.8</pre>
+ * The line is only formatted when INFO is enabled for this category, and the console handler
+ * writes it asynchronously (quarkus.log.console.async), so the request does not wait for the log I/O.
+ * <p>
+ * The steps of a request are logged at DEBUG by the controllers. With DEBUG enabled for this
+ * category, a sampled share of the requests (app.request-log.trace-sample-rate) is also logged
+ * with all items of the response.
+ */
+@ApplicationScoped
+public class RequestLogFilter {
+
+    private static final String START = RequestLogFilter.class.getName() + ".start";
+
+    @ConfigProperty(name = "app.request-log.trace-sample-rate", defaultValue = "0.01")
+    double traceSampleRate;
+
+    @Inject
+    Logger logger;
+
+    /**
+     * Remembers when the request started; runs before the user is looked up.
+     */
+    @ServerRequestFilter(preMatching = true)
+    public void start(ContainerRequestContext requestContext) {
+        requestContext.setProperty(START, System.nanoTime());
+    }
+
+    @ServerResponseFilter
+    public void summarize(ContainerRequestContext requestContext, ContainerResponseContext responseContext,
+            SimpleResourceInfo resourceInfo) {
+        if (!logger.isInfoEnabled()) {
+            return;
+        }
+        Object start = requestContext.getProperty(START);
+        double millis = start == null ? -1 : (System.nanoTime() - (Long) start) / 1_000_000.0;
+        String operation = resourceInfo == null || resourceInfo.getResourceClass() == null
+                ? requestContext.getMethod() + " " + requestContext.getUriInfo().getPath()
+                : resourceInfo.getResourceClass().getSimpleName() + "." + resourceInfo.getMethodName();
+        String user = requestContext.getHeaderString("X-User-Id");
+        int status = responseContext.getStatus();
+        Object entity = responseContext.getEntity();
+
+        if (entity instanceof Basket basket) {
+            logger.infof("user=%s op=%s status=%d items=%d totalCents=%d balanceCents=%d ms=%.1f",
+                    user, operation, status, basket.getItems().size(), basket.totalCents(),
+                    basket.remainingBalanceCents(), millis);
+        } else if (entity instanceof Order order) {
+            logger.infof("user=%s op=%s status=%d items=%d totalCents=%d ms=%.1f",
+                    user, operation, status, order.getItems().size(), order.totalCents(), millis);
+        } else if (entity instanceof Orders orders) {
+            logger.infof("user=%s op=%s status=%d orders=%d ms=%.1f",
+                    user, operation, status, orders.getOrders().size(), millis);
+        } else {
+            logger.infof("user=%s op=%s status=%d ms=%.1f", user, operation, status, millis);
+        }
+
+        if (logger.isDebugEnabled() && entity instanceof Order order
+                && ThreadLocalRandom.current().nextDouble() < traceSampleRate) {
+            StringBuilder items = new StringBuilder();
+            for (Item item : order.getItems()) {
+                items.append(' ').append(item.getProductId()).append('x').append(item.getCount())
+                        .append('@').append(item.priceCents());
+            }
+            logger.debugf("user=%s op=%s trace items:%s", user, operation, items);
+        }
+    }
+
+}
@@ -0,0 +1,235 @@
+package de.berlin.htw.control;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.berlin.htw.boundary.dto.Basket;
+import de.berlin.htw.boundary.dto.Item;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Converts items and baskets into the values stored in Redis and in ORD.ITEMS and back.
+ * A basket is a hash with one field per product id holding the item,
+ * plus the fields {@link #TOTAL_FIELD} and {@link #REMAINING_BALANCE_FIELD} in cents
+ * and the {@link #REVISION_FIELD}.
+ * The field of an item is its product id packed into an int, see {@link #packProductId(String)}.
+ * <p>
+ * Items are written in the configured {@link Format}; both formats are always read, so nodes
+ * with different formats can share the baskets while the format is switched.
+ */
+public class BasketCodec {
+
+    /**
+     * How items are written into the basket hash.
+     */
+    public enum Format {
+        /**
+         * The item as JSON object, as it is sent by the REST API.
+         */
+        JSON,
+        /**
+         * The version byte {@link #BINARY_VERSION}, the packed product id and the count as int,
+         * the price in cents as long and the UTF-8 name prefixed by its length as unsigned short,
+         * all big endian. About a third of the JSON, and without field names.
+         */
+        BINARY
+    }
+
+    /**
+     * First byte of an item in the binary format. A JSON item starts with '{'.
+     */
+    static final byte BINARY_VERSION = 1;
+
+    private static final int BINARY_HEADER = 1 + 4 + 4 + 8 + 2;
+
+    /**
+     * Hash fields that hold the sums of the basket in cents. All other fields of the hash
+     * are product ids that map to the item.
+     */
+    static final String TOTAL_FIELD = "totalCents";
+    static final String REMAINING_BALANCE_FIELD = "remainingBalanceCents";
+
+    /**
+     * Hash field that holds the revision of the basket, counted up by every change.
+     */
+    static final String REVISION_FIELD = "revision";
+
+    /**
+     * Hash fields of baskets written before the sums were kept in cents; they hold euros.
+     * The basket scripts convert them on the next change of the basket.
+     */
+    static final String LEGACY_TOTAL_FIELD = "total";
+    static final String LEGACY_REMAINING_BALANCE_FIELD = "remainingBalance";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Format format;
+
+    /**
+     * A codec that writes items as JSON.
+     */
+    public BasketCodec() {
+        this(Format.JSON);
+    }
+
+    public BasketCodec(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Converts a basket into the fields of its hash: one field per product id plus the sums.
+     */
+    public Map<String, byte[]> toFields(Basket basket) {
+        Map<String, byte[]> fields = new HashMap<>();
+        for (Item item : basket.getItems()) {
+            fields.put(String.valueOf(packProductId(item.getProductId())), encodeItem(item));
+        }
+        fields.put(TOTAL_FIELD, ascii(basket.totalCents()));
+        fields.put(REMAINING_BALANCE_FIELD, ascii(basket.remainingBalanceCents()));
+        return fields;
+    }
+
+    /**
+     * Converts the fields of a basket hash back into a basket.
+     */
+    public Basket toBasket(Map<String, byte[]> fields) {
+        Basket basket = new Basket();
+        List<Item> items = new ArrayList<>();
+        for (Map.Entry<String, byte[]> field : fields.entrySet()) {
+            if (isItem(field.getKey())) {
+                items.add(decodeItem(field.getValue()));
+            }
+        }
+        // the total is calculated from the items
+        basket.setItems(items);
+        if (fields.containsKey(REMAINING_BALANCE_FIELD)) {
+            basket.remainingBalanceCents(Long.parseLong(text(fields.get(REMAINING_BALANCE_FIELD))));
+        } else if (fields.containsKey(LEGACY_REMAINING_BALANCE_FIELD)) {
+            basket.setRemainingBalance(Double.valueOf(text(fields.get(LEGACY_REMAINING_BALANCE_FIELD))));
+        }
+        if (fields.containsKey(REVISION_FIELD)) {
+            basket.revision(Long.valueOf(text(fields.get(REVISION_FIELD))));
+        }
+        return basket;
+    }
+
+    /**
+     * Encodes an item in the configured format.
+     */
+    public byte[] encodeItem(Item item) {
+        if (format == Format.BINARY) {
+            byte[] name = item.getProductName().getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(BINARY_HEADER + name.length)
+                    .put(BINARY_VERSION)
+                    .putInt(packProductId(item.getProductId()))
+                    .putInt(item.getCount())
+                    .putLong(item.priceCents())
+                    .putShort((short) name.length)
+                    .put(name)
+                    .array();
+        }
+        try {
+            return objectMapper.writeValueAsBytes(item);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Item " + item.getProductId() + " could not be serialized", e);
+        }
+    }
+
+    /**
+     * Decodes an item in either format.
+     */
+    public Item decodeItem(byte[] value) {
+        if (value.length > 0 && value[0] == BINARY_VERSION) {
+            ByteBuffer buffer = ByteBuffer.wrap(value, 1, value.length - 1);
+            Item item = new Item();
+            item.setProductId(unpackProductId(buffer.getInt()));
+            item.setCount(buffer.getInt());
+            item.priceCents(buffer.getLong());
+            int length = Short.toUnsignedInt(buffer.getShort());
+            item.setProductName(new String(value, buffer.position(), length, StandardCharsets.UTF_8));
+            return item;
+        }
+        try {
+            return objectMapper.readValue(value, Item.class);
+        } catch (IOException e) {
+            throw new IllegalStateException("Item could not be deserialized: " + text(value), e);
+        }
+    }
+
+    /**
+     * Converts the items of an order as stored in ORD.ITEMS and in the checkout stream, a JSON array.
+     */
+    public List<Item> decodeItems(String json) {
+        try {
+            return Arrays.asList(objectMapper.readValue(json, Item[].class));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Items could not be deserialized: " + json, e);
+        }
+    }
+
+    /**
+     * Converts the items of an order into a JSON array, as read by {@link #decodeItems(String)}.
+     */
+    public String encodeItems(List<Item> items) {
+        try {
+            return objectMapper.writeValueAsString(items);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Items could not be serialized", e);
+        }
+    }
+
+    /**
+     * Packs a product id of six digits into an int, e.g. '1-2-3-4-5-6' into 123456.
+     * Redis keeps such a hash field as an integer, and the basket scripts find an item
+     * by its packed id without comparing strings.
+     *
+     * @param productId the product id in the format of {@link Item#getProductId()}
+     * @return the packed product id, or -1 if the product id has not this format
+     */
+    public static int packProductId(String productId) {
+        if (productId == null || productId.length() != 11) {
+            return -1;
+        }
+        int packed = 0;
+        for (int i = 0; i < 11; i += 2) {
+            char digit = productId.charAt(i);
+            if (digit < '0' || digit > '9' || (i < 10 && productId.charAt(i + 1) != '-')) {
+                return -1;
+            }
+            packed = packed * 10 + (digit - '0');
+        }
+        return packed;
+    }
+
+    /**
+     * Converts a packed product id back, e.g. 42 into '0-0-0-0-4-2'.
+     */
+    public static String unpackProductId(int packed) {
+        char[] productId = new char[11];
+        for (int i = 10; i >= 0; i -= 2) {
+            productId[i] = (char) ('0' + packed % 10);
+            packed /= 10;
+            if (i > 0) {
+                productId[i - 1] = '-';
+            }
+        }
+        return new String(productId);
+    }
+
+    private static byte[] ascii(long number) {
+        return String.valueOf(number).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String text(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static boolean isItem(String field) {
+        return !TOTAL_FIELD.equals(field) && !REMAINING_BALANCE_FIELD.equals(field) && !REVISION_FIELD.equals(field)
+                && !LEGACY_TOTAL_FIELD.equals(field) && !LEGACY_REMAINING_BALANCE_FIELD.equals(field);
+    }
+
+}
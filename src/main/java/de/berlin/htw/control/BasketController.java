@@ -1,19 +1,17 @@
 package de.berlin.htw.control;
 import de.berlin.htw.boundary.dto.Order;
 import de.berlin.htw.entity.dao.OrdersRepository;
+import de.berlin.htw.entity.dto.OrderItemEntity;
 import de.berlin.htw.entity.dto.OrdersEntity;
-import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.Dependent;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import de.berlin.htw.boundary.dto.Basket;
-import io.quarkus.redis.datasource.RedisDataSource;
-import io.quarkus.redis.datasource.value.ValueCommands;
-import io.quarkus.redis.datasource.list.ListCommands;
+import de.berlin.htw.boundary.dto.BatchResult;
 import de.berlin.htw.boundary.dto.Item;
-import de.berlin.htw.entity.dao.UserRepository;
 import de.berlin.htw.entity.dto.UserEntity;
 import jakarta.ws.rs.core.Response;
+import io.smallrye.mutiny.Uni;
 import org.jboss.logging.Logger;
 import java.util.*;
 
@@ -25,55 +23,50 @@ import java.util.*;
 @Dependent
 public class BasketController {
 
-    @Inject
-    protected RedisDataSource redisDS;
+    /**
+     * A basket must not contain more than 10 different items.
+     */
+    static final int MAX_ITEMS = 10;
 
     @Inject
     Logger logger;
 
 
     @Inject
-    UserRepository userRepo;
+    UserCache userCache;
 
     @Inject
     OrdersRepository orderRepo;
 
-
     /**
-     * Purpose: This interface provides commands for working with Redis values, specifically those stored as strings.
-     * The generic types <String, Integer> indicate that keys are strings, and values are integers.
+     * Reads the basket from Redis at most once per request; every change is one script call.
      */
-//    protected ValueCommands<String, Integer> countCommands;
-//    protected ListCommands<String, String> stringListCommands;
-
-    protected ValueCommands<String, Basket> basketBasketCommands;
+    @Inject
+    BasketStore basketStore;
 
     /**
-     * Initializes the class by retrieving necessary data from Redis.
+     * Runs the blocking JPA calls of the checkout off the event loop.
      */
-    @PostConstruct
-    protected void init() {
-//        countCommands = redisDS.value(Integer.class);
-
-//        stringListCommands = redisDS.list(String.class);
+    @Inject
+    BlockingExecutor blockingExecutor;
 
-        basketBasketCommands = redisDS.value(Basket.class);
-    }
+    /**
+     * Writes the queued checkouts to the database if app.checkout.async is set.
+     */
+    @Inject
+    CheckoutWorker checkoutWorker;
 
     /**
-     * Saves the basket into Redis.
-     *
-     * @param userId - the user id that the basket belongs to
-     * @param basket - the basket to be saved
-     * @return the saved basket
+     * Keeps the latest orders of the users for GET /orders.
      */
-    public Basket saveBasket(String userId, Basket basket) {
-        // Set the basket in Redis with a TTL of 120 seconds
-        basketBasketCommands.setex(userId, 120, basket);
-        logger.info("Saved basket for user: " + userId);
+    @Inject
+    RecentOrders recentOrders;
 
-        return basket;
-    }
+    /**
+     * Records the size and value of the baskets and the outcome of the checkouts.
+     */
+    @Inject
+    ShopMetrics metrics;
 
     /**
      * Retrieves the basket for the given user ID from Redis.
@@ -82,80 +75,71 @@ public class BasketController {
      * @return the Basket object for the user
      * @throws WebApplicationException If the user doesn't exist.
      */
-    public Basket getBasket(String id) {
-        // Find the user from the user repository
-        UserEntity user = userRepo.findUserById(Integer.parseInt(id));
-        if (user == null) {
-            logger.info("No user found with id " + id);
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-        logger.info("Retrieved user from database: " + user.getName() + " " + user.getId());
-
-        // Get the basket from Redis
-        Basket basket = basketBasketCommands.get(id);
-
-        // If the basket doesn't exist, create a new one
-        if (basket == null) {
-            logger.info("No Basket found.Creating new basket for user " + id + ".....");;
-            basket = createBasketForUser(id);
-        }
-        // Calculate the remaining balance in the basket
-        basket.setRemainingBalance(user.getBalance() - basket.getTotal());
-        logger.info("Calculated remaining balance for user: " + basket.getRemainingBalance());
-
+    public Uni<Basket> getBasket(String id) {
+        // The basket from Redis holds the remaining balance of the ledger;
+        // the user is only read if there is no basket yet
+        return basketStore.load(id).chain(basket -> {
+            if (basket != null) {
+                logger.debugf("Remaining balance of basket: %s", basket.getRemainingBalance());
+                return Uni.createFrom().item(basket);
+            }
+            return userCache.findUserByIdAsync(Integer.parseInt(id)).map(user -> {
+                if (user == null) {
+                    logger.debugf("No user found with id %s", id);
+                    throw new WebApplicationException(Response.Status.NOT_FOUND);
+                }
+                logger.debugf("Retrieved user from database: %s %s", user.getName(), user.getId());
+                // If the basket doesn't exist, create a new one
+                logger.debugf("No Basket found.Creating new basket for user %s.....", id);
+                return createBasketForUser(user);
+            });
+        });
+    }
 
-        return basket;
+    /**
+     * Retrieves only the revision of the basket, which is counted up by every change of the basket.
+     * Answers a conditional request with one small Redis read, without the user or the items.
+     *
+     * @param id the user ID that the basket belongs to
+     * @return the revision or null if the user has no stored basket
+     */
+    public Uni<Long> getRevision(String id) {
+        return basketStore.revision(id);
     }
 
     /**
      * Adds an item to the basket.
+     * The duplicate check, the item limit and the balance check against the ledger are done
+     * by the script that adds the item, so concurrent requests cannot overdraw the balance.
      *
      * @param userId - the user id that the basket belongs to
      * @param item - the item to be added
      * @return the updated basket
      * @throws WebApplicationException If the item already exists in the basket.
-     * @throws WebApplicationException If  the item is too expensive.
+     * @throws WebApplicationException If  the item is too expensive or the basket is full.
      */
-    public Basket addItem(String userId, Item item) {
-        Basket basket = basketBasketCommands.get(userId);  // Get the basket from Redis
-
-        // If the basket doesn't exist, create a new one
-        if (basket == null) {
-            logger.info("No Basket found. Creating new basket for user " + userId + ".....");
-            basket = createBasketForUser(userId);  // Create a new basket if it doesn't exist
-        }
-        // If the item already exists, throw an exception
-        else if (isItemInBasket(userId, item.getProductId())) {
-            logger.info("Item already exists in basket - nothing to add");
-            throw new WebApplicationException(Response.Status.CONFLICT);
-        }
-        else {
-            logger.info("Item does not exist in basket - adding item " + item.getProductId() + ".....");
-            logger.info("Item total price: " + item.getPrice() * item.getCount());
-        }
-
-        // Check if there's enough balance to add the item
-        if (basket.getRemainingBalance() < item.getPrice() * item.getCount()) {
-            logger.info("Not enough Balance");
-            throw new WebApplicationException(Response.Status.BAD_REQUEST);
-        }
-
-        basket.getItems().add(item);  // Add the item to the basket
-        logger.info("Item added to basket: " + item.getProductName() + " x " + item.getCount());
-        logger.info("Item price: " + item.getPrice());
-
-        // Update the total price of the basket
-        basket.setTotal(basket.getTotal() + (item.getPrice() * item.getCount()));
-        logger.info("Total price of purchase in basket: " + basket.getTotal());
-
-        // Update the remaining balance of the basket
-        basket.setRemainingBalance(basket.getRemainingBalance() - (item.getPrice() * item.getCount()));
-        logger.info("Remaining balance of basket: " + basket.getRemainingBalance());
-
-        saveBasket(userId, basket);  // Save the basket in Redis with a TTL of 120 seconds
-        logger.info("Saved basket for user: " + userId + " with balance: " + basket.getRemainingBalance() + " and total: " + basket.getTotal() + ".....");
+    public Uni<Basket> addItem(String userId, Item item) {
+        logger.debugf("Adding item %s with total price %s.....", item.getProductId(), item.getPrice() * item.getCount());
+        return basketStore.add(userId, item, MAX_ITEMS)
+                .invoke(metrics::basketChanged)
+                .invoke(basket -> logger.debugf("Saved basket for user: %s with balance: %s and total: %s.....", userId, basket.getRemainingBalance(), basket.getTotal()));
+    }
 
-        return basket;
+    /**
+     * Adds several items to the basket with one Redis write, e.g. when a client restores a basket.
+     * The items are checked in the given order like by {@link #addItem(String, Item)}: an item that is
+     * in the basket already or twice in the list is rejected with 409, an item beyond the item limit or
+     * the balance with 400. A rejected item does not stop the others.
+     *
+     * @param userId - the user id that the basket belongs to
+     * @param items - the items to be added
+     * @return the updated basket and the status of every item
+     */
+    public Uni<BatchResult> addItems(String userId, List<Item> items) {
+        logger.debugf("Adding %s items.....", items.size());
+        return basketStore.addAll(userId, items, MAX_ITEMS)
+                .invoke(result -> metrics.basketChanged(result.getBasket()))
+                .invoke(result -> logger.debugf("Saved basket for user: %s with balance: %s and total: %s.....", userId, result.getBasket().getRemainingBalance(), result.getBasket().getTotal()));
     }
 
 
@@ -168,41 +152,11 @@ public class BasketController {
      * @throws WebApplicationException If the item doesn't exist in the basket.
      * @throws WebApplicationException If the basket doesn't exist.
      */
-    public Basket removeItem(String userId, String productId) {
-        // Get the basket from Redis
-        Basket basket = basketBasketCommands.get(userId);
-        // If the basket doesn't exist, throw an exception
-        if (basket == null) {
-            logger.info("No Basket found. Nothing to remove");
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-        // If the item doesn't exist, throw an exception
-        if (!isItemInBasket(userId, productId)) {
-            logger.info("Item does not exist in basket - nothing to remove");
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        } else {
-            logger.info("Item exists in basket - removing item " + productId + ".....");
-        }
-
-        // Find the item to remove from the basket
-        Item itemToRemove = findItemInBasket(userId, productId);
-
-        // Remove the item from the basket
-        basket.getItems().remove(itemToRemove);
-        logger.info("Item removed from basket ");
-
-        // Update the total price of the basket
-        basket.setTotal(basket.getTotal() - (itemToRemove.getPrice() * itemToRemove.getCount()));
-        logger.info("Total price of purchase in basket: " + basket.getTotal());
-
-        // Update the remaining balance of the basket
-        basket.setRemainingBalance(basket.getRemainingBalance() + (itemToRemove.getPrice() * itemToRemove.getCount()));
-        logger.info("Remaining balance of basket: " + basket.getRemainingBalance());
-
-        // Save the basket in Redis with a TTL of 120 seconds
-        saveBasket(userId, basket);
-
-        return basket;
+    public Uni<Basket> removeItem(String userId, String productId) {
+        // Remove the item and give its price back to the remaining balance
+        return basketStore.remove(userId, productId)
+                .invoke(metrics::basketChanged)
+                .invoke(basket -> logger.debugf("Item %s removed from basket, remaining balance: %s", productId, basket.getRemainingBalance()));
     }
 
     /**
@@ -214,42 +168,13 @@ public class BasketController {
      * @return The updated basket.
      * @throws WebApplicationException If the item doesn't exist in the basket.
      * @throws WebApplicationException If the basket doesn't exist.
+     * @throws WebApplicationException If the remaining balance is not enough.
      */
-    public Basket patchBasket(String userId, String productId, Item item) throws WebApplicationException {
-        // Get the basket from Redis
-        Basket basket = basketBasketCommands.get(userId);
-        logger.info("Retrieved basket from Redis" + basket.getRemainingBalance());
-
-        // If the basket doesn't exist, throw an exception
-        if (basket == null) {
-            logger.info("No Basket found. Nothing to patch");
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-
-        // If the item doesn't exist, throw an exception
-        if (!isItemInBasket(userId, productId)) {
-            logger.info("Item does not exist in basket - nothing to patch");
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        } else {
-            logger.info("Item exists in basket - patching item " + productId + ".....");
-        }
-
-        // Find the item to patch from the basket
-        Item itemToPatch = findItemInBasket(userId, productId);
-        itemToPatch.setCount(itemToPatch.getCount() + item.getCount());
-        logger.info("Item patched successfully");
-
-        // Update the total price of the basket
-        basket.setTotal(basket.getTotal() + (item.getPrice() * item.getCount()));
-        logger.info("Total price of purchase in basket: " + basket.getTotal());
-
-        // Update the remaining balance of the basket
-        basket.setRemainingBalance(basket.getRemainingBalance() - (item.getPrice() * item.getCount()));
-        logger.info("Remaining balance of basket: " + basket.getRemainingBalance());
-
-        // Save the basket in Redis with a TTL of 120 seconds
-        saveBasket(userId, basket);
-        return basket;
+    public Uni<Basket> patchBasket(String userId, String productId, Item item) throws WebApplicationException {
+        // Add the number to the item; the price stored in the basket is used
+        return basketStore.changeCount(userId, productId, item.getCount())
+                .invoke(metrics::basketChanged)
+                .invoke(basket -> logger.debugf("Item %s patched, remaining balance: %s", productId, basket.getRemainingBalance()));
     }
 
     /**
@@ -259,132 +184,145 @@ public class BasketController {
      * @return The updated basket after clearing.
      * @throws WebApplicationException If the basket doesn't exist.
      */
-    public Basket clearBasket(String userId) {
-        Basket basket = basketBasketCommands.get(userId); // Get the basket for the user
-        if (basket == null) {
-            logger.info("No Basket found. Nothing to clear");
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-
-        // reverting the balance to the original value
-        UserEntity user = userRepo.findUserById(Integer.parseInt(userId)); // Find the user by ID
-        basket.setRemainingBalance(user.getBalance()); // Set the remaining balance of the basket to the user's balance
-        basket.getItems().clear(); // Clear the items in the basket
-        saveBasket(userId, basket); // Save the updated basket
-        return basket; // Return the cleared basket
-    }
-
-    /**
-     * Checks if the specified item is present in the user's basket.
-     *
-     * @param userId    the ID of the user
-     * @param productId the ID of the product
-     * @return true if the item is present in the basket, false otherwise
-     * @throws WebApplicationException If the basket doesn't exist.
-     */
-    public boolean isItemInBasket(String userId, String productId) {
-        Basket basket = basketBasketCommands.get(userId); // Get the basket for the user
-        if (basket == null) {
-            logger.info("No Basket found. Nothing to check");
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-        return basket.getItems().stream().anyMatch(i -> i.getProductId().equals(productId)); // Check if the item exists in the basket
-    }
-
-    /**
-     * Finds an item in the basket with the given product ID.
-     *
-     * @param userId    the ID of the user
-     * @param productId the ID of the product to find
-     * @return the item if found, otherwise null
-     */
-    public Item findItemInBasket(String userId, String productId) {
-        Basket basket = basketBasketCommands.get(userId); // Get the basket for the user
-
-        // Find the item in the basket
-        return basket.getItems().stream() // Stream the items in the basket
-                .filter(i -> i.getProductId().equals(productId)) // Filter the items by the product ID
-                .findFirst() // Find the first item
-                .orElse(null); // Return null if no item is found
+    public Uni<Basket> clearBasket(String userId) {
+        // reverting the balance to the original value: nothing is reserved by the basket anymore
+        return basketStore.clear(userId, true);
     }
 
 
     /**
      * Creates a new basket for the specified user.
      *
-     * @param userId the ID of the user
+     * @param user the user that the basket belongs to
      * @return the newly created basket
      */
-    public Basket createBasketForUser(String userId) {
+    public Basket createBasketForUser(UserEntity user) {
         Basket basket = new Basket();  // Create a new basket
-        UserEntity user = userRepo.findUserById(Integer.parseInt(userId)); // Find the user by ID
-        basket.setRemainingBalance(user.getBalance()); // Set the remaining balance of the basket to the user's balance
+        basket.remainingBalanceCents(user.balanceCents()); // Set the remaining balance of the basket to the user's balance
         basket.setItems(new ArrayList<>()); // Create a new list of items
-        basket.setTotal(0.0f); // Set the total price of the basket to 0
-        logger.info("Created new basket for user " + userId ); // Log the creation of the basket
-        logger.info("Remaining balance of basket: " + basket.getRemainingBalance()); // Log the remaining balance of the basket
+        logger.debugf("Created new basket for user %s", user.getId()); // Log the creation of the basket
+        logger.debugf("Remaining balance of basket: %s", basket.getRemainingBalance()); // Log the remaining balance of the basket
         return basket;  // Return the new basket
     }
 
 
     /**
      * Checks out the basket for the specified user.
+     * The items are first taken out of the basket in one script call, so a concurrent checkout
+     * finds the basket empty and an item added meanwhile stays in the basket for the next order.
+     * Taking the total from the balance and inserting the order are one transaction off the event loop,
+     * in which the database checks the balance; if it fails, the items are put back into the basket.
      * @param userId
      * @return the order
      */
-    public OrdersEntity checkoutBasket(String userId) {
+    public Uni<OrdersEntity> checkoutBasket(String userId) {
         // convert String to Integer for userId
         Integer userIdInt = Integer.parseInt(userId);
-        // get the UserEntity from the database
-        UserEntity user = userRepo.findUserById(userIdInt);
-        // get the basket from Redis
-        Basket basket = basketBasketCommands.get(userId);
-        // if the basket does not exist, throw an exception
-        if (basket == null) {
-            logger.info("No Basket found. Nothing to checkout");
-            throw new WebApplicationException(Response.Status.NOT_FOUND);
-        }
-        else if (basket.getTotal() > user.getBalance()) {
-            logger.info("Basket total price: " + basket.getTotal() + " > " + "User balance: " + user.getBalance());
-            logger.info("Not enough Balance");
-            throw new WebApplicationException(Response.Status.BAD_REQUEST);
-        }
-        else if (basket.getItems().size() < 1) {
-            logger.info("Basket is empty or doesn't have enough items");
-            throw new WebApplicationException(Response.Status.BAD_REQUEST);
-        }
-        else {
-            logger.info("Basket exists - checking out basket " + userId + ".....");
+        return basketStore.claim(userId)
+                .onFailure(WebApplicationException.class).invoke(this::checkoutRejected)
+                .chain(basket -> {
+                    logger.debugf("Basket claimed - checking out basket %s.....", userId);
+
+                    // setting up order and put items in it
+                    Order order = new Order();
+                    order.setItems(basket.getItems());
+
+                    logger.debugf("Order items: %s", order.getItems());
+                    logger.debugf("Order total price: %s", order.getTotal());
+
+                    // pay and save the order in one transaction
+                    return blockingExecutor.run(() -> orderRepo.checkout(userIdInt, order))
+                            .onFailure().call(e -> restore(userId, basket))
+                            .call(orderEntity -> {
+                                if (orderEntity == null) {
+                                    logger.debugf("Not enough Balance for basket total price: %s", order.getTotal());
+                                    metrics.checkoutRejected(ShopMetrics.Reason.NOT_ENOUGH_BALANCE);
+                                    return restore(userId, basket).invoke(() -> {
+                                        throw new WebApplicationException(Response.Status.BAD_REQUEST);
+                                    });
+                                }
+                                logger.debug("Order checked out successfully");
+                                metrics.checkoutCompleted();
+                                return Uni.createFrom().voidItem();
+                            })
+                            // a list of recent orders that missed the order is built again when it is read
+                            .call(orderEntity -> recentOrders.push(userId, orderEntity, order.getItems())
+                                    .onFailure().invoke(e -> logger.warn("Could not add order " + orderEntity.getId() + " to the recent orders", e))
+                                    .onFailure().recoverWithNull());
+                });
+    }
 
+    /**
+     * The checked out order as the REST API returns it, with its items and total like the Order schema;
+     * how the items are stored stays inside the database.
+     * @param entity the order as it was written by {@link #checkoutBasket(String)}
+     * @return the order
+     */
+    public Order toOrder(OrdersEntity entity) {
+        List<Item> items = new ArrayList<>();
+        for (OrderItemEntity orderItem : entity.getItems()) {
+            Item item = new Item();
+            item.setProductId(orderItem.getProductId());
+            item.setProductName(orderItem.getProductName());
+            item.setCount(orderItem.getCount());
+            item.priceCents(orderItem.priceCents());
+            items.add(item);
+        }
+        Order order = new Order();
+        order.setItems(items);
+        return order;
+    }
 
+    /**
+     * Puts the items of a checkout that was not paid back into the basket and seeds the ledger
+     * with the balance of the user. A failure is only logged, so the client still gets the reason the checkout failed.
+     */
+    private Uni<Basket> restore(String userId, Basket claimed) {
+        return userCache.findUserByIdAsync(Integer.parseInt(userId))
+                .chain(user -> basketStore.restore(userId, claimed.getItems(), user.balanceCents(), MAX_ITEMS))
+                .invoke(() -> logger.debugf("Items of the checkout put back into the basket of user %s", userId))
+                .onFailure().invoke(e -> logger.error("Could not put the items of a checkout back into the basket of user " + userId, e))
+                .onFailure().recoverWithNull();
+    }
 
+    /**
+     * Counts a checkout the basket script rejected: 404 without basket and 400 for an empty basket.
+     */
+    private void checkoutRejected(Throwable e) {
+        int status = ((WebApplicationException) e).getResponse().getStatus();
+        if (status == Response.Status.NOT_FOUND.getStatusCode()) {
+            logger.debug("No Basket found. Nothing to checkout");
+            metrics.checkoutRejected(ShopMetrics.Reason.NO_BASKET);
+        } else {
+            logger.debug("Basket is empty or doesn't have enough items");
+            metrics.checkoutRejected(ShopMetrics.Reason.EMPTY_BASKET);
         }
+    }
 
-        // setting up order and put items in it
-        Order order = new Order();
-        order.setItems(basket.getItems());
-        order.setTotal(basket.getTotal());
-
-        logger.info("Order items: " + order.getItems());
-        logger.info("Order total price: " + order.getTotal());
-
-        // create a new OrdersEntity instance to save the order in the database
-        OrdersEntity orderEntity = orderRepo.checkout(userId, order);
-        logger.info("Order checked out successfully");
-        // update the balance of the user
-        user.setBalance(user.getBalance() - basket.getTotal());
-        logger.info("User balance: " + user.getBalance());
-        // save the updated user in the database
-        userRepo.updateUser(user);
-        logger.info("User balance updated successfully");
-        // clear the basket
-        clearBasket(userId);
-        logger.info("Basket cleared successfully");
-        // return the order
-        return orderEntity;
+    /**
+     * Whether a checkout is only queued and written to the database later.
+     */
+    public boolean isAsyncCheckout() {
+        return checkoutWorker.isAsync();
+    }
 
+    /**
+     * Queues the checkout of the basket for the specified user.
+     * The items were already checked against the ledger when they were added, so the basket
+     * is moved into the checkout stream and cleared in one script call. Paying and writing
+     * the order is left to the {@link CheckoutWorker}, so the request does not wait for the database.
+     * @param userId
+     * @return the queued order, which has no id yet
+     */
+    public Uni<Order> enqueueCheckout(String userId) {
+        String ref = UUID.randomUUID().toString();
+        return basketStore.checkout(userId, ref).map(basket -> {
+            logger.debugf("Queued order %s of user %s with total %s", ref, userId, basket.getTotal());
+            metrics.checkoutQueued();
+            Order order = new Order();
+            order.setItems(basket.getItems());
+            return order;
+        }).onFailure(WebApplicationException.class).invoke(this::checkoutRejected);
     }
 
 }
-
-
@@ -0,0 +1,168 @@
+package de.berlin.htw.control;
+
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.redis.client.Command;
+import io.vertx.mutiny.redis.client.Request;
+import io.vertx.mutiny.redis.client.Response;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The Lua scripts that change a basket, the checkout stream or the recent orders inside Redis.
+ * Every script is loaded once with SCRIPT LOAD and then called with EVALSHA,
+ * so a change of the basket is one atomic round trip that never blocks the calling thread.
+ */
+@ApplicationScoped
+public class BasketScripts {
+
+    public enum Script {
+        ADD("basket-add.lua", true),
+        ADD_ALL("basket-add-all.lua", true),
+        REMOVE("basket-remove.lua", true),
+        CHANGE_COUNT("basket-change-count.lua", true),
+        CLEAR("basket-clear.lua", true),
+        CHECKOUT("basket-checkout.lua", true),
+        RESTORE("basket-restore.lua", true),
+        CHECKOUT_RELEASE("checkout-release.lua", false),
+        RECENT_ORDERS_PUSH("recent-orders-push.lua", false);
+
+        private final String file;
+
+        /**
+         * Whether the script works on a basket and starts with the common prelude.
+         */
+        private final boolean basket;
+
+        Script(String file, boolean basket) {
+            this.file = file;
+            this.basket = basket;
+        }
+    }
+
+    private static final String SCRIPT_FOLDER = "redis/";
+    private static final String COMMON_SCRIPT = "basket-common.lua";
+
+    @Inject
+    ReactiveRedisDataSource redisDS;
+
+    @Inject
+    Logger logger;
+
+    private final Map<Script, String> sources = new EnumMap<>(Script.class);
+    private final Map<Script, String> shas = new ConcurrentHashMap<>();
+
+    /**
+     * Reads the scripts from the classpath; every script starts with the common prelude.
+     */
+    @PostConstruct
+    protected void init() {
+        String common = read(COMMON_SCRIPT);
+        for (Script script : Script.values()) {
+            sources.put(script, script.basket ? common + "\n" + read(script.file) : read(script.file));
+        }
+    }
+
+    /**
+     * Runs a script on the given basket.
+     *
+     * @param script the script to run
+     * @param key    the key of the basket
+     * @param args   the arguments of the script
+     * @return the reply of the script
+     */
+    public Uni<Response> call(Script script, String key, String... args) {
+        return call(script, List.of(key), args);
+    }
+
+    /**
+     * Runs a script on the given keys; for a basket script the basket is the first key.
+     *
+     * @param script the script to run
+     * @param keys   the keys the script reads or writes
+     * @param args   the arguments of the script
+     * @return the reply of the script
+     */
+    public Uni<Response> call(Script script, List<String> keys, String... args) {
+        byte[][] arguments = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            arguments[i] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return call(script, keys, arguments);
+    }
+
+    /**
+     * Runs a script with binary arguments, e.g. items in the binary format.
+     *
+     * @param script the script to run
+     * @param keys   the keys the script reads or writes
+     * @param args   the arguments of the script
+     * @return the reply of the script
+     */
+    public Uni<Response> call(Script script, List<String> keys, byte[]... args) {
+        String cached = shas.get(script);
+        Uni<String> sha = cached != null ? Uni.createFrom().item(cached) : load(script);
+        return sha
+                .chain(loaded -> redisDS.getRedis().send(request(loaded, keys, args)))
+                .onFailure(BasketScripts::isNoScript).recoverWithUni(() -> {
+                    // Redis was restarted or the script cache was flushed
+                    logger.info("Script " + script + " is not cached in Redis - loading it again");
+                    return load(script).chain(loaded -> redisDS.getRedis().send(request(loaded, keys, args)));
+                });
+    }
+
+    /**
+     * Loads the script into Redis and remembers its SHA for the following calls.
+     */
+    private Uni<String> load(Script script) {
+        return redisDS.execute(Command.SCRIPT, "LOAD", sources.get(script))
+                .map(reply -> {
+                    String sha = reply.toString();
+                    shas.put(script, sha);
+                    return sha;
+                });
+    }
+
+    private static Request request(String sha, List<String> keys, byte[]... args) {
+        Request request = Request.cmd(Command.EVALSHA).arg(sha).arg(keys.size());
+        for (String key : keys) {
+            request.arg(key);
+        }
+        for (byte[] arg : args) {
+            request.arg(arg);
+        }
+        return request;
+    }
+
+    private static String read(String file) {
+        try (InputStream in = BasketScripts.class.getClassLoader().getResourceAsStream(SCRIPT_FOLDER + file)) {
+            if (in == null) {
+                throw new IllegalStateException("Script " + file + " not found");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().startsWith("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
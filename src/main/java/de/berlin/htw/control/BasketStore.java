@@ -0,0 +1,396 @@
+package de.berlin.htw.control;
+
+import de.berlin.htw.boundary.dto.Basket;
+import de.berlin.htw.boundary.dto.BatchResult;
+import de.berlin.htw.boundary.dto.Item;
+import de.berlin.htw.boundary.dto.ItemResult;
+import de.berlin.htw.control.BasketScripts.Script;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.context.Context;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import io.vertx.mutiny.redis.client.Response;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response.Status;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and changes the baskets in Redis without blocking.
+ * A basket is read with one HGETALL by {@link #load(String)}; every change is made by
+ * one call of a {@link BasketScripts basket script} that answers with the changed basket,
+ * so each request needs at most one read and one write.
+ * <p>
+ * The balance a user can spend is kept in Redis as well, as a ledger in cents under
+ * {@link #ledgerKey(String)}, so the balance check of a basket change needs no database read.
+ * Only when the ledger is missing or expired is the balance read from the {@link UserCache}
+ * and the script called once more to seed the ledger.
+ * <p>
+ * Every change gives the basket the next revision from the counter under {@link #revisionKey(String)},
+ * so a conditional read only needs the revision, see {@link #revision(String)}.
+ * Every Redis call is timed as basket.redis by the {@link ShopMetrics}.
+ */
+@ApplicationScoped
+public class BasketStore {
+
+    /**
+     * Time to live of a basket in seconds; refreshed by every change of the basket.
+     */
+    static final long BASKET_TTL_SECONDS = 120;
+
+    static final String LEDGER_PREFIX = "balance:";
+
+    static final String REVISION_PREFIX = "revision:";
+
+    /**
+     * Status of a basket script that needs the balance of the user to seed the ledger.
+     */
+    private static final int SEED_REQUIRED = 428;
+
+    /**
+     * Time after which the ledger is seeded again from the balance in the database.
+     */
+    @ConfigProperty(name = "app.basket.ledger-ttl", defaultValue = "300S")
+    Duration ledgerTtl;
+
+    @Inject
+    ReactiveRedisDataSource redisDS;
+
+    @Inject
+    BasketScripts scripts;
+
+    @Inject
+    UserCache userCache;
+
+    @Inject
+    ShopMetrics metrics;
+
+    @Inject
+    OpenTelemetry openTelemetry;
+
+    @Inject
+    Logger logger;
+
+    /**
+     * Format of the items written into the basket hash; items of both formats are read.
+     */
+    @ConfigProperty(name = "app.basket.item-format", defaultValue = "json")
+    BasketCodec.Format itemFormat;
+
+    private BasketCodec codec;
+
+    /**
+     * Purpose: The basket of a user is stored as a Redis hash under the user id.
+     * The generic types <String, String, byte[]> indicate that keys and fields are strings
+     * and the values are bytes, as items may be stored in the binary format.
+     */
+    private ReactiveHashCommands<String, String, byte[]> basketHashCommands;
+
+    @PostConstruct
+    protected void init() {
+        codec = new BasketCodec(itemFormat);
+        basketHashCommands = redisDS.hash(byte[].class);
+        logger.info("Basket items are written as " + itemFormat);
+    }
+
+    /**
+     * Loads the basket of the given user.
+     * A basket that is still stored in the old value format is migrated to a hash.
+     *
+     * @param userId the user id that the basket belongs to
+     * @return the basket or null if the user has no basket
+     */
+    public Uni<Basket> load(String userId) {
+        return metrics.timeRedis("HGETALL", basketHashCommands.hgetall(userId))
+                .onFailure(BasketStore::isWrongType).recoverWithUni(() -> migrate(userId))
+                .map(fields -> fields.isEmpty() ? null : codec.toBasket(fields));
+    }
+
+    /**
+     * Reads only the revision of the basket of the given user, to answer a conditional request
+     * without reading the basket.
+     *
+     * @param userId the user id that the basket belongs to
+     * @return the revision or null if the user has no basket or the basket has no revision yet
+     */
+    public Uni<Long> revision(String userId) {
+        return metrics.timeRedis("HGET", basketHashCommands.hget(userId, BasketCodec.REVISION_FIELD))
+                .map(revision -> revision == null ? null : Long.valueOf(new String(revision, StandardCharsets.US_ASCII)))
+                // a basket in the old value format has no revision
+                .onFailure(BasketStore::isWrongType).recoverWithNull();
+    }
+
+    /**
+     * Adds an item to the basket, creating the basket if the user has none.
+     *
+     * @param userId   the user id that the basket belongs to
+     * @param item     the item to add
+     * @param maxItems the maximum number of items in a basket
+     * @return the changed basket
+     */
+    public Uni<Basket> add(String userId, Item item, int maxItems) {
+        return execute(userId, Script.ADD, packedProductId(item.getProductId()), codec.encodeItem(item),
+                arg(item.priceCents() * item.getCount()), arg(maxItems));
+    }
+
+    /**
+     * Adds several items to the basket in one script call, creating the basket if the user has none.
+     * Every item is checked like by {@link #add(String, Item, int)}, in the given order;
+     * a rejected item does not stop the others.
+     *
+     * @param userId   the user id that the basket belongs to
+     * @param items    the items to add
+     * @param maxItems the maximum number of items in a basket
+     * @return the changed basket and the status of every item
+     */
+    public Uni<BatchResult> addAll(String userId, List<Item> items, int maxItems) {
+        byte[][] args = new byte[1 + 3 * items.size()][];
+        args[0] = arg(maxItems);
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            args[1 + 3 * i] = packedProductId(item.getProductId());
+            args[2 + 3 * i] = codec.encodeItem(item);
+            args[3 + 3 * i] = arg(item.priceCents() * item.getCount());
+        }
+        return run(userId, Script.ADD_ALL, args).map(reply -> {
+            List<ItemResult> results = new ArrayList<>(items.size());
+            for (int i = 0; i < items.size(); i++) {
+                results.add(new ItemResult(items.get(i).getProductId(), reply.get(1 + i).toInteger()));
+            }
+            BatchResult result = new BatchResult();
+            result.setBasket(toBasket(reply, 1 + items.size()));
+            result.setResults(results);
+            return result;
+        });
+    }
+
+    /**
+     * Removes an item from the basket.
+     */
+    public Uni<Basket> remove(String userId, String productId) {
+        return execute(userId, Script.REMOVE, packedProductId(productId));
+    }
+
+    /**
+     * Adds the given number to the count of an item in the basket.
+     */
+    public Uni<Basket> changeCount(String userId, String productId, Integer count) {
+        return execute(userId, Script.CHANGE_COUNT, packedProductId(productId), arg(count));
+    }
+
+    /**
+     * Removes all items from the basket.
+     *
+     * @param userId   the user id that the basket belongs to
+     * @param giveBack true to give back what the items reserved,
+     *                 false if the items were paid by a checkout
+     * @return the cleared basket
+     */
+    public Uni<Basket> clear(String userId, boolean giveBack) {
+        return execute(userId, Script.CLEAR, arg(giveBack ? "1" : "0"));
+    }
+
+    /**
+     * Moves the items of the basket into the checkout stream and empties the basket.
+     * The total stays taken from the ledger and is reserved by the queued order until
+     * the order is paid and written. The entry carries the trace context of the checkout,
+     * so the {@link CheckoutWorker} can link the write of the order to it.
+     *
+     * @param userId the user id that the basket belongs to
+     * @param ref    the reference of the order
+     * @return the basket as it was checked out
+     */
+    public Uni<Basket> checkout(String userId, String ref) {
+        Map<String, String> trace = new HashMap<>();
+        openTelemetry.getPropagators().getTextMapPropagator().inject(Context.current(), trace, Map::put);
+        return execute(userId, Script.CHECKOUT, arg(ref), arg(userId),
+                arg(trace.getOrDefault(CheckoutWorker.TRACEPARENT, "")));
+    }
+
+    /**
+     * Takes the items out of the basket for a checkout that pays the order directly and empties the basket.
+     * The total stays taken from the ledger; if the payment fails, the items are put back
+     * with {@link #restore(String, List, long, int)}.
+     *
+     * @param userId the user id that the basket belongs to
+     * @return the basket as it was claimed
+     */
+    public Uni<Basket> claim(String userId) {
+        return execute(userId, Script.CHECKOUT, arg(""), arg(userId), arg(""));
+    }
+
+    /**
+     * Puts the items of a checkout back into the basket after the database rejected the payment,
+     * and seeds the ledger, which allowed what the database rejected, again with the balance of the user.
+     * Items whose product was added again after the checkout, or that do not fit anymore, stay out.
+     *
+     * @param userId       the user id that the basket belongs to
+     * @param items        the items that were checked out
+     * @param balanceCents the balance of the user in the database in cents
+     * @param maxItems     the maximum number of items in a basket
+     * @return the basket with the items put back
+     */
+    public Uni<Basket> restore(String userId, List<Item> items, long balanceCents, int maxItems) {
+        byte[][] args = new byte[1 + 2 * items.size()][];
+        args[0] = arg(maxItems);
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            args[1 + 2 * i] = packedProductId(item.getProductId());
+            args[2 + 2 * i] = codec.encodeItem(item);
+        }
+        return call(userId, Script.RESTORE, String.valueOf(balanceCents), args)
+                .invoke(reply -> check(Script.RESTORE, reply))
+                .map(reply -> toBasket(reply, 1));
+    }
+
+    /**
+     * The hash field of an item; a product id that cannot be packed matches no item.
+     */
+    private static byte[] packedProductId(String productId) {
+        return arg(BasketCodec.packProductId(productId));
+    }
+
+    private static byte[] arg(Object value) {
+        return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Key of the balance ledger of a user.
+     */
+    static String ledgerKey(String userId) {
+        return LEDGER_PREFIX + userId;
+    }
+
+    /**
+     * Key of the counter the revisions of the basket of a user are taken from.
+     */
+    static String revisionKey(String userId) {
+        return REVISION_PREFIX + userId;
+    }
+
+    /**
+     * Changes the basket with one of the basket scripts, which checks and writes the basket
+     * atomically inside Redis, and answers with the basket the script returns.
+     *
+     * @param userId the user id that the basket belongs to
+     * @param script the script to run
+     * @param args   the arguments of the script
+     * @return the changed basket, or a failure with the status the script rejected the change with
+     */
+    private Uni<Basket> execute(String userId, Script script, byte[]... args) {
+        return run(userId, script, args).map(reply -> toBasket(reply, 1));
+    }
+
+    /**
+     * Runs one of the basket scripts and checks the status it answers with.
+     * If the script has to seed the ledger, it is called once more with the balance of the user.
+     *
+     * @return the reply of the script, or a failure with the status the script rejected the change with
+     */
+    private Uni<Response> run(String userId, Script script, byte[]... args) {
+        return call(userId, script, "", args).chain(reply -> {
+            if (reply.get(0).toInteger() != SEED_REQUIRED) {
+                return Uni.createFrom().item(reply);
+            }
+            return userCache.findUserByIdAsync(Integer.parseInt(userId)).chain(user -> {
+                if (user == null) {
+                    logger.debugf("No user found with id %s", userId);
+                    throw new WebApplicationException(Status.NOT_FOUND);
+                }
+                logger.debugf("Seeding balance ledger of user %s with %s", userId, user.getBalance());
+                return call(userId, script, String.valueOf(user.balanceCents()), args);
+            });
+        }).invoke(reply -> check(script, reply));
+    }
+
+    /**
+     * Fails with the status a script answered with, if it rejected the change.
+     */
+    private void check(Script script, Response reply) {
+        int status = reply.get(0).toInteger();
+        if (status >= 300) {
+            logger.debugf("Basket script %s rejected the change with status %s", script, status);
+            throw new WebApplicationException(status);
+        }
+    }
+
+    /**
+     * The basket from the field names and values the reply of a script holds from the given index on.
+     */
+    private Basket toBasket(Response reply, int from) {
+        Map<String, byte[]> fields = new HashMap<>();
+        for (int i = from; i + 1 < reply.size(); i += 2) {
+            fields.put(reply.get(i).toString(), reply.get(i + 1).toBytes());
+        }
+        return codec.toBasket(fields);
+    }
+
+    /**
+     * Calls a basket script with the keys of the basket, the ledger, the reservations and the revision counter of the user.
+     * The arguments of the script follow the TTL of the basket, the balance to seed the ledger with
+     * and the TTL of the ledger.
+     */
+    private Uni<Response> call(String userId, Script script, String seed, byte[]... args) {
+        byte[][] arguments = new byte[args.length + 3][];
+        arguments[0] = arg(BASKET_TTL_SECONDS);
+        arguments[1] = arg(seed);
+        arguments[2] = arg(ledgerTtl.toSeconds());
+        System.arraycopy(args, 0, arguments, 3, args.length);
+
+        List<String> keys = script == Script.CHECKOUT
+                ? List.of(userId, ledgerKey(userId), CheckoutWorker.reservedKey(userId), revisionKey(userId), CheckoutWorker.STREAM)
+                : List.of(userId, ledgerKey(userId), CheckoutWorker.reservedKey(userId), revisionKey(userId));
+        return metrics.timeRedis(script.name(), scripts.call(script, keys, arguments));
+    }
+
+    /**
+     * Converts a basket stored as one serialized value into the hash layout.
+     * The key is watched, so a concurrent change aborts the migration and the hash
+     * written by the other request is read instead.
+     *
+     * @param userId the user id that the basket belongs to
+     * @return the fields of the migrated basket
+     */
+    private Uni<Map<String, byte[]>> migrate(String userId) {
+        return redisDS.withTransaction(
+                ds -> ds.value(Basket.class).get(userId),
+                (legacy, tx) -> legacy == null ? Uni.createFrom().voidItem()
+                        : tx.key().del(userId)
+                                .chain(() -> tx.hash(byte[].class).hset(userId, codec.toFields(legacy)))
+                                .chain(() -> tx.key().expire(userId, BASKET_TTL_SECONDS)),
+                userId)
+                .chain(result -> {
+                    if (result.discarded()) {
+                        logger.info("Basket of user " + userId + " changed during migration - reading again");
+                        return basketHashCommands.hgetall(userId);
+                    }
+                    logger.info("Migrated basket of user " + userId + " to hash format");
+                    Basket legacy = result.getPreTransactionResult();
+                    return Uni.createFrom().item(legacy == null ? Map.<String, byte[]>of() : codec.toFields(legacy));
+                });
+    }
+
+    /**
+     * Redis answers with a WRONGTYPE error if a hash command is used on a key holding a plain value.
+     */
+    private static boolean isWrongType(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().startsWith("WRONGTYPE")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,78 @@
+package de.berlin.htw.control;
+
+import io.opentelemetry.context.Context;
+import io.quarkus.virtual.threads.VirtualThreads;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.unchecked.Unchecked;
+import io.vertx.core.Vertx;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs the blocking JPA calls of the endpoints off the event loop.
+ * By default they run on the worker pool; with app.blocking.mode=virtual every call
+ * gets its own virtual thread, so the number of concurrent database calls is not
+ * limited by the size of the worker pool but only by the connection pool.
+ * On a JVM without virtual threads Quarkus falls back to the worker pool.
+ * <p>
+ * In both modes the work runs without the Vert.x context of the request but in the trace context
+ * of the caller, and its result is emitted on the context of the caller again. Sharing the Vert.x
+ * context with the event loop would let the event loop and the worker overwrite each other's
+ * current span, so the spans of the work could get a wrong parent.
+ */
+@ApplicationScoped
+public class BlockingExecutor {
+
+    public enum Mode {
+        WORKER,
+        VIRTUAL
+    }
+
+    @ConfigProperty(name = "app.blocking.mode", defaultValue = "worker")
+    Mode mode;
+
+    @Inject
+    @VirtualThreads
+    ExecutorService virtualThreads;
+
+    @Inject
+    Logger logger;
+
+    @PostConstruct
+    protected void init() {
+        logger.info("Blocking calls run in mode " + mode);
+        if (mode == Mode.VIRTUAL && !virtualThreadsSupported()) {
+            logger.warn("Virtual threads need Java 21 or later, this JVM is Java " + Runtime.version().feature()
+                    + "; the blocking calls run on the worker pool");
+        }
+    }
+
+    /**
+     * Whether this JVM has virtual threads; before Java 21 the mode virtual behaves like worker.
+     */
+    public static boolean virtualThreadsSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * Runs the given blocking work and emits its result on the Vert.x context of the caller.
+     *
+     * @param work the blocking work, e.g. a repository call
+     * @return the result of the work
+     */
+    public <T> Uni<T> run(Callable<T> work) {
+        Callable<T> traced = Context.current().wrap(work);
+        Uni<T> result = Uni.createFrom().item(Unchecked.supplier(traced::call))
+                .runSubscriptionOn(mode == Mode.VIRTUAL ? virtualThreads : Infrastructure.getDefaultWorkerPool());
+        io.vertx.core.Context caller = Vertx.currentContext();
+        return caller == null ? result : result.emitOn(task -> caller.runOnContext(ignored -> task.run()));
+    }
+
+}
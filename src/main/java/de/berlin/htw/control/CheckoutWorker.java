@@ -0,0 +1,435 @@
+package de.berlin.htw.control;
+
+import de.berlin.htw.control.BasketScripts.Script;
+import de.berlin.htw.entity.dao.OrdersRepository;
+import de.berlin.htw.entity.dto.QueuedOrder;
+import de.berlin.htw.entity.dto.QueuedOrder.Outcome;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.stream.PendingMessage;
+import io.quarkus.redis.datasource.stream.StreamCommands;
+import io.quarkus.redis.datasource.stream.StreamMessage;
+import io.quarkus.redis.datasource.stream.StreamRange;
+import io.quarkus.redis.datasource.stream.XGroupCreateArgs;
+import io.quarkus.redis.datasource.stream.XReadGroupArgs;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanBuilder;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.interceptor.Interceptor;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the orders of the checkout stream to the database, if app.checkout.async is set.
+ * The workers of all nodes form one consumer group. Each worker reads a batch of entries,
+ * pays and writes them in one transaction and then acknowledges them and releases their
+ * reserved amounts. An entry that is not acknowledged, because its worker died, is claimed
+ * by another worker after app.checkout.claim-after; as orders are deduplicated by their
+ * reference, it is written at least and at most once. The items of an order the database
+ * rejects are put back into the basket of the user. An entry the database fails to write again
+ * and again is moved to a dead-letter stream, so it does not hold up the other orders.
+ * <p>
+ * Each batch is traced as one span that links to the checkouts that queued its entries,
+ * as an entry carries the trace context of its checkout in the field {@link #TRACEPARENT}.
+ */
+@ApplicationScoped
+public class CheckoutWorker {
+
+    static final String STREAM = "checkout-orders";
+    static final String GROUP = "order-writers";
+    static final String RESERVED_PREFIX = "reserved:";
+
+    /**
+     * Stream of the entries the database failed to write app.checkout.max-deliveries times,
+     * each with the fields of the entry, its former id and the error.
+     */
+    static final String DEAD_LETTER_STREAM = "checkout-orders-dead";
+
+    /**
+     * Field of a stream entry with the W3C trace context of the checkout that queued it.
+     */
+    static final String TRACEPARENT = "traceparent";
+
+    private static final TextMapGetter<Map<String, String>> PAYLOAD_GETTER = new TextMapGetter<>() {
+        @Override
+        public Iterable<String> keys(Map<String, String> payload) {
+            return payload.keySet();
+        }
+
+        @Override
+        public String get(Map<String, String> payload, String key) {
+            return payload == null ? null : payload.get(key);
+        }
+    };
+
+    @ConfigProperty(name = "app.checkout.async", defaultValue = "false")
+    boolean async;
+
+    @ConfigProperty(name = "app.checkout.workers", defaultValue = "1")
+    int workers;
+
+    @ConfigProperty(name = "app.checkout.batch-size", defaultValue = "100")
+    int batchSize;
+
+    @ConfigProperty(name = "app.checkout.claim-after", defaultValue = "60S")
+    Duration claimAfter;
+
+    @ConfigProperty(name = "app.checkout.max-deliveries", defaultValue = "3")
+    int maxDeliveries;
+
+    @Inject
+    RedisDataSource redisDS;
+
+    @Inject
+    BasketScripts scripts;
+
+    @Inject
+    BasketStore basketStore;
+
+    @Inject
+    UserCache userCache;
+
+    @Inject
+    OrdersRepository orderRepo;
+
+    @Inject
+    ShopMetrics metrics;
+
+    @Inject
+    Tracer tracer;
+
+    @Inject
+    OpenTelemetry openTelemetry;
+
+    @Inject
+    Logger logger;
+
+    private final BasketCodec codec = new BasketCodec();
+    private final String consumer = "worker-" + UUID.randomUUID();
+
+    private StreamCommands<String, String, String> streamCommands;
+    private ExecutorService executor;
+    private volatile boolean running;
+
+    void onStart(@Observes StartupEvent event) {
+        if (!async) {
+            return;
+        }
+        streamCommands = redisDS.stream(String.class);
+        createGroup();
+        running = true;
+        executor = Executors.newFixedThreadPool(workers, task -> new Thread(task, "checkout-worker"));
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::poll);
+        }
+        logger.info("Started " + workers + " checkout workers as " + consumer);
+    }
+
+    /**
+     * Stops the workers before the other shutdown observers run, as they must not use
+     * the Redis client once it is closed.
+     */
+    void onStop(@Observes @Priority(Interceptor.Priority.PLATFORM_BEFORE) ShutdownEvent event) throws InterruptedException {
+        stop();
+    }
+
+    /**
+     * Stops the workers also if the shutdown observers did not run. Workers that wait in
+     * {@link #pause()} or in a blocking read of the stream are interrupted.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if (executor != null && !executor.isShutdown()) {
+            executor.shutdownNow();
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("The checkout workers did not stop within 5 s");
+            }
+        }
+    }
+
+    /**
+     * Whether checkouts are queued in the checkout stream instead of being written directly.
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Key of the amount of a user that is reserved by orders in the stream.
+     */
+    static String reservedKey(String userId) {
+        return RESERVED_PREFIX + userId;
+    }
+
+    private void poll() {
+        XReadGroupArgs args = new XReadGroupArgs().count(batchSize).block(Duration.ofSeconds(1));
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                // entries of workers that died are taken over first
+                List<StreamMessage<String, String, String>> messages =
+                        streamCommands.xautoclaim(STREAM, GROUP, consumer, claimAfter, "0-0", batchSize).getMessages();
+                if (messages.isEmpty()) {
+                    messages = streamCommands.xreadgroup(GROUP, consumer, STREAM, ">", args);
+                }
+                if (!messages.isEmpty()) {
+                    write(messages);
+                }
+            } catch (RuntimeException e) {
+                if (!running || Thread.currentThread().isInterrupted()) {
+                    // stopped while reading or writing, the entries are claimed again after the restart
+                    return;
+                }
+                if (isNoGroup(e)) {
+                    // the stream was deleted, e.g. by FLUSHALL
+                    createGroup();
+                } else {
+                    logger.error("Could not write the orders of the checkout stream", e);
+                    pause();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes one batch of entries in a span that links to the traces of their checkouts.
+     */
+    void write(List<StreamMessage<String, String, String>> messages) {
+        SpanBuilder builder = tracer.spanBuilder(STREAM + " process")
+                .setSpanKind(SpanKind.CONSUMER)
+                .setNoParent()
+                .setAttribute("messaging.batch.message_count", (long) messages.size());
+        for (StreamMessage<String, String, String> message : messages) {
+            SpanContext checkout = Span.fromContext(openTelemetry.getPropagators().getTextMapPropagator()
+                    .extract(Context.root(), message.payload(), PAYLOAD_GETTER)).getSpanContext();
+            if (checkout.isValid()) {
+                builder.addLink(checkout);
+            }
+        }
+        Span span = builder.startSpan();
+        try (Scope scope = span.makeCurrent()) {
+            writeBatch(messages);
+        } catch (RuntimeException e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Writes one batch of entries and then acknowledges them and releases their reserved amounts.
+     */
+    private void writeBatch(List<StreamMessage<String, String, String>> messages) {
+        List<QueuedOrder> orders = new ArrayList<>();
+        List<StreamMessage<String, String, String>> written = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        keys.add(STREAM);
+        args.add(GROUP);
+        for (StreamMessage<String, String, String> message : messages) {
+            try {
+                orders.add(toQueuedOrder(message.payload()));
+                written.add(message);
+            } catch (RuntimeException e) {
+                // an entry that cannot be read is not retried, but what it reserved is released
+                logger.error("Dropping unreadable entry " + message.id() + " of the checkout stream", e);
+                if (!addUnreadableRelease(message, keys, args)) {
+                    streamCommands.xack(STREAM, GROUP, message.id());
+                }
+            }
+        }
+        if (orders.isEmpty()) {
+            release(keys, args);
+            return;
+        }
+
+        List<Outcome> outcomes;
+        try {
+            outcomes = orderRepo.persistQueuedOrders(orders);
+        } catch (RuntimeException e) {
+            release(keys, args);
+            writeFailed(written, orders, e);
+            return;
+        }
+
+        List<String> staleKeys = new ArrayList<>();
+        List<QueuedOrder> rejected = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            QueuedOrder order = orders.get(i);
+            keys.add(reservedKey(String.valueOf(order.getUserId())));
+            args.add(written.get(i).id());
+            args.add(String.valueOf(order.getTotalCents()));
+            Outcome outcome = outcomes.get(i);
+            if (outcome == Outcome.PERSISTED) {
+                metrics.checkoutCompleted();
+                // the recent orders of the user miss the order, they are read again from the database
+                staleKeys.add(RecentOrders.key(String.valueOf(order.getUserId())));
+            } else if (outcome == Outcome.DUPLICATE) {
+                // the first delivery of the entry was counted already
+                metrics.checkoutRedelivered();
+            } else if (outcome == Outcome.REJECTED) {
+                logger.info("Order " + order.getRef() + " of user " + order.getUserId() + " rejected, balance too low");
+                metrics.checkoutRejected(ShopMetrics.Reason.NOT_ENOUGH_BALANCE);
+                staleKeys.add(BasketStore.ledgerKey(String.valueOf(order.getUserId())));
+                rejected.add(order);
+            }
+        }
+        release(keys, args);
+        if (!staleKeys.isEmpty()) {
+            // the ledgers that took totals the database rejected are seeded again,
+            // the recent orders that miss an order are read again
+            redisDS.key().del(staleKeys.toArray(new String[0]));
+        }
+        for (QueuedOrder order : rejected) {
+            restore(order);
+        }
+        logger.info("Wrote " + orders.size() + " orders of the checkout stream");
+    }
+
+    /**
+     * Handles a batch the database did not write. One entry can make the whole batch fail,
+     * so the entries of a batch are written one at a time. A single entry that fails is left
+     * pending and claimed again; once it was delivered app.checkout.max-deliveries times, it is
+     * moved to the {@link #DEAD_LETTER_STREAM}, acknowledged and releases what it reserved.
+     */
+    private void writeFailed(List<StreamMessage<String, String, String>> written, List<QueuedOrder> orders,
+                             RuntimeException failure) {
+        if (written.size() > 1) {
+            logger.warn("Could not write a batch of " + written.size() + " orders, writing them one at a time", failure);
+            RuntimeException last = null;
+            for (StreamMessage<String, String, String> message : written) {
+                try {
+                    writeBatch(List.of(message));
+                } catch (RuntimeException e) {
+                    last = e;
+                }
+            }
+            if (last != null) {
+                throw last;
+            }
+            return;
+        }
+
+        StreamMessage<String, String, String> message = written.get(0);
+        List<PendingMessage> pending = streamCommands.xpending(STREAM, GROUP, StreamRange.of(message.id(), message.id()), 1);
+        if (pending.isEmpty() || pending.get(0).getDeliveryCount() < maxDeliveries) {
+            // e.g. the database is not reachable; the entry is claimed again after app.checkout.claim-after
+            throw failure;
+        }
+        QueuedOrder order = orders.get(0);
+        logger.error("Moving entry " + message.id() + " of order " + order.getRef() + " to " + DEAD_LETTER_STREAM
+                + " after " + pending.get(0).getDeliveryCount() + " deliveries", failure);
+        Map<String, String> entry = new HashMap<>(message.payload());
+        entry.put("id", message.id());
+        entry.put("error", String.valueOf(failure));
+        streamCommands.xadd(DEAD_LETTER_STREAM, entry);
+        metrics.checkoutRejected(ShopMetrics.Reason.DEAD_LETTER);
+        release(List.of(STREAM, reservedKey(String.valueOf(order.getUserId()))),
+                List.of(GROUP, message.id(), String.valueOf(order.getTotalCents())));
+    }
+
+    /**
+     * Acknowledges entries and releases their reserved amounts with checkout-release.lua.
+     */
+    private void release(List<String> keys, List<String> args) {
+        if (keys.size() > 1) {
+            scripts.call(Script.CHECKOUT_RELEASE, keys, args.toArray(new String[0])).await().indefinitely();
+        }
+    }
+
+    /**
+     * Puts the items of a rejected order back into the basket of the user, who got 202 for the
+     * checkout and finds the items there again. A failure is only logged, the batch is written.
+     */
+    private void restore(QueuedOrder order) {
+        String userId = String.valueOf(order.getUserId());
+        try {
+            long balanceCents = userCache.findUserById(order.getUserId()).balanceCents();
+            basketStore.restore(userId, order.getItems(), balanceCents, BasketController.MAX_ITEMS).await().indefinitely();
+        } catch (RuntimeException e) {
+            logger.error("Could not put the items of order " + order.getRef() + " back into the basket of user " + userId, e);
+        }
+    }
+
+    /**
+     * Adds an entry that cannot be read as order to the entries to acknowledge and release,
+     * if at least its user and its total can be read.
+     *
+     * @return false if the entry has to be acknowledged on its own, as it releases nothing
+     */
+    private boolean addUnreadableRelease(StreamMessage<String, String, String> message, List<String> keys, List<String> args) {
+        Map<String, String> payload = message.payload();
+        try {
+            Integer userId = Integer.valueOf(payload.get("userId"));
+            long total = Long.parseLong(payload.get("total"));
+            keys.add(reservedKey(String.valueOf(userId)));
+            args.add(message.id());
+            args.add(String.valueOf(total));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private QueuedOrder toQueuedOrder(Map<String, String> payload) {
+        return new QueuedOrder(payload.get("ref"), Integer.valueOf(payload.get("userId")),
+                Long.parseLong(payload.get("total")), codec.decodeItems(payload.get("items")));
+    }
+
+    private void createGroup() {
+        try {
+            streamCommands.xgroupCreate(STREAM, GROUP, "0", new XGroupCreateArgs().mkstream());
+        } catch (RuntimeException e) {
+            if (!hasMessage(e, "BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean isNoGroup(Throwable e) {
+        return hasMessage(e, "NOGROUP");
+    }
+
+    private static boolean hasMessage(Throwable e, String prefix) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
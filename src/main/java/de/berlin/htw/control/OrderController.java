@@ -1,23 +1,24 @@
 package de.berlin.htw.control;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import de.berlin.htw.boundary.dto.Item;
 import de.berlin.htw.boundary.dto.Order;
 import de.berlin.htw.entity.dao.OrdersRepository;
-import de.berlin.htw.entity.dao.UserRepository;
-import de.berlin.htw.entity.dto.OrdersEntity;
+import de.berlin.htw.entity.dto.OrderItemRow;
+import de.berlin.htw.entity.dto.OrderRow;
 import de.berlin.htw.entity.dto.UserEntity;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.Dependent;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.InternalServerErrorException;
 import jakarta.ws.rs.NotSupportedException;
 
 import de.berlin.htw.boundary.dto.Orders;
 import org.jboss.logging.Logger;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Alexander Stanik [alexander.stanik@htw-berlin.de]
@@ -25,68 +26,157 @@ import java.util.List;
 @Dependent
 public class OrderController {
 
+    /**
+     * Number of orders read with one query when the orders are streamed.
+     */
+    static final int STREAM_PAGE_SIZE = 100;
+
     @Inject
     OrdersRepository orderRepo;
 
     @Inject
-    UserRepository userRepo;
+    UserCache userCache;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
+
+    /**
+     * The latest orders of the users in Redis, which serve most pages without a query.
+     */
+    @Inject
+    RecentOrders recentOrders;
 
     @Inject
     Logger logger;
 
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final BasketCodec codec = new BasketCodec();
 
     /**
-     * Purpose: Get all completed orders for a user
+     * Purpose: Get all completed orders for a user, or one page of them, the oldest first
+     * The user and the id of its latest order are read from the cache without blocking. A page of the latest orders,
+     * or any page of a user whose orders all fit, is read from the {@link RecentOrders} in Redis;
+     * a page that starts before them is read from the database off the event loop.
      * @param userId
+     * @param after the id of the last order of the previous page or null for the first page
+     * @param size the maximum number of orders or null for all orders
      * @return
      */
-    public Orders getCompletedOrders(String userId) {
+    public Uni<Orders> getCompletedOrders(String userId, Long after, Integer size) {
         // convert user id to int
         int id = Integer.parseInt(userId);
+        int limit = size == null ? Integer.MAX_VALUE : size;
 
         // find user by id
-        UserEntity user = userRepo.findUserById(id);
-        logger.info("User with id " + userId + " is calling getCompletedOrders");
+        return userCache.findUserByIdAsync(id).chain(user -> {
+            logger.debugf("User with id %s is calling getCompletedOrders", userId);
 
-        // check if user exists
-        if (user == null) {
-            throw new NotSupportedException("User with id " + userId + " does not exist.");
-        }
+            // check if user exists
+            if (user == null) {
+                throw new NotSupportedException("User with id " + userId + " does not exist.");
+            }
 
-        // find orders as entity by user id
-        List<OrdersEntity> ordersAsEntity = orderRepo.findOrdersByUserId(userId);
-        logger.info("Found " + ordersAsEntity.size() + " orders for user with id " + userId);
-        List<Order> orders = new ArrayList<>();
-        // convert orders from entity to dto
-        for (OrdersEntity oneEntity : ordersAsEntity) {
-            Order order = new Order();
-            order.setTotal(oneEntity.getTotal());
-
-            // convert items from json to dto
-            try {
-                // convert json to array of items
-                Item[] itemArray = objectMapper.readValue(oneEntity.getItems(), Item[].class);
-                order.setItems(Arrays.asList(itemArray));
-            } catch (IOException e) {
-                // Handle the exception appropriately (e.g., log or throw a custom exception)
-                e.printStackTrace();
+            // find one page of orders by user id, from the recent orders if the page is one of them
+            return userCache.findLatestOrderIdAsync(id)
+                    .chain(latest -> recentOrders.page(userId, latest, after, limit))
+                    .chain(rows -> rows != null ? Uni.createFrom().item(rows)
+                            : blockingExecutor.run(() -> orderRepo.findOrdersByUserId(id, after, limit)))
+                    .map(rows -> toOrders(userId, user, rows, size));
+        });
+    }
+
+    /**
+     * Purpose: Get the version of the orders of a user, to answer a conditional request without reading the orders
+     * The version is the id of the latest order and the balance of the user, both read from the cache.
+     * Every order changes both; both are dropped from the cache when an order is written.
+     * @param userId
+     * @return the version or null if the user does not exist
+     */
+    public Uni<String> getOrdersVersion(String userId) {
+        int id = Integer.parseInt(userId);
+        return userCache.findUserByIdAsync(id).chain(user -> {
+            if (user == null) {
+                return Uni.createFrom().nullItem();
             }
+            return userCache.findLatestOrderIdAsync(id)
+                    .map(latest -> (latest == null ? 0 : latest) + "-" + user.balanceCents());
+        });
+    }
 
+    /**
+     * Purpose: Stream all completed orders for a user
+     * The orders are read page by page and every order is written as soon as its page is read,
+     * so neither the entities nor the response of the whole history are held in memory.
+     * @param userId
+     * @return
+     */
+    public Multi<Order> streamCompletedOrders(String userId) {
+        int id = Integer.parseInt(userId);
+        logger.debugf("User with id %s is calling streamCompletedOrders", userId);
+
+        return Multi.createBy().repeating()
+                .uni(() -> new AtomicReference<Long>(),
+                        cursor -> blockingExecutor.run(() -> orderRepo.findOrdersByUserId(id, cursor.get(), STREAM_PAGE_SIZE))
+                                .invoke(page -> {
+                                    if (!page.isEmpty()) {
+                                        cursor.set(page.get(page.size() - 1).getId());
+                                    }
+                                }))
+                // a page that is not full is the last one
+                .whilst(page -> page.size() == STREAM_PAGE_SIZE)
+                .onItem().transformToIterable(page -> page.stream().map(this::toOrder).toList());
+    }
 
+    private Orders toOrders(String userId, UserEntity user, List<OrderRow> rows, Integer size) {
+        logger.debugf("Found %s orders for user with id %s", rows.size(), userId);
+        List<Order> orders = new ArrayList<>();
+        // convert orders from rows to dto
+        for (OrderRow oneRow : rows) {
             // Add the order to the list
-            orders.add(order);
+            orders.add(toOrder(oneRow));
         }
 
 
         // create orders dto
         Orders ordersDto = new Orders();
         ordersDto.setOrders(orders);
-        logger.info("Returning " + ordersDto.getOrders().size() + " orders for user with id " + userId);
+        // a full page may be followed by more orders; without a size all orders are returned
+        if (size != null && rows.size() == size) {
+            ordersDto.setNext(rows.get(rows.size() - 1).getId());
+        }
+        logger.debugf("Returning %s orders for user with id %s", ordersDto.getOrders().size(), userId);
 
         ordersDto.setBalance(user.getBalance());
-        logger.info("Returning balance " + ordersDto.getBalance() + " for user with id " + userId);
+        logger.debugf("Returning balance %s for user with id %s", ordersDto.getBalance(), userId);
         return ordersDto;
     }
-}
 
+    private Order toOrder(OrderRow oneRow) {
+        // the total is calculated from the items
+        Order order = new Order();
+
+        // orders from before the table ORDER_ITEM still have their items as json
+        if (oneRow.getItems() == null) {
+            order.setItems(oneRow.getOrderItems().stream().map(OrderController::toItem).toList());
+            return order;
+        }
+        // convert items from json to dto
+        try {
+            // convert json to list of items
+            order.setItems(codec.decodeItems(oneRow.getItems()));
+        } catch (IllegalStateException e) {
+            // an order without its items would show a wrong history, so the request fails
+            logger.error("Items of order " + oneRow.getId() + " could not be read", e);
+            throw new InternalServerErrorException("Items of order " + oneRow.getId() + " could not be read");
+        }
+        return order;
+    }
+
+    static Item toItem(OrderItemRow orderItem) {
+        Item item = new Item();
+        item.setProductId(orderItem.getProductId());
+        item.setProductName(orderItem.getProductName());
+        item.setCount(orderItem.getCount());
+        item.priceCents(orderItem.priceCents());
+        return item;
+    }
+}
@@ -0,0 +1,51 @@
+package de.berlin.htw.control;
+
+import de.berlin.htw.entity.dao.OrdersRepository;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+/**
+ * Copies the items of orders that were stored as JSON in ORD.ITEMS to the table ORDER_ITEM.
+ * Runs at startup in small transactions; until an order is copied it is still shown from its JSON,
+ * so the application can serve requests while the copy is running on another node.
+ */
+@ApplicationScoped
+public class OrderItemBackfill {
+
+    @ConfigProperty(name = "app.order-items.backfill", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.order-items.backfill-batch-size", defaultValue = "500")
+    int batchSize;
+
+    @Inject
+    OrdersRepository orderRepo;
+
+    @Inject
+    Logger logger;
+
+    void onStart(@Observes StartupEvent event) {
+        if (enabled) {
+            run();
+        }
+    }
+
+    /**
+     * Copies all orders that still have their items as JSON.
+     */
+    public void run() {
+        int batches = 0;
+        Long after = null;
+        while ((after = orderRepo.backfillOrderItems(after, batchSize)) != null) {
+            batches++;
+        }
+        if (batches > 0) {
+            logger.info("Copied the items of old orders to ORDER_ITEM in " + batches + " batches");
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package de.berlin.htw.control;
+
+import de.berlin.htw.boundary.dto.Item;
+import de.berlin.htw.control.BasketScripts.Script;
+import de.berlin.htw.entity.dao.OrdersRepository;
+import de.berlin.htw.entity.dto.OrderRow;
+import de.berlin.htw.entity.dto.OrdersEntity;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The latest orders of every user in Redis, so that the pages of GET /orders that show them
+ * need no database query. The orders of a user are a list under {@link #key(String)}, the newest
+ * first, each entry the id, the total in cents and the items as JSON array, separated by ':'.
+ * A list that holds all orders of the user ends with {@link #COMPLETE}.
+ * <p>
+ * A checkout puts its order in front of the list, see {@link #push(String, OrdersEntity, List)}.
+ * A list is only read if its newest order is the latest order of the cached user; a list that
+ * is missing, expired or behind is built again from the database, see {@link #rebuild(String)}.
+ * GET /orders pages the orders oldest first like the database does. Any page of a user whose orders
+ * all fit in the list, and every page that starts at or after the oldest order of the list, is read
+ * from the list; a page that starts before it is read from the database.
+ */
+@ApplicationScoped
+public class RecentOrders {
+
+    static final String PREFIX = "orders:";
+
+    /**
+     * Last entry of a list that holds all orders of the user.
+     */
+    static final String COMPLETE = "complete";
+
+    /**
+     * Number of orders kept per user.
+     */
+    @ConfigProperty(name = "app.orders.recent-size", defaultValue = "50")
+    int size;
+
+    /**
+     * Time after which an unchanged list is dropped and built again when it is read.
+     */
+    @ConfigProperty(name = "app.orders.recent-ttl", defaultValue = "3600S")
+    Duration ttl;
+
+    @Inject
+    ReactiveRedisDataSource redisDS;
+
+    @Inject
+    BasketScripts scripts;
+
+    @Inject
+    OrdersRepository orderRepo;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
+
+    @Inject
+    ShopMetrics metrics;
+
+    @Inject
+    Logger logger;
+
+    private final BasketCodec codec = new BasketCodec();
+
+    /**
+     * Key of the recent orders of a user.
+     */
+    static String key(String userId) {
+        return PREFIX + userId;
+    }
+
+    /**
+     * Reads one page of the orders of a user from the recent orders, ordered by id like
+     * {@link OrdersRepository#findOrdersByUserId(Integer, Long, int)}.
+     *
+     * @param userId        the user
+     * @param latestOrderId the latest order of the user as the user cache knows it, null if there is none
+     * @param after         the id of the last order of the previous page or null for the first page
+     * @param limit         the maximum number of orders
+     * @return the orders of the page, or null if the page starts before the recent orders
+     */
+    public Uni<List<OrderRow>> page(String userId, Long latestOrderId, Long after, int limit) {
+        return metrics.timeRedis("LRANGE", redisDS.list(String.class).lrange(key(userId), 0, -1))
+                .chain(entries -> {
+                    Recent recent = decode(entries);
+                    if (!entries.isEmpty() && Objects.equals(recent.latestId(), latestOrderId)) {
+                        return Uni.createFrom().item(recent);
+                    }
+                    logger.debugf("Recent orders of user %s are missing or behind, reading them again", userId);
+                    return rebuild(userId);
+                })
+                .map(recent -> recent.page(after, limit));
+    }
+
+    /**
+     * Puts the order that was just checked out in front of the recent orders of the user.
+     * If the list does not end with the order before it, the list is dropped instead.
+     *
+     * @param items the items of the order as they were checked out
+     */
+    public Uni<Void> push(String userId, OrdersEntity order, List<Item> items) {
+        String entry = encode(order.getId(), order.totalCents(), codec.encodeItems(items));
+        String previous = order.previousOrderId() == null ? "" : String.valueOf(order.previousOrderId());
+        return metrics.timeRedis(Script.RECENT_ORDERS_PUSH.name(), scripts.call(Script.RECENT_ORDERS_PUSH,
+                        key(userId), previous, entry, String.valueOf(size), String.valueOf(ttl.toSeconds())))
+                .replaceWithVoid();
+    }
+
+    /**
+     * Builds the recent orders of a user from the database.
+     * One order more than kept is read, to know whether the list holds all orders of the user.
+     */
+    private Uni<Recent> rebuild(String userId) {
+        return blockingExecutor.run(() -> orderRepo.findLatestOrdersByUserId(Integer.valueOf(userId), size + 1))
+                .chain(rows -> {
+                    boolean complete = rows.size() <= size;
+                    List<OrderRow> kept = new ArrayList<>(rows.subList(0, Math.min(rows.size(), size)));
+                    List<String> entries = new ArrayList<>();
+                    for (OrderRow row : kept) {
+                        entries.add(encode(row.getId(), row.getTotalCents(), itemsJson(row)));
+                    }
+                    if (complete) {
+                        entries.add(COMPLETE);
+                    }
+                    String key = key(userId);
+                    Collections.reverse(kept);
+                    Recent recent = new Recent(kept, complete);
+                    return metrics.timeRedis("MULTI", redisDS.withTransaction(tx -> tx.key().del(key)
+                                    .chain(() -> tx.list(String.class).rpush(key, entries.toArray(new String[0])))
+                                    .chain(() -> tx.key().expire(key, ttl))))
+                            .replaceWith(recent);
+                });
+    }
+
+    private String itemsJson(OrderRow row) {
+        if (row.getItems() != null) {
+            return row.getItems();
+        }
+        return codec.encodeItems(row.getOrderItems().stream().map(OrderController::toItem).toList());
+    }
+
+    private static String encode(Long id, long totalCents, String itemsJson) {
+        return id + ":" + totalCents + ":" + itemsJson;
+    }
+
+    /**
+     * Reads the entries of a list, the newest first, into the orders by ascending id.
+     */
+    private static Recent decode(List<String> entries) {
+        List<OrderRow> orders = new ArrayList<>(entries.size());
+        boolean complete = false;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            String entry = entries.get(i);
+            if (entry.equals(COMPLETE)) {
+                complete = true;
+                continue;
+            }
+            int id = entry.indexOf(':');
+            int total = entry.indexOf(':', id + 1);
+            orders.add(new OrderRow(Long.valueOf(entry.substring(0, id)),
+                    Long.valueOf(entry.substring(id + 1, total)), entry.substring(total + 1)));
+        }
+        return new Recent(orders, complete);
+    }
+
+    /**
+     * The recent orders of a user by ascending id.
+     *
+     * @param orders   all orders of the user from the oldest of them on
+     * @param complete whether there are no older orders of the user
+     */
+    private record Recent(List<OrderRow> orders, boolean complete) {
+
+        Long latestId() {
+            return orders.isEmpty() ? null : orders.get(orders.size() - 1).getId();
+        }
+
+        /**
+         * The orders after the given id, or null if older orders belong to the page.
+         */
+        List<OrderRow> page(Long after, int limit) {
+            if (!complete && (orders.isEmpty() || after == null || after < orders.get(0).getId())) {
+                return null;
+            }
+            List<OrderRow> page = new ArrayList<>();
+            for (OrderRow order : orders) {
+                if (page.size() == limit) {
+                    break;
+                }
+                if (after == null || order.getId() > after) {
+                    page.add(order);
+                }
+            }
+            return page;
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package de.berlin.htw.control;
+
+import de.berlin.htw.boundary.dto.Basket;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The metrics of the shop that Quarkus does not record by itself, published on /q/metrics.
+ * <ul>
+ *     <li>basket.items and basket.value: size and value in cents of a basket after every change</li>
+ *     <li>checkouts: every checkout by outcome and, for a rejected checkout, by reason;
+ *     an entry of the checkout stream that was delivered again has the outcome redelivered</li>
+ *     <li>basket.redis: duration of each Redis call of the {@link BasketStore}, by operation</li>
+ * </ul>
+ * The latency of the endpoints, the JPA calls of the repositories and the wait for a JDBC
+ * connection are recorded by the Micrometer extension, see application.properties.
+ */
+@ApplicationScoped
+public class ShopMetrics {
+
+    /**
+     * Why a checkout was not written.
+     */
+    public enum Reason {
+        /** The user has no basket. */
+        NO_BASKET,
+        /** The basket has no items. */
+        EMPTY_BASKET,
+        /** The database rejected the payment, the balance of the user is too low. */
+        NOT_ENOUGH_BALANCE,
+        /** An order with the same reference was written before. */
+        CONFLICT,
+        /** The database failed to write the queued order too often, it was moved to the dead-letter stream. */
+        DEAD_LETTER
+    }
+
+    static final String BASKET_ITEMS = "basket.items";
+    static final String BASKET_VALUE = "basket.value";
+    static final String CHECKOUTS = "checkouts";
+    static final String REDIS_CALLS = "basket.redis";
+
+    @Inject
+    MeterRegistry registry;
+
+    private DistributionSummary basketItems;
+    private DistributionSummary basketValue;
+    private Counter completed;
+    private Counter queued;
+    private Counter redelivered;
+    private final Map<Reason, Counter> rejected = new EnumMap<>(Reason.class);
+    private final Map<String, Timer> redisCalls = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    protected void init() {
+        basketItems = DistributionSummary.builder(BASKET_ITEMS)
+                .description("Number of items in a basket after a change")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue((double) BasketController.MAX_ITEMS)
+                .register(registry);
+        basketValue = DistributionSummary.builder(BASKET_VALUE)
+                .description("Total of a basket after a change")
+                .baseUnit("cents")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1000.0)
+                .maximumExpectedValue(1_000_000.0)
+                .register(registry);
+        completed = checkouts("completed", "none");
+        queued = checkouts("queued", "none");
+        redelivered = checkouts("redelivered", "none");
+        for (Reason reason : Reason.values()) {
+            rejected.put(reason, checkouts("rejected", reason.name().toLowerCase()));
+        }
+    }
+
+    private Counter checkouts(String outcome, String reason) {
+        return Counter.builder(CHECKOUTS)
+                .description("Checkouts by outcome and reason of a rejection")
+                .tag("outcome", outcome)
+                .tag("reason", reason)
+                .register(registry);
+    }
+
+    private Timer redisCalls(String operation) {
+        return Timer.builder(REDIS_CALLS)
+                .description("Duration of the Redis calls of the basket")
+                .tag("operation", operation)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Records the size and the value of a basket after it was changed.
+     */
+    public void basketChanged(Basket basket) {
+        basketItems.record(basket.getItems().size());
+        basketValue.record(basket.totalCents());
+    }
+
+    /**
+     * Counts an order that was paid and written, by the request or by the {@link CheckoutWorker}.
+     */
+    public void checkoutCompleted() {
+        completed.increment();
+    }
+
+    /**
+     * Counts a checkout that was queued in the checkout stream.
+     */
+    public void checkoutQueued() {
+        queued.increment();
+    }
+
+    /**
+     * Counts an entry of the checkout stream whose order was written before, e.g. by a worker that
+     * died before it acknowledged the entry. The order was counted when it was written.
+     */
+    public void checkoutRedelivered() {
+        redelivered.increment();
+    }
+
+    public void checkoutRejected(Reason reason) {
+        rejected.get(reason).increment();
+    }
+
+    /**
+     * Times a Redis call from its subscription until it emits its result or fails.
+     *
+     * @param operation the command or script the call runs, used as tag
+     * @param call      the call to time
+     * @return the call that records its duration
+     */
+    public <T> Uni<T> timeRedis(String operation, Uni<T> call) {
+        Timer timer = redisCalls.computeIfAbsent(operation, this::redisCalls);
+        return Uni.createFrom().deferred(() -> {
+            Timer.Sample sample = Timer.start(registry);
+            return call.onTermination().invoke(() -> sample.stop(timer));
+        });
+    }
+
+}
@@ -0,0 +1,127 @@
+package de.berlin.htw.control;
+
+import de.berlin.htw.entity.dao.OrdersRepository;
+import de.berlin.htw.entity.dao.UserChanged;
+import de.berlin.htw.entity.dao.UserRepository;
+import de.berlin.htw.entity.dto.UserEntity;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.pubsub.PubSubCommands;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.context.control.ActivateRequestContext;
+import jakarta.enterprise.event.Observes;
+import jakarta.enterprise.event.TransactionPhase;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+/**
+ * A bounded in-process cache in front of {@link UserRepository#findUserById(Integer)},
+ * and of {@link OrdersRepository#findLatestOrderId(Integer)}, which only GET /orders needs.
+ * Size and lifetime of the entries are configured with quarkus.cache.caffeine."users" and "latest-orders".
+ * When a user is changed, the id is published on a Redis channel, so every node drops its entries.
+ * Every order takes its total from the balance, so the latest order id is dropped with the user.
+ */
+@ApplicationScoped
+public class UserCache {
+
+    static final String INVALIDATION_CHANNEL = "user-invalidation";
+
+    @Inject
+    @CacheName("users")
+    Cache cache;
+
+    @Inject
+    @CacheName("latest-orders")
+    Cache latestOrders;
+
+    @Inject
+    UserRepository userRepo;
+
+    @Inject
+    OrdersRepository orderRepo;
+
+    @Inject
+    RedisDataSource redisDS;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
+
+    @Inject
+    Logger logger;
+
+    private PubSubCommands<Integer> pubSubCommands;
+    private PubSubCommands.RedisSubscriber subscriber;
+
+    void onStart(@Observes StartupEvent event) {
+        pubSubCommands = redisDS.pubsub(Integer.class);
+        subscriber = pubSubCommands.subscribe(INVALIDATION_CHANNEL, this::invalidate);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (subscriber == null) {
+            return;
+        }
+        try {
+            subscriber.unsubscribe();
+        } catch (RuntimeException e) {
+            // the connection is closed with the Redis client anyway, the other shutdown tasks must still run
+            logger.warn("Could not unsubscribe from " + INVALIDATION_CHANNEL, e);
+        }
+    }
+
+    /**
+     * Purpose: Find a user by id, from the database only if the user is not cached
+     * Blocks the calling thread, which may be one without request, e.g. a checkout worker.
+     * @param id
+     * @return the user or null if there is no user with this id
+     */
+    @ActivateRequestContext
+    public UserEntity findUserById(final Integer id) {
+        return cache.get(id, userRepo::findUserById).await().indefinitely();
+    }
+
+    /**
+     * Purpose: Find a user by id without blocking the calling thread.
+     * A cached user is returned directly; otherwise the database is queried off the event loop.
+     * @param id
+     * @return the user or null if there is no user with this id
+     */
+    public Uni<UserEntity> findUserByIdAsync(final Integer id) {
+        return cache.getAsync(id, key -> blockingExecutor.run(() -> userRepo.findUserById(key)));
+    }
+
+    /**
+     * Purpose: Find the id of the latest order of a user without blocking the calling thread.
+     * A cached id is returned directly; otherwise the database is queried off the event loop.
+     * @param id
+     * @return the id or null if the user has no order yet
+     */
+    public Uni<Long> findLatestOrderIdAsync(final Integer id) {
+        return latestOrders.getAsync(id, key -> blockingExecutor.run(() -> orderRepo.findLatestOrderId(key)));
+    }
+
+    /**
+     * Drops the cached user on this node and tells all other nodes to drop it as well.
+     * Runs after the transaction that changed the user has completed, also after a rollback,
+     * as the cached instance may have been changed before.
+     */
+    void onUserChanged(@Observes(during = TransactionPhase.AFTER_COMPLETION) UserChanged event) {
+        invalidate(event.getUserId());
+        pubSubCommands.publish(INVALIDATION_CHANNEL, event.getUserId());
+    }
+
+    /**
+     * Drops the cached user and its latest order id on this node. Messages of the channel arrive
+     * on an I/O thread, so the invalidation must not block.
+     */
+    private void invalidate(Integer userId) {
+        cache.invalidate(userId).chain(() -> latestOrders.invalidate(userId)).subscribe().with(
+                ignored -> logger.debug("Dropped cached user " + userId),
+                failure -> logger.error("Could not drop cached user " + userId, failure));
+    }
+
+}
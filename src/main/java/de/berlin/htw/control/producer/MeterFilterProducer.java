@@ -0,0 +1,32 @@
+package de.berlin.htw.control.producer;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import jakarta.enterprise.inject.Produces;
+import jakarta.inject.Singleton;
+
+/**
+ * Publishes the latency of the endpoints as histogram, so percentiles can be aggregated
+ * over all nodes in Prometheus.
+ */
+@Singleton
+public class MeterFilterProducer {
+
+    @Produces
+    @Singleton
+    public MeterFilter endpointHistograms() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (id.getName().equals("http.server.requests")) {
+                    return DistributionStatisticConfig.builder()
+                            .percentilesHistogram(true)
+                            .build()
+                            .merge(config);
+                }
+                return config;
+            }
+        };
+    }
+}
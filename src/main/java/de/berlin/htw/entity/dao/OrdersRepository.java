@@ -1,16 +1,40 @@
 package de.berlin.htw.entity.dao;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import de.berlin.htw.boundary.dto.Item;
+import de.berlin.htw.boundary.dto.Money;
 import de.berlin.htw.boundary.dto.Order;
+import de.berlin.htw.control.BasketCodec;
+import de.berlin.htw.entity.dto.OrderItemEntity;
+import de.berlin.htw.entity.dto.OrderItemRow;
+import de.berlin.htw.entity.dto.OrderRow;
 import de.berlin.htw.entity.dto.OrdersEntity;
+import de.berlin.htw.entity.dto.QueuedOrder;
+import de.berlin.htw.entity.dto.QueuedOrder.Outcome;
+import de.berlin.htw.entity.dto.UserEntity;
+import io.micrometer.core.annotation.Timed;
+import io.opentelemetry.instrumentation.annotations.WithSpan;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
 import jakarta.inject.Inject;
 import jakarta.persistence.PersistenceContext;
 import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 
+import org.hibernate.Session;
+import org.jboss.logging.Logger;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @ApplicationScoped
 public class OrdersRepository {
@@ -21,54 +45,292 @@ public class OrdersRepository {
     @Inject
     private UserRepository userRepository;
 
+    @Inject
+    Event<UserChanged> userChanged;
+
+    @Inject
+    Logger logger;
+
+    /**
+     * Reads the items of old orders the same way the orders history shows them.
+     */
+    private final BasketCodec codec = new BasketCodec();
+
     /**
-     * Purpose: Persist an order in the database
+     * Purpose: Pay and persist an order in one transaction
+     * The total is taken from the balance of the user with a conditional update; only if that
+     * succeeds the order is inserted. The items are written to ORDER_ITEM; as their key is assigned,
+     * Hibernate sends them in one JDBC batch when the transaction is flushed.
      * @param userId
      * @param order
-     * @return
+     * @return the order or null if the balance of the user is too low
      */
     @Transactional
-    public OrdersEntity checkout(String userId, Order order) {
-        String itemJson = null;
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
+    public OrdersEntity checkout(Integer userId, Order order) {
+        // Take the total from the balance first; the row lock serializes checkouts of the same user
+        if (!userRepository.debitBalance(userId, order.totalCents())) {
+            return null;
+        }
+
+        // Every order of the user is written under that lock, so this is the order right before the new one
+        Long previousOrderId = em.createQuery("SELECT MAX(o.id) FROM OrdersEntity o WHERE o.user.id = :id", Long.class)
+                .setParameter("id", userId)
+                .getSingleResult();
+
         // Create a new OrdersEntity instance
         OrdersEntity orderEntity = new OrdersEntity();
 
-        // Convert the items of the order to JSON using Jackson ObjectMapper
-        // why? because we want to store the items as a String in the database and not as a List
-        ObjectMapper objectMapper = new ObjectMapper();
-        try {
-            itemJson = objectMapper.writeValueAsString(order.getItems());
-            orderEntity.setItems(itemJson);
-        } catch (JsonProcessingException e) {
-            // Handle the exception (e.g., log it or throw a custom exception)
-            e.printStackTrace();
-        }
-
-        // Set the items and total for the OrdersEntity
-        orderEntity.setItems(itemJson);
-        orderEntity.setTotal(order.getTotal());
+        // Set the total for the OrdersEntity
+        orderEntity.totalCents(order.totalCents());
 
-        // Retrieve the user associated with the given userId using userRepo
-        orderEntity.setUser(userRepository.findUserById(Integer.parseInt(userId)));
+        // Reference the user by id without reading it
+        orderEntity.setUser(em.getReference(UserEntity.class, userId));
 
-        // Persist the OrdersEntity in the database
+        // Persist the OrdersEntity in the database; the generated id is needed for the items
         em.persist(orderEntity);
 
+        // Persist one row per item
+        List<OrderItemEntity> items = new ArrayList<>();
+        for (Item item : order.getItems()) {
+            items.add(toOrderItem(orderEntity.getId(), item));
+        }
+        items.forEach(em::persist);
+        orderEntity.setItems(items);
+        orderEntity.previousOrderId(previousOrderId);
+
         // Return the persisted OrdersEntity
         return orderEntity;
 
     }
 
     /**
-     * Purpose: Find all orders for a user directly from the database with a JPQL query
+     * Purpose: Pay and persist orders from the checkout stream in one transaction
+     * All statements are sent as JDBC batches: the conditional debits of the balances,
+     * the orders and their items. An order whose reference exists already is skipped,
+     * so an entry that is delivered again is written only once.
+     * @param orders the orders in the order of the stream
+     * @return what happened to each order, in the order of the given orders; of two entries
+     * with the same reference only the first one can be written
+     */
+    @Transactional
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
+    public List<Outcome> persistQueuedOrders(List<QueuedOrder> orders) {
+        List<Outcome> outcomes = em.unwrap(Session.class).doReturningWork(connection -> {
+            List<Outcome> result = new ArrayList<>(Collections.nCopies(orders.size(), Outcome.DUPLICATE));
+
+            // skip orders that were written before
+            Set<String> existing = new HashSet<>();
+            String placeholders = String.join(",", Collections.nCopies(orders.size(), "?"));
+            try (PreparedStatement select = connection.prepareStatement("SELECT ORDER_REF FROM ORD WHERE ORDER_REF IN (" + placeholders + ")")) {
+                for (int i = 0; i < orders.size(); i++) {
+                    select.setString(i + 1, orders.get(i).getRef());
+                }
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        existing.add(rs.getString(1));
+                    }
+                }
+            }
+            List<Integer> candidates = new ArrayList<>();
+            for (int i = 0; i < orders.size(); i++) {
+                if (existing.add(orders.get(i).getRef())) {
+                    candidates.add(i);
+                }
+            }
+
+            // take the totals from the balances, in the order of the stream
+            List<QueuedOrder> paid = new ArrayList<>();
+            if (!candidates.isEmpty()) {
+                try (PreparedStatement debit = connection.prepareStatement(
+                        "UPDATE USER SET BALANCE = BALANCE - ?, MODIFIED_AT = CURRENT_TIMESTAMP WHERE ID = ? AND BALANCE >= ?")) {
+                    for (int index : candidates) {
+                        QueuedOrder order = orders.get(index);
+                        BigDecimal amount = Money.decimal(order.getTotalCents());
+                        debit.setBigDecimal(1, amount);
+                        debit.setInt(2, order.getUserId());
+                        debit.setBigDecimal(3, amount);
+                        debit.addBatch();
+                    }
+                    int[] updated = debit.executeBatch();
+                    for (int i = 0; i < candidates.size(); i++) {
+                        int index = candidates.get(i);
+                        if (updated[i] > 0) {
+                            paid.add(orders.get(index));
+                            result.set(index, Outcome.PERSISTED);
+                        } else {
+                            result.set(index, Outcome.REJECTED);
+                        }
+                    }
+                }
+            }
+            if (paid.isEmpty()) {
+                return result;
+            }
+
+            // insert the orders; the generated ids are returned in the order of the batch
+            List<Long> orderIds = new ArrayList<>();
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO ORD (USERID, TOTAL, ORDER_REF) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+                for (QueuedOrder order : paid) {
+                    insert.setInt(1, order.getUserId());
+                    insert.setBigDecimal(2, Money.decimal(order.getTotalCents()));
+                    insert.setString(3, order.getRef());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        orderIds.add(keys.getLong(1));
+                    }
+                }
+            }
+
+            // insert the items of all orders
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO ORDER_ITEM (ORDERID, PRODUCTID, NAME, COUNT, PRICE) VALUES (?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < paid.size(); i++) {
+                    for (Item item : paid.get(i).getItems()) {
+                        insert.setLong(1, orderIds.get(i));
+                        insert.setString(2, item.getProductId());
+                        insert.setString(3, item.getProductName());
+                        insert.setInt(4, item.getCount());
+                        insert.setBigDecimal(5, Money.decimal(item.priceCents()));
+                        insert.addBatch();
+                    }
+                }
+                insert.executeBatch();
+            }
+            return result;
+        });
+
+        // tell the user caches that the balances have changed
+        IntStream.range(0, orders.size())
+                .filter(i -> outcomes.get(i) == Outcome.PERSISTED)
+                .mapToObj(i -> orders.get(i).getUserId())
+                .distinct()
+                .forEach(userId -> userChanged.fire(new UserChanged(userId)));
+        return outcomes;
+    }
+
+    /**
+     * Purpose: Find one page of the orders of a user, ordered by id.
+     * Keyset pagination: the page starts after the last order of the previous page,
+     * so the database does not have to skip the orders of the previous pages.
+     * Only id, total and items are selected; the index IX_ORD_USERID_ID serves both the filter and the order.
+     * The items of all orders of the page are read with one more query.
      * @param userId
+     * @param afterId the id of the last order of the previous page or null for the first page
+     * @param limit the maximum number of orders
      * @return
      */
-    public List<OrdersEntity> findOrdersByUserId(String userId) {
-        return em.createQuery("SELECT o FROM OrdersEntity o WHERE o.user.id = :id", OrdersEntity.class)
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
+    public List<OrderRow> findOrdersByUserId(Integer userId, Long afterId, int limit) {
+        List<OrderRow> rows = em.createQuery("SELECT new de.berlin.htw.entity.dto.OrderRow(o.id, o.total, o.itemsJson)"
+                        + " FROM OrdersEntity o WHERE o.user.id = :id AND o.id > :after ORDER BY o.id", OrderRow.class)
                 .setParameter("id", userId)
+                .setParameter("after", afterId == null ? 0L : afterId)
+                .setMaxResults(limit)
                 .getResultList();
+        attachOrderItems(rows);
+        return rows;
     }
 
-}
+    /**
+     * Purpose: Find the latest orders of a user, the newest first.
+     * Used to build the recent orders of the user in Redis; the index IX_ORD_USERID_ID is read backwards.
+     * @param userId
+     * @param limit the maximum number of orders
+     * @return
+     */
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
+    public List<OrderRow> findLatestOrdersByUserId(Integer userId, int limit) {
+        List<OrderRow> rows = em.createQuery("SELECT new de.berlin.htw.entity.dto.OrderRow(o.id, o.total, o.itemsJson)"
+                        + " FROM OrdersEntity o WHERE o.user.id = :id ORDER BY o.id DESC", OrderRow.class)
+                .setParameter("id", userId)
+                .setMaxResults(limit)
+                .getResultList();
+        attachOrderItems(rows);
+        return rows;
+    }
+
+    /**
+     * Purpose: Find the id of the latest order of a user
+     * Only GET /orders needs it, to check its recent orders in Redis and for its ETag;
+     * the index IX_ORD_USERID_ID answers it without reading the orders.
+     * @param userId
+     * @return the id or null if the user has no order yet
+     */
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
+    public Long findLatestOrderId(Integer userId) {
+        return em.createQuery("SELECT MAX(o.id) FROM OrdersEntity o WHERE o.user.id = :id", Long.class)
+                .setParameter("id", userId)
+                .getSingleResult();
+    }
+
+    /**
+     * Reads the items of all orders of a page with one query; orders that still have
+     * their items as JSON are left out. The items are read as rows, not as entities.
+     */
+    private void attachOrderItems(List<OrderRow> rows) {
+        List<Long> orderIds = rows.stream().filter(row -> row.getItems() == null).map(OrderRow::getId).toList();
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        Map<Long, List<OrderItemRow>> itemsByOrder = em.createQuery("SELECT new de.berlin.htw.entity.dto.OrderItemRow("
+                        + "i.orderId, i.productId, i.productName, i.count, i.price)"
+                        + " FROM OrderItemEntity i WHERE i.orderId IN :ids ORDER BY i.orderId, i.productId", OrderItemRow.class)
+                .setParameter("ids", orderIds)
+                .getResultList().stream()
+                .collect(Collectors.groupingBy(OrderItemRow::getOrderId));
+        for (OrderRow row : rows) {
+            row.setOrderItems(itemsByOrder.getOrDefault(row.getId(), List.of()));
+        }
+    }
+
+    /**
+     * Purpose: Copy the items of orders that were stored as JSON to ORDER_ITEM
+     * Copies at most the given number of orders in one transaction and clears their JSON.
+     * @param afterId the id of the last order of the previous batch or null for the first batch
+     * @param limit the maximum number of orders
+     * @return the id of the last order of this batch or null if there are no more orders to copy
+     */
+    @Transactional
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
+    public Long backfillOrderItems(Long afterId, int limit) {
+        List<OrdersEntity> orders = em.createQuery(
+                        "SELECT o FROM OrdersEntity o WHERE o.itemsJson IS NOT NULL AND o.id > :after ORDER BY o.id", OrdersEntity.class)
+                .setParameter("after", afterId == null ? 0L : afterId)
+                .setMaxResults(limit)
+                .getResultList();
+        for (OrdersEntity orderEntity : orders) {
+            try {
+                for (Item item : codec.decodeItems(orderEntity.getItemsJson())) {
+                    em.persist(toOrderItem(orderEntity.getId(), item));
+                }
+                orderEntity.setItemsJson(null);
+            } catch (IllegalStateException e) {
+                // keep the JSON, the order is still shown from it
+                logger.error("Items of order " + orderEntity.getId() + " could not be copied", e);
+            }
+        }
+        return orders.isEmpty() ? null : orders.get(orders.size() - 1).getId();
+    }
 
+    private static OrderItemEntity toOrderItem(Long orderId, Item item) {
+        OrderItemEntity orderItem = new OrderItemEntity();
+        orderItem.setOrderId(orderId);
+        orderItem.setProductId(item.getProductId());
+        orderItem.setProductName(item.getProductName());
+        orderItem.setCount(item.getCount());
+        orderItem.priceCents(item.priceCents());
+        return orderItem;
+    }
+
+}
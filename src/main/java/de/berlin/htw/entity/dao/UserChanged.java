@@ -0,0 +1,18 @@
+package de.berlin.htw.entity.dao;
+
+/**
+ * Fired by {@link UserRepository} inside the transaction that changed a user.
+ */
+public class UserChanged {
+
+    private final Integer userId;
+
+    public UserChanged(Integer userId) {
+        this.userId = userId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+}
@@ -1,10 +1,18 @@
 package de.berlin.htw.entity.dao;
 
+import io.micrometer.core.annotation.Timed;
+import io.opentelemetry.instrumentation.annotations.WithSpan;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Event;
+import jakarta.inject.Inject;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
 import jakarta.transaction.Transactional;
+import jakarta.transaction.Transactional.TxType;
 
+import java.math.BigDecimal;
+
+import de.berlin.htw.boundary.dto.Money;
 import de.berlin.htw.entity.dto.UserEntity;
 
 /**
@@ -20,11 +28,19 @@ public class UserRepository {
     @PersistenceContext
     EntityManager entityManager;
 
+    /**
+     * Tells caches of users that a user was changed
+     */
+    @Inject
+    Event<UserChanged> userChanged;
+
     /**
      * Purpose: Find a user by id
      * @param id
      * @return
      */
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
     public UserEntity findUserById(final Integer id) {
         return entityManager.find(UserEntity.class, id);
     }
@@ -35,8 +51,11 @@ public class UserRepository {
      * @param user
      */
     @Transactional
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
     public void persistUser(final UserEntity user) {
         entityManager.persist(user);
+        userChanged.fire(new UserChanged(user.getId()));
     }
 
     /**
@@ -44,8 +63,38 @@ public class UserRepository {
      * @param user
      */
     @Transactional
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
     public void updateUser(final UserEntity user) {
         entityManager.merge(user);
+        userChanged.fire(new UserChanged(user.getId()));
+    }
+
+    /**
+     * Purpose: Take an amount from the balance of a user, if the balance is high enough
+     * The balance is checked and changed by the database in one statement, so concurrent
+     * debits on any node can neither overdraw the balance nor overwrite each other.
+     * Must be called in the transaction that also writes what the amount is paid for.
+     * @param id
+     * @param amountCents the amount in cents
+     * @return false if the user does not exist or the balance is too low
+     */
+    @Transactional(TxType.MANDATORY)
+    @Timed(value = "repository.calls", histogram = true)
+    @WithSpan
+    public boolean debitBalance(final Integer id, final long amountCents) {
+        // BALANCE is DECIMAL(10, 2); the amount in cents is exactly the same precision
+        BigDecimal debit = Money.decimal(amountCents);
+        int updated = entityManager.createNativeQuery("UPDATE USER SET BALANCE = BALANCE - ?1, MODIFIED_AT = CURRENT_TIMESTAMP"
+                        + " WHERE ID = ?2 AND BALANCE >= ?1")
+                .setParameter(1, debit)
+                .setParameter(2, id)
+                .executeUpdate();
+        if (updated == 0) {
+            return false;
+        }
+        userChanged.fire(new UserChanged(id));
+        return true;
     }
     
 }
\ No newline at end of file
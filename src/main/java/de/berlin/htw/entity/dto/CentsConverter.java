@@ -0,0 +1,25 @@
+package de.berlin.htw.entity.dto;
+
+import de.berlin.htw.boundary.dto.Money;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.math.BigDecimal;
+
+/**
+ * Maps an amount in cents to a DECIMAL(10,2) column without going through float.
+ */
+@Converter
+public class CentsConverter implements AttributeConverter<Long, BigDecimal> {
+
+    @Override
+    public BigDecimal convertToDatabaseColumn(Long cents) {
+        return cents == null ? null : Money.decimal(cents);
+    }
+
+    @Override
+    public Long convertToEntityAttribute(BigDecimal euros) {
+        return euros == null ? null : Money.cents(euros);
+    }
+
+}
@@ -0,0 +1,125 @@
+package de.berlin.htw.entity.dto;
+
+import de.berlin.htw.boundary.dto.Money;
+import jakarta.json.bind.annotation.JsonbTransient;
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * One item of an order. The key is the order id and the product id, as a product
+ * is at most once in a basket. The key is assigned, not generated, so that Hibernate
+ * can insert all items of an order in one JDBC batch.
+ */
+@Entity
+@Table(name = "ORDER_ITEM")
+@IdClass(OrderItemEntity.Key.class)
+public class OrderItemEntity {
+
+    @Id
+    @Column(name = "ORDERID")
+    private Long orderId;
+
+    @Id
+    @Column(name = "PRODUCTID")
+    private String productId;
+
+    @Column(name = "NAME", nullable = false)
+    private String productName;
+
+    @Column(name = "COUNT", nullable = false)
+    private Integer count;
+
+    /**
+     * Price in cents.
+     */
+    @Column(name = "PRICE", nullable = false)
+    @Convert(converter = CentsConverter.class)
+    private long price;
+
+    @JsonbTransient
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public void setProductName(String productName) {
+        this.productName = productName;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    public Double getPrice() {
+        return Money.euros(price);
+    }
+
+    public void setPrice(Double price) {
+        this.price = Money.cents(price);
+    }
+
+    /**
+     * The price in cents, for calculations.
+     */
+    public long priceCents() {
+        return price;
+    }
+
+    public void priceCents(long price) {
+        this.price = price;
+    }
+
+    public static class Key implements Serializable {
+
+        private Long orderId;
+
+        private String productId;
+
+        public Key() {
+        }
+
+        public Key(Long orderId, String productId) {
+            this.orderId = orderId;
+            this.productId = productId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return Objects.equals(orderId, key.orderId) && Objects.equals(productId, key.productId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(orderId, productId);
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package de.berlin.htw.entity.dto;
+
+/**
+ * The columns of an item of ORDER_ITEM that are needed to show it.
+ * Read with a constructor expression, so the history of a user loads no {@link OrderItemEntity}
+ * into the persistence context.
+ */
+public class OrderItemRow {
+
+    private final Long orderId;
+
+    private final String productId;
+
+    private final String productName;
+
+    private final Integer count;
+
+    /**
+     * Price in cents.
+     */
+    private final long price;
+
+    public OrderItemRow(Long orderId, String productId, String productName, Integer count, Long price) {
+        this.orderId = orderId;
+        this.productId = productId;
+        this.productName = productName;
+        this.count = count;
+        this.price = price;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public long priceCents() {
+        return price;
+    }
+
+}
@@ -0,0 +1,51 @@
+package de.berlin.htw.entity.dto;
+
+import java.util.List;
+
+/**
+ * The columns of an order that are needed to show it: id, total and the items.
+ * Read with a constructor expression, so neither the order entity nor its user is loaded.
+ * The items are either the JSON of an order that was not yet copied to ORDER_ITEM
+ * or the rows of ORDER_ITEM, which are read for all orders of a page at once.
+ * Neither is an entity, so reading the history keeps nothing in the persistence context.
+ */
+public class OrderRow {
+
+    private final Long id;
+
+    /**
+     * Total in cents.
+     */
+    private final long total;
+
+    private final String items;
+
+    private List<OrderItemRow> orderItems = List.of();
+
+    public OrderRow(Long id, Long total, String items) {
+        this.id = id;
+        this.total = total;
+        this.items = items;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public long getTotalCents() {
+        return total;
+    }
+
+    public String getItems() {
+        return items;
+    }
+
+    public List<OrderItemRow> getOrderItems() {
+        return orderItems;
+    }
+
+    public void setOrderItems(List<OrderItemRow> orderItems) {
+        this.orderItems = orderItems;
+    }
+
+}
@@ -1,7 +1,11 @@
 package de.berlin.htw.entity.dto;
 
+import de.berlin.htw.boundary.dto.Money;
+import jakarta.json.bind.annotation.JsonbTransient;
 import jakarta.persistence.*;
 
+import java.util.List;
+
 @Entity
 @Table(name = "ORD")
 public class OrdersEntity {
@@ -11,15 +15,40 @@ public class OrdersEntity {
     @Column(name = "ID")
     private Long id;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "USERID", nullable = false)
     private UserEntity user;
 
+    /**
+     * Total in cents.
+     */
     @Column(name = "TOTAL", nullable = false)
-    private Float total;
-
-    @Column(name = "ITEMS",nullable = false)
-    private String items;
+    @Convert(converter = CentsConverter.class)
+    private long total;
+
+    /**
+     * Reference of an order that was checked out through the checkout stream, null otherwise.
+     */
+    @Column(name = "ORDER_REF", unique = true)
+    private String orderRef;
+
+    /**
+     * The items as JSON array, only set for orders from before the table ORDER_ITEM
+     * and cleared when they are copied there.
+     */
+    @Column(name = "ITEMS")
+    private String itemsJson;
+
+    @OneToMany(fetch = FetchType.LAZY)
+    @JoinColumn(name = "ORDERID", insertable = false, updatable = false)
+    private List<OrderItemEntity> items;
+
+    /**
+     * Id of the order of the same user right before this one, null if it is the first;
+     * only known for an order that was just checked out.
+     */
+    @Transient
+    private Long previousOrderId;
 
     public Long getId() {
         return id;
@@ -29,6 +58,7 @@ public class OrdersEntity {
         this.id = id;
     }
 
+    @JsonbTransient
     public UserEntity getUser() {
         return user;
     }
@@ -37,20 +67,55 @@ public class OrdersEntity {
         this.user = user;
     }
 
-    public Float getTotal() {
+    public Double getTotal() {
+        return Money.euros(total);
+    }
+
+    public void setTotal(Double total) {
+        this.total = Money.cents(total);
+    }
+
+    /**
+     * The total in cents, for calculations.
+     */
+    public long totalCents() {
         return total;
     }
 
-    public void setTotal(Float total) {
+    public void totalCents(long total) {
         this.total = total;
     }
 
-    public String getItems() {
-        return items;
+    public Long previousOrderId() {
+        return previousOrderId;
     }
 
-    public void setItems(String items) {
+    public void previousOrderId(Long previousOrderId) {
+        this.previousOrderId = previousOrderId;
+    }
+
+    public String getOrderRef() {
+        return orderRef;
+    }
+
+    public void setOrderRef(String orderRef) {
+        this.orderRef = orderRef;
+    }
+
+    @JsonbTransient
+    public String getItemsJson() {
+        return itemsJson;
+    }
+
+    public void setItemsJson(String itemsJson) {
+        this.itemsJson = itemsJson;
+    }
+
+    public List<OrderItemEntity> getItems() {
+        return items;
+    }
 
+    public void setItems(List<OrderItemEntity> items) {
         this.items = items;
     }
 
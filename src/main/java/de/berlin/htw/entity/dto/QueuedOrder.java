@@ -0,0 +1,58 @@
+package de.berlin.htw.entity.dto;
+
+import de.berlin.htw.boundary.dto.Item;
+
+import java.util.List;
+
+/**
+ * An order read from the checkout stream that still has to be paid and written to the database.
+ */
+public class QueuedOrder {
+
+    /**
+     * What happened to a queued order when it was written.
+     */
+    public enum Outcome {
+        /** Paid and written. */
+        PERSISTED,
+        /** Not written, the balance of the user is too low. */
+        REJECTED,
+        /** Not written again, an order with this reference exists already. */
+        DUPLICATE
+    }
+
+    private final String ref;
+
+    private final Integer userId;
+
+    /**
+     * Total in cents.
+     */
+    private final long total;
+
+    private final List<Item> items;
+
+    public QueuedOrder(String ref, Integer userId, long total, List<Item> items) {
+        this.ref = ref;
+        this.userId = userId;
+        this.total = total;
+        this.items = items;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public long getTotalCents() {
+        return total;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+}
@@ -2,6 +2,8 @@ package de.berlin.htw.entity.dto;
 
 import java.security.Principal;
 
+import de.berlin.htw.boundary.dto.Money;
+
 import jakarta.persistence.*;
 
 import java.util.*;
@@ -21,10 +23,14 @@ public class UserEntity extends AbstractEntity implements Principal {
     @Column(name = "NAME")
     private String name;
     
+    /**
+     * Balance in cents.
+     */
     @Column(name = "BALANCE")
-    private Float balance;
+    @Convert(converter = CentsConverter.class)
+    private long balance;
 
-    @OneToMany(mappedBy = "user")
+    @OneToMany(mappedBy = "user", fetch = FetchType.LAZY)
     private List<OrdersEntity> orders;
 
     public Integer getId() {
@@ -44,14 +50,25 @@ public class UserEntity extends AbstractEntity implements Principal {
         this.name = name;
     }
 
-    public Float getBalance() {
+    public Double getBalance() {
+        return Money.euros(balance);
+    }
+
+    public void setBalance(Double balance) {
+        this.balance = Money.cents(balance);
+    }
+
+    /**
+     * The balance in cents, for calculations.
+     */
+    public long balanceCents() {
         return balance;
     }
 
-    public void setBalance(Float balance) {
+    public void balanceCents(long balance) {
         this.balance = balance;
     }
-    
+
     @Override
     public int hashCode() {
         return id;
@@ -0,0 +1,60 @@
+-- Adds several items to the basket in one call, creating the basket if necessary.
+-- ARGV[4] maximum number of items, followed by three arguments per item: the packed product id,
+-- the item as JSON or in the binary format and the price of the item (price * count) in cents.
+-- Every item is checked like by basket-add.lua, against the basket as the items before it left it;
+-- a rejected item does not stop the following ones. The ledger is read and booked once.
+-- Answers with the status, one status per item in the order of the arguments and the fields of the basket.
+local maxItems = tonumber(ARGV[4])
+local remaining = spendable()
+if not remaining then
+    return { 428 }
+end
+
+local exists = redis.call('EXISTS', key) == 1
+local items = 0
+if exists then
+    items = itemCount()
+end
+
+local statuses = {}
+local spent = 0
+for i = 5, #ARGV, 3 do
+    local productId = ARGV[i]
+    local price = tonumber(ARGV[i + 2])
+    adopt(productId)
+    local status = 201
+    if redis.call('HEXISTS', key, productId) == 1 then
+        -- already in the basket or twice in the request
+        status = 409
+    elseif items >= maxItems or remaining < price then
+        status = 400
+    else
+        if not exists then
+            redis.call('HSET', key, 'totalCents', 0, 'remainingBalanceCents', remaining)
+            exists = true
+        end
+        redis.call('HSET', key, productId, ARGV[i + 1])
+        items = items + 1
+        remaining = remaining - price
+        spent = spent + price
+    end
+    statuses[#statuses + 1] = status
+end
+
+if spent > 0 then
+    redis.call('HINCRBY', key, 'totalCents', spent)
+    book(-spent)
+    redis.call('EXPIRE', key, ttl)
+end
+
+local result
+if exists then
+    result = reply(200)
+else
+    -- nothing was added and there is no basket to read
+    result = { 200, 'totalCents', '0', 'remainingBalanceCents', tostring(remaining) }
+end
+for i = #statuses, 1, -1 do
+    table.insert(result, 2, statuses[i])
+end
+return result
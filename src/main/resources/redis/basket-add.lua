@@ -0,0 +1,35 @@
+-- Adds an item to the basket, creating the basket if necessary.
+-- ARGV[4] packed product id, ARGV[5] item as JSON or in the binary format, ARGV[6] price of the item (price * count) in cents,
+-- ARGV[7] maximum number of items.
+local productId = ARGV[4]
+adopt(productId)
+local price = tonumber(ARGV[6])
+local exists = redis.call('EXISTS', key) == 1
+
+if exists and redis.call('HEXISTS', key, productId) == 1 then
+    return { 409 }
+end
+
+local items = 0
+if exists then
+    items = itemCount()
+end
+if items >= tonumber(ARGV[7]) then
+    return { 400 }
+end
+local remaining = spendable()
+if not remaining then
+    return { 428 }
+end
+if remaining < price then
+    return { 400 }
+end
+
+if not exists then
+    redis.call('HSET', key, 'totalCents', 0, 'remainingBalanceCents', remaining)
+end
+redis.call('HSET', key, productId, ARGV[5])
+redis.call('HINCRBY', key, 'totalCents', price)
+book(-price)
+redis.call('EXPIRE', key, ttl)
+return reply(201)
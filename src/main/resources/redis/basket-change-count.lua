@@ -0,0 +1,26 @@
+-- Adds to the number of an item in the basket.
+-- ARGV[4] packed product id, ARGV[5] number to add.
+local productId = ARGV[4]
+adopt(productId)
+local value = redis.call('HGET', key, productId)
+if not value then
+    return { 404 }
+end
+
+local item = decodeItem(value)
+local count = tonumber(ARGV[5])
+local price = item.price * count
+local remaining = spendable()
+if not remaining then
+    return { 428 }
+end
+if remaining < price then
+    return { 400 }
+end
+
+item.count = item.count + count
+redis.call('HSET', key, productId, encodeItem(item))
+redis.call('HINCRBY', key, 'totalCents', price)
+book(-price)
+redis.call('EXPIRE', key, ttl)
+return reply(200)
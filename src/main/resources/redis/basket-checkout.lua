@@ -0,0 +1,49 @@
+-- Takes the items out of the basket for a checkout, so a second checkout or a later change
+-- of the basket cannot take the same items.
+-- KEYS[5] the checkout stream.
+-- ARGV[4] the reference of the order, ARGV[5] the user id, ARGV[6] the W3C trace context of the
+-- checkout or an empty string.
+-- With a reference, the items are moved into the checkout stream and the order is written to the
+-- database later. The entry holds the total in cents, the items as JSON array and the trace context
+-- if there is one; the total is reserved by the queued order until the order is written.
+-- Without a reference, the request pays and writes the order itself and puts the items back
+-- with basket-restore.lua if the database rejects the payment.
+-- The total stays taken from the ledger in both cases.
+if redis.call('EXISTS', key) == 0 then
+    return { 404 }
+end
+
+local fields = redis.call('HGETALL', key)
+local items = {}
+local total = 0
+local remaining = '0'
+for i = 1, #fields, 2 do
+    if fields[i] == 'totalCents' then
+        total = tonumber(fields[i + 1])
+    elseif fields[i] == 'remainingBalanceCents' then
+        remaining = fields[i + 1]
+    elseif fields[i] ~= 'revision' then
+        table.insert(items, itemJson(fields[i + 1]))
+    end
+end
+if #items == 0 then
+    return { 400 }
+end
+
+if ARGV[4] ~= '' then
+    redis.call('INCRBY', reservedKey, total)
+    local entry = { 'ref', ARGV[4], 'userId', ARGV[5], 'total', total, 'items', '[' .. table.concat(items, ',') .. ']' }
+    if ARGV[6] ~= '' then
+        table.insert(entry, 'traceparent')
+        table.insert(entry, ARGV[6])
+    end
+    redis.call('XADD', KEYS[5], '*', unpack(entry))
+end
+redis.call('DEL', key)
+redis.call('HSET', key, 'totalCents', 0, 'remainingBalanceCents', remaining)
+touch()
+redis.call('EXPIRE', key, ttl)
+
+-- answer with the basket as it was checked out
+table.insert(fields, 1, 201)
+return fields
@@ -0,0 +1,16 @@
+-- Removes all items from the basket.
+-- ARGV[4] '1' if the amount reserved by the items is given back to the balance,
+-- '0' if it was paid by a checkout.
+if redis.call('EXISTS', key) == 0 then
+    return { 404 }
+end
+
+local total = tonumber(redis.call('HGET', key, 'totalCents'))
+local remaining = redis.call('HGET', key, 'remainingBalanceCents')
+redis.call('DEL', key)
+redis.call('HSET', key, 'totalCents', 0, 'remainingBalanceCents', remaining)
+if ARGV[4] == '1' then
+    book(total)
+end
+redis.call('EXPIRE', key, ttl)
+return reply(200)
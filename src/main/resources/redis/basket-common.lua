@@ -0,0 +1,159 @@
+-- Shared prelude of all basket scripts.
+-- KEYS[1] is the basket hash of the user, KEYS[2] the balance ledger of the user,
+-- KEYS[3] the amount reserved by the queued orders of the user and KEYS[4] the revision counter
+-- of the basket of the user.
+-- ARGV[1] the TTL of the basket in seconds, ARGV[2] the balance of the user in the database
+-- in cents or an empty string, ARGV[3] the TTL of the ledger in seconds.
+-- The hash holds one field per product id (the item as JSON or in the binary format) plus
+-- the fields 'totalCents', 'remainingBalanceCents' and 'revision'. All amounts are integers in cents.
+-- The field of an item is its product id packed into an integer ('1-2-3-4-5-6' -> 123456),
+-- which Redis stores as an integer in the small encoding of the hash.
+-- The ledger holds the balance the user can spend: the balance in the database minus
+-- what the basket and the queued orders reserve. 'remainingBalanceCents' mirrors it for reading.
+-- Every change of the basket takes the next value of the revision counter into 'revision', which is
+-- the ETag of the basket. The counter has no TTL, so a basket that expired and is created again
+-- never repeats a revision a client may still hold.
+local key = KEYS[1]
+local ledgerKey = KEYS[2]
+local reservedKey = KEYS[3]
+local revisionKey = KEYS[4]
+local ttl = ARGV[1]
+local seed = ARGV[2]
+local ledgerTtl = ARGV[3]
+
+local function toCents(amount)
+    return math.floor(tonumber(amount) * 100 + 0.5)
+end
+
+local function packProductId(productId)
+    return tostring(tonumber((productId:gsub('-', ''))))
+end
+
+local function unpackProductId(packed)
+    return (string.format('%06d', tonumber(packed)):gsub('(%d)', '%1-'):sub(1, 11))
+end
+
+-- Reads an item in either format: a JSON object starts with '{', the binary format with
+-- its version 1, followed by the packed product id, the count, the price in cents and the name.
+-- The price of the returned item is in cents per piece.
+local function decodeItem(value)
+    if value:byte(1) == 123 then
+        local json = cjson.decode(value)
+        return { productId = packProductId(json.productId), productName = json.productName,
+                 count = json.count, price = toCents(json.price), json = json }
+    end
+    local version, productId, count, price, productName = struct.unpack('>Bi4i4i8Hc0', value)
+    if version ~= 1 then
+        error('unknown item format ' .. version)
+    end
+    return { productId = productId, productName = productName, count = count, price = price }
+end
+
+-- Writes an item in the format it was read in, so a change keeps all fields of a JSON item.
+local function encodeItem(item)
+    if item.json then
+        item.json.count = item.count
+        return cjson.encode(item.json)
+    end
+    return struct.pack('>Bi4i4i8H', 1, item.productId, item.count, item.price, #item.productName)
+            .. item.productName
+end
+
+-- The item as JSON like the REST API sends it, e.g. for the checkout stream.
+local function itemJson(value)
+    if value:byte(1) == 123 then
+        return value
+    end
+    local item = decodeItem(value)
+    return cjson.encode({ productId = unpackProductId(item.productId), productName = item.productName,
+                          count = item.count, price = item.price / 100 })
+end
+
+-- Items written before the product ids were packed are stored under the product id itself;
+-- such an item is moved to its packed field when it is changed.
+local function adopt(field)
+    local legacy = unpackProductId(field)
+    local json = redis.call('HGET', key, legacy)
+    if json then
+        redis.call('HDEL', key, legacy)
+        redis.call('HSET', key, field, json)
+    end
+end
+
+-- Baskets written before the hash layout are one JSON value; convert them first.
+local function migrate()
+    if redis.call('TYPE', key).ok ~= 'string' then
+        return
+    end
+    local legacy = cjson.decode(redis.call('GET', key))
+    redis.call('DEL', key)
+    redis.call('HSET', key, 'totalCents', toCents(legacy.total or 0),
+            'remainingBalanceCents', toCents(legacy.remainingBalance or 0))
+    for _, item in ipairs(legacy.items or {}) do
+        redis.call('HSET', key, packProductId(item.productId), cjson.encode(item))
+    end
+    redis.call('EXPIRE', key, ttl)
+end
+
+-- Hashes written before the sums were kept in cents hold them in euros; convert them first.
+local function migrateSums()
+    local total = redis.call('HGET', key, 'total')
+    if not total then
+        return
+    end
+    local remaining = redis.call('HGET', key, 'remainingBalance') or '0'
+    redis.call('HDEL', key, 'total', 'remainingBalance')
+    redis.call('HSET', key, 'totalCents', toCents(total), 'remainingBalanceCents', toCents(remaining))
+end
+
+-- The number of items in the basket: all fields but the sums and the revision.
+local function itemCount()
+    return redis.call('HLEN', key) - 2 - redis.call('HEXISTS', key, 'revision')
+end
+
+-- Gives the changed basket the next revision.
+local function touch()
+    redis.call('HSET', key, 'revision', redis.call('INCR', revisionKey))
+end
+
+-- Counts the change in the revision and answers with the status followed by the fields of the basket.
+local function reply(status)
+    touch()
+    local result = redis.call('HGETALL', key)
+    table.insert(result, 1, status)
+    return result
+end
+
+migrate()
+migrateSums()
+
+-- The balance the user can spend in cents, or nil if the ledger has to be seeded
+-- with the balance in the database first. A ledger without basket still holds the
+-- reservation of an expired basket and is seeded again.
+local function spendable()
+    local cents = redis.call('GET', ledgerKey)
+    if cents and redis.call('EXISTS', key) == 1 then
+        return tonumber(cents)
+    end
+    if seed == '' then
+        return nil
+    end
+    local total = redis.call('HGET', key, 'totalCents') or '0'
+    local reserved = redis.call('GET', reservedKey) or '0'
+    cents = tonumber(seed) - tonumber(total) - tonumber(reserved)
+    -- the ledger expires, so it is read from the database again from time to time
+    redis.call('SET', ledgerKey, cents, 'EX', ledgerTtl)
+    return cents
+end
+
+-- Takes (negative) or gives back (positive) an amount in cents; the remaining balance
+-- of the basket follows the ledger. Without ledger only the basket is changed, the
+-- ledger is seeded with the current basket when it is needed again.
+local function book(cents)
+    if redis.call('EXISTS', ledgerKey) == 1 then
+        local left = redis.call('INCRBY', ledgerKey, cents)
+        redis.call('HSET', key, 'remainingBalanceCents', left)
+    else
+        redis.call('HINCRBY', key, 'remainingBalanceCents', cents)
+    end
+end
@@ -0,0 +1,16 @@
+-- Removes an item from the basket.
+-- ARGV[4] packed product id.
+local productId = ARGV[4]
+adopt(productId)
+local value = redis.call('HGET', key, productId)
+if not value then
+    return { 404 }
+end
+
+local item = decodeItem(value)
+local price = item.price * item.count
+redis.call('HDEL', key, productId)
+redis.call('HINCRBY', key, 'totalCents', -price)
+book(price)
+redis.call('EXPIRE', key, ttl)
+return reply(200)
@@ -0,0 +1,21 @@
+-- Puts the items of a checkout the database rejected back into the basket.
+-- ARGV[2] the balance of the user in the database, ARGV[4] the maximum number of items in a basket,
+-- followed by the field and the value of every item that was taken out by basket-checkout.lua.
+-- An item whose product was added again in the meantime, or that does not fit anymore, stays out.
+-- The ledger allowed a total the database rejected, so it is seeded again from the balance,
+-- also for a basket that expired before the items came back.
+if redis.call('EXISTS', key) == 0 then
+    redis.call('HSET', key, 'totalCents', 0, 'remainingBalanceCents', 0)
+end
+local maxItems = tonumber(ARGV[4])
+for i = 5, #ARGV, 2 do
+    if redis.call('HEXISTS', key, ARGV[i]) == 0 and itemCount() < maxItems then
+        local item = decodeItem(ARGV[i + 1])
+        redis.call('HSET', key, ARGV[i], ARGV[i + 1])
+        redis.call('HINCRBY', key, 'totalCents', item.count * item.price)
+    end
+end
+redis.call('DEL', ledgerKey)
+redis.call('HSET', key, 'remainingBalanceCents', spendable())
+redis.call('EXPIRE', key, ttl)
+return reply(200)
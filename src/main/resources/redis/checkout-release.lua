@@ -0,0 +1,12 @@
+-- Acknowledges written orders of the checkout stream and releases their reserved amounts.
+-- KEYS[1] the checkout stream, KEYS[1 + i] the reserved amount of the user of the i-th order.
+-- ARGV[1] the consumer group, ARGV[2i] the entry id and ARGV[2i + 1] the total of the i-th order in cents.
+-- An entry that was already acknowledged releases nothing, so a redelivered entry is released once.
+for i = 1, #KEYS - 1 do
+    if redis.call('XACK', KEYS[1], ARGV[1], ARGV[2 * i]) == 1 then
+        if redis.call('DECRBY', KEYS[1 + i], ARGV[2 * i + 1]) <= 0 then
+            redis.call('DEL', KEYS[1 + i])
+        end
+    end
+end
+return #KEYS - 1
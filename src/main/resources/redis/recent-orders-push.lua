@@ -0,0 +1,28 @@
+-- Puts a new order in front of the recent orders of a user.
+-- KEYS[1] the list of the recent orders, the newest first, ending with 'complete' if it holds all orders of the user.
+-- ARGV[1] the id of the order of the user right before the new one or an empty string if there is none,
+-- ARGV[2] the new order as entry of the list, ARGV[3] the number of orders to keep, ARGV[4] the TTL of the list in seconds.
+-- The order is only put in front of the order right before it; a list that missed an order is dropped
+-- and built again from the database when it is read next.
+local head = redis.call('LINDEX', KEYS[1], 0)
+if not head then
+    return 0
+end
+-- a list that was built again after the order was written holds it already
+local id = ARGV[2]:match('^%d+:')
+if head:sub(1, #id) == id then
+    return 0
+end
+local previous = ARGV[1] == '' and 'complete' or ARGV[1] .. ':'
+if head:sub(1, #previous) ~= previous then
+    redis.call('DEL', KEYS[1])
+    return 0
+end
+local length = redis.call('LPUSH', KEYS[1], ARGV[2])
+-- the marker 'complete' is kept as long as the list holds all orders, the end of LTRIM is inclusive
+local size = tonumber(ARGV[3])
+if length > size + 1 or redis.call('LINDEX', KEYS[1], -1) ~= 'complete' then
+    redis.call('LTRIM', KEYS[1], 0, size - 1)
+end
+redis.call('EXPIRE', KEYS[1], ARGV[4])
+return 1
@@ -0,0 +1,18 @@
+package de.berlin.htw;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+/**
+ * Starts the application with checkouts queued in the checkout stream.
+ */
+public class AsyncCheckoutProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of("app.checkout.async", "true",
+                "app.checkout.claim-after", "1S");
+    }
+
+}
@@ -0,0 +1,354 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.UserTransaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A queued checkout answers before the order is written; the checkout worker pays and writes it once.
+ */
+@QuarkusTest
+@TestProfile(AsyncCheckoutProfile.class)
+class AsyncCheckoutTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    @Inject
+    @CacheName("users")
+    Cache userCache;
+
+    @Inject
+    InMemorySpanExporter spanExporter;
+
+    @Inject
+    MeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+    }
+
+    private void setBalance(int userId, String balance) throws Exception {
+        userTransaction.begin();
+        entityManager.createNativeQuery("UPDATE USER SET BALANCE = ?1 WHERE ID = ?2")
+                .setParameter(1, new BigDecimal(balance))
+                .setParameter(2, userId)
+                .executeUpdate();
+        userTransaction.commit();
+        userCache.invalidate(userId).await().indefinitely();
+    }
+
+    private BigDecimal getBalance(int userId) {
+        return (BigDecimal) entityManager.createNativeQuery("SELECT BALANCE FROM USER WHERE ID = ?1")
+                .setParameter(1, userId)
+                .getSingleResult();
+    }
+
+    private long countOrders(String ref) {
+        return ((Number) entityManager.createNativeQuery("SELECT COUNT(*) FROM ORD WHERE ORDER_REF = ?1")
+                .setParameter(1, ref)
+                .getSingleResult()).longValue();
+    }
+
+    private double countCheckouts(String outcome, String reason) {
+        // the counters are registered with the first use of the metrics
+        Counter counter = registry.find("checkouts").tag("outcome", outcome).tag("reason", reason).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private long countOrders(int userId) {
+        return ((Number) entityManager.createNativeQuery("SELECT COUNT(*) FROM ORD WHERE USERID = ?1")
+                .setParameter(1, userId)
+                .getSingleResult()).longValue();
+    }
+
+    /**
+     * Waits until the checkout worker has written what the condition waits for.
+     */
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(condition.getAsBoolean(), "checkout worker did not write the order in time");
+    }
+
+    private void addItem(String userId, String productId, Double price) {
+        Item item = createTestingItem(productId, "TestItemUser" + userId, price, 1);
+
+        given()
+                .when().header("X-User-Id", userId)
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+    }
+
+    @Test
+    void testCheckoutIsQueuedAndWritten() throws Exception {
+        BigDecimal balance = getBalance(1);
+        long orders = countOrders(1);
+        setBalance(1, "50.00");
+        try {
+            addItem("1", "1-2-3-4-5-6", 10.0);
+            addItem("1", "2-2-3-4-5-6", 20.0);
+
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .post("/basket/")
+                    .then()
+                    .statusCode(202)
+                    .header("Location", containsString("/orders"))
+                    .body("total", is(30.0f))
+                    .body("items", hasSize(2));
+
+            // the basket is empty at once and no longer lets the user spend the queued total
+            given()
+                    .when().header("X-User-Id", "1")
+                    .get("/basket")
+                    .then()
+                    .statusCode(200)
+                    .body("items", hasSize(0))
+                    .body("remainingBalance", is(20.0f));
+
+            await(() -> countOrders(1) == orders + 1);
+            await(() -> new BigDecimal("20.00").compareTo(getBalance(1)) == 0);
+            // the reservation is released once the order is paid
+            await(() -> redisDS.key().exists("reserved:1") == false);
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testQueuedOrdersReserveTheBalance() throws Exception {
+        BigDecimal balance = getBalance(1);
+        setBalance(1, "50.00");
+        try {
+            // orders of the user that are queued but not yet written reserve 40.00 of the balance
+            redisDS.value(String.class).set("reserved:1", "4000");
+
+            Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 20.0, 1);
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(400);
+
+            addItem("1", "2-2-3-4-5-6", 10.0);
+            given()
+                    .when().header("X-User-Id", "1")
+                    .get("/basket")
+                    .then()
+                    .statusCode(200)
+                    .body("items", hasSize(1))
+                    .body("remainingBalance", is(0.0f));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testRedeliveredOrderIsWrittenOnce() throws Exception {
+        BigDecimal balance = getBalance(3);
+        String ref = UUID.randomUUID().toString();
+        Map<String, String> entry = Map.of("ref", ref, "userId", "3", "total", "1000",
+                "items", "[{\"productName\":\"Redelivered\",\"productId\":\"1-2-3-4-5-6\",\"count\":1,\"price\":10.0}]");
+        double completed = countCheckouts("completed", "none");
+        double redelivered = countCheckouts("redelivered", "none");
+        double conflicts = countCheckouts("rejected", "conflict");
+        try {
+            // the same order is queued twice, e.g. by a worker that died before it acknowledged the entry
+            redisDS.stream(String.class).xadd("checkout-orders", entry);
+            redisDS.stream(String.class).xadd("checkout-orders", entry);
+
+            await(() -> countOrders(ref) == 1);
+            // XPENDING answers with the number of entries that are delivered but not acknowledged first
+            await(() -> redisDS.execute("XPENDING", "checkout-orders", "order-writers").get(0).toLong() == 0);
+            assertEquals(1, countOrders(ref));
+            assertEquals(0, balance.subtract(new BigDecimal("10.00")).compareTo(getBalance(3)));
+            // the order is counted once as completed, the second delivery is no rejection
+            assertEquals(completed + 1, countCheckouts("completed", "none"));
+            assertEquals(redelivered + 1, countCheckouts("redelivered", "none"));
+            assertEquals(conflicts, countCheckouts("rejected", "conflict"));
+        } finally {
+            setBalance(3, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testRejectedOrderIsPutBackIntoTheBasket() throws Exception {
+        BigDecimal balance = getBalance(5);
+        long orders = countOrders(5);
+        setBalance(5, "5.00");
+        try {
+            // queued while the balance sufficed, the balance was lowered before the order was written
+            redisDS.stream(String.class).xadd("checkout-orders", Map.of("ref", UUID.randomUUID().toString(),
+                    "userId", "5", "total", "2000",
+                    "items", "[{\"productName\":\"Rejected\",\"productId\":\"1-2-3-4-5-6\",\"count\":2,\"price\":10.0}]"));
+            await(() -> redisDS.key().exists("5"));
+
+            assertEquals(orders, countOrders(5));
+            assertEquals(0, new BigDecimal("5.00").compareTo(getBalance(5)));
+            given()
+                    .when().header("X-User-Id", "5")
+                    .get("/basket")
+                    .then()
+                    .statusCode(200)
+                    .body("items", hasSize(1))
+                    .body("items[0].productName", is("Rejected"))
+                    .body("items[0].count", is(2))
+                    .body("total", is(20.0f));
+        } finally {
+            setBalance(5, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testRejectedOrderReseedsTheLedgerOfAnExpiredBasket() throws Exception {
+        BigDecimal balance = getBalance(5);
+        setBalance(5, "50.00");
+        try {
+            addItem("5", "2-2-3-4-5-6", 10.0);
+            // the basket expired, the ledger it reserved from is still there
+            redisDS.key().del("5");
+            setBalance(5, "15.00");
+
+            redisDS.stream(String.class).xadd("checkout-orders", Map.of("ref", UUID.randomUUID().toString(),
+                    "userId", "5", "total", "2000",
+                    "items", "[{\"productName\":\"Rejected\",\"productId\":\"1-2-3-4-5-6\",\"count\":2,\"price\":10.0}]"));
+            await(() -> redisDS.key().exists("5"));
+
+            // the remaining balance is the balance in the database minus the restored items
+            given()
+                    .when().header("X-User-Id", "5")
+                    .get("/basket")
+                    .then()
+                    .statusCode(200)
+                    .body("items", hasSize(1))
+                    .body("total", is(20.0f))
+                    .body("remainingBalance", is(-5.0f));
+
+            given()
+                    .when().header("X-User-Id", "5")
+                    .delete("/basket/1-2-3-4-5-6")
+                    .then()
+                    .statusCode(200)
+                    .body("remainingBalance", is(15.0f));
+        } finally {
+            setBalance(5, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testUnreadableEntryReleasesItsReservation() throws Exception {
+        redisDS.value(String.class).set("reserved:3", "1000");
+        redisDS.stream(String.class).xadd("checkout-orders", Map.of("ref", UUID.randomUUID().toString(),
+                "userId", "3", "total", "1000", "items", "not a list of items"));
+
+        await(() -> !redisDS.key().exists("reserved:3"));
+        // XPENDING answers with the number of entries that are delivered but not acknowledged first
+        assertEquals(0, redisDS.execute("XPENDING", "checkout-orders", "order-writers").get(0).toLong());
+    }
+
+    @Test
+    void testFailingEntryDoesNotHoldUpItsBatch() throws Exception {
+        BigDecimal balance = getBalance(3);
+        String first = UUID.randomUUID().toString();
+        String last = UUID.randomUUID().toString();
+        String items = "[{\"productName\":\"Batch\",\"productId\":\"1-2-3-4-5-6\",\"count\":1,\"price\":10.0}]";
+        try {
+            redisDS.value(String.class).set("reserved:3", "3000");
+            // the reference of the second entry does not fit into ORD.ORDER_REF, so its insert fails
+            redisDS.withTransaction(tx -> {
+                tx.stream(String.class).xadd("checkout-orders", Map.of("ref", first, "userId", "3", "total", "1000", "items", items));
+                tx.stream(String.class).xadd("checkout-orders", Map.of("ref", "x".repeat(40), "userId", "3", "total", "1000", "items", items));
+                tx.stream(String.class).xadd("checkout-orders", Map.of("ref", last, "userId", "3", "total", "1000", "items", items));
+            });
+
+            await(() -> countOrders(first) == 1 && countOrders(last) == 1);
+            // the failing entry is moved aside once it was delivered app.checkout.max-deliveries times
+            await(() -> redisDS.stream(String.class).xlen("checkout-orders-dead") == 1);
+            await(() -> !redisDS.key().exists("reserved:3"));
+            assertEquals(0, redisDS.execute("XPENDING", "checkout-orders", "order-writers").get(0).toLong());
+            assertEquals(0, balance.subtract(new BigDecimal("20.00")).compareTo(getBalance(3)));
+        } finally {
+            setBalance(3, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testWriteOfQueuedOrderIsLinkedToCheckout() throws Exception {
+        BigDecimal balance = getBalance(1);
+        long orders = countOrders(1);
+        setBalance(1, "50.00");
+        try {
+            addItem("1", "1-2-3-4-5-6", 10.0);
+            spanExporter.reset();
+
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .post("/basket/")
+                    .then()
+                    .statusCode(202);
+            await(() -> countOrders(1) == orders + 1);
+
+            await(() -> spanExporter.getFinishedSpanItems().stream()
+                    .anyMatch(span -> span.getName().equals("checkout-orders process")));
+            List<SpanData> spans = spanExporter.getFinishedSpanItems();
+            SpanData checkout = spans.stream().filter(span -> span.getName().equals("POST /basket"))
+                    .findFirst().orElseThrow();
+            SpanData write = spans.stream().filter(span -> span.getName().equals("checkout-orders process"))
+                    .findFirst().orElseThrow();
+            // the batch is a trace of its own that links to the checkout, the order is written in it
+            assertTrue(write.getLinks().stream()
+                    .anyMatch(link -> link.getSpanContext().getTraceId().equals(checkout.getTraceId())));
+            assertTrue(spans.stream().anyMatch(span -> span.getName().equals("OrdersRepository.persistQueuedOrders")
+                    && span.getParentSpanId().equals(write.getSpanId())));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+}
@@ -1,7 +1,11 @@
 package de.berlin.htw;
 
+import de.berlin.htw.boundary.dto.Basket;
 import de.berlin.htw.boundary.dto.Item;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
 import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.keys.RedisValueType;
 import io.quarkus.redis.datasource.value.ValueCommands;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
@@ -9,10 +13,30 @@ import io.restassured.http.ContentType;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.Test;
 
+import static de.berlin.htw.TestItems.createTestingItem;
 import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.UserTransaction;
 
 @QuarkusTest
 class BasketResourceTest {
@@ -20,15 +44,30 @@ class BasketResourceTest {
     @Inject
     protected RedisDataSource redisDS;
 
-    // to create Item for testing
-    public Item createTestingItem(String id, String name, Float price, Integer count) {
+    @PersistenceContext
+    EntityManager entityManager;
 
-        Item item = new Item();
-        item.setProductId(id);
-        item.setProductName(name);
-        item.setPrice(price);
-        item.setCount(count);
-        return item;
+    @Inject
+    UserTransaction userTransaction;
+
+    @Inject
+    @CacheName("users")
+    Cache userCache;
+
+    private void setBalance(int userId, String balance) throws Exception {
+        userTransaction.begin();
+        entityManager.createNativeQuery("UPDATE USER SET BALANCE = ?1 WHERE ID = ?2")
+                .setParameter(1, new BigDecimal(balance))
+                .setParameter(2, userId)
+                .executeUpdate();
+        userTransaction.commit();
+        userCache.invalidate(userId).await().indefinitely();
+    }
+
+    private BigDecimal getBalance(int userId) {
+        return (BigDecimal) entityManager.createNativeQuery("SELECT BALANCE FROM USER WHERE ID = ?1")
+                .setParameter(1, userId)
+                .getSingleResult();
     }
 
 
@@ -60,7 +99,7 @@ class BasketResourceTest {
 
         // clear redis before testing
         redisDS.flushall();
-        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0f, 1);
+        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1);
 
         // add item to basket
         given()
@@ -89,7 +128,7 @@ class BasketResourceTest {
 
         // clear redis before testing
         redisDS.flushall();
-        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0f, 1);
+        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1);
 
         // add item to basket
         given()
@@ -130,11 +169,11 @@ class BasketResourceTest {
     void testAddItemBadRequests() {
 
         String invalidProductName = RandomStringUtils.randomAlphanumeric(260);
-        Item nameTooLong = createTestingItem("1-2-3-4-5-6", invalidProductName, 15.0f, 2);
-        Item tooHighPriceItem = createTestingItem("2-2-3-4-5-6", "test", 100.1f, 1);
-        Item tooLowCountItem = createTestingItem("3-2-3-4-5-6", "test", 10.0f, 0);
-        Item invalidId = createTestingItem("1-2-3-4-5-7-8", "TestItemUser4", 15.0f, 2);
-        Item tooExpensiveItem = createTestingItem("4-2-3-4-5-6", "test", 100.0f, 1);
+        Item nameTooLong = createTestingItem("1-2-3-4-5-6", invalidProductName, 15.0, 2);
+        Item tooHighPriceItem = createTestingItem("2-2-3-4-5-6", "test", 100.1, 1);
+        Item tooLowCountItem = createTestingItem("3-2-3-4-5-6", "test", 10.0, 0);
+        Item invalidId = createTestingItem("1-2-3-4-5-7-8", "TestItemUser4", 15.0, 2);
+        Item tooExpensiveItem = createTestingItem("4-2-3-4-5-6", "test", 100.0, 1);
 
         // add items to basket with invalid request
         given()
@@ -197,7 +236,7 @@ class BasketResourceTest {
         redisDS.flushall();
 
         // add item to basket
-        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0f, 1);
+        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1);
         given()
                 .log().all()
                 .when().header("X-User-Id", "1")
@@ -228,7 +267,7 @@ class BasketResourceTest {
         // clear redis before testing
         redisDS.flushall();
 
-        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0f, 1);
+        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1);
 
         // add item to basket
         given()
@@ -268,7 +307,7 @@ class BasketResourceTest {
                 .log().all()
                 .statusCode(404);
         // adding an item so a basket gets created
-        Item testItemUser1 = createTestingItem("2-2-3-4-5-6", "TestItemUser1", 10.0f, 1);
+        Item testItemUser1 = createTestingItem("2-2-3-4-5-6", "TestItemUser1", 10.0, 1);
         given()
                 .log().all()
                 .when().header("X-User-Id", "1")
@@ -298,9 +337,9 @@ class BasketResourceTest {
     void testCheckoutSucess() {
         // clear redis before testing
         redisDS.flushall();
-        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0f, 1);
-        Item testItemUser2 = createTestingItem("2-2-3-4-5-6", "TestItemUser2", 15.0f, 1);
-        Item testItemUser3 = createTestingItem("3-2-3-4-5-6", "TestItemUser3", 20.0f, 1);
+        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1);
+        Item testItemUser2 = createTestingItem("2-2-3-4-5-6", "TestItemUser2", 15.0, 1);
+        Item testItemUser3 = createTestingItem("3-2-3-4-5-6", "TestItemUser3", 20.0, 1);
 
         // add items to basket
         given()
@@ -331,7 +370,7 @@ class BasketResourceTest {
                 .log().all()
                 .statusCode(201);
 
-        // checkout
+        // checkout; the body is the order as in the Order schema, not how it is stored
         given()
                 .log().all()
                 .when().header("X-User-Id", "3")
@@ -339,7 +378,13 @@ class BasketResourceTest {
                 .post("/basket/")
                 .then()
                 .log().all()
-                .statusCode(201);
+                .statusCode(201)
+                .body("total", is(45.0f))
+                .body("items", hasSize(3))
+                .body("items.productId", hasItems("1-2-3-4-5-6", "2-2-3-4-5-6", "3-2-3-4-5-6"))
+                .body("items.price", hasItems(10.0f, 15.0f, 20.0f))
+                .body("user", nullValue())
+                .body("orderRef", nullValue());
     }
 
 
@@ -349,7 +394,7 @@ class BasketResourceTest {
         redisDS.flushall();
 
         // add items to basket
-        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0f, 1);
+        Item testItemUser1 = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1);
 
         given()
                 .log().all()
@@ -381,4 +426,578 @@ class BasketResourceTest {
                 .statusCode(400);
     }
 
-}
\ No newline at end of file
+    /**
+     * Test case for a basket that is still stored as one serialized value.
+     * The basket has to be migrated to a hash on first read and keep its items.
+     */
+    @Test
+    void testLegacyBasketIsMigrated() {
+        // clear redis before testing
+        redisDS.flushall();
+
+        // store the basket of user 1 in the old value format
+        Basket legacy = new Basket();
+        legacy.setItems(new ArrayList<>(List.of(createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 2))));
+        legacy.setRemainingBalance(100.3);
+        ValueCommands<String, Basket> legacyCommands = redisDS.value(Basket.class);
+        legacyCommands.setex("1", 120, legacy);
+
+        // add another item to the legacy basket
+        Item testItemUser1 = createTestingItem("2-2-3-4-5-6", "TestItemUser1", 10.0, 1);
+        given()
+                .log().all()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(testItemUser1)
+                .post("/basket/" + testItemUser1.getProductId())
+                .then()
+                .log().all()
+                .statusCode(201)
+                .body("items", hasSize(2));
+
+        // the basket is now a hash with one field per packed product id
+        assertEquals(RedisValueType.HASH, redisDS.key().type("1"));
+        assertTrue(redisDS.hash(String.class).hexists("1", "123456"));
+        assertTrue(redisDS.key().ttl("1") > 0);
+    }
+
+    /**
+     * Test case for a basket hash that still holds its sums in euros.
+     * The sums are read as they are and converted to cents by the next change.
+     */
+    @Test
+    void testBasketWithSumsInEurosIsConverted() {
+        // clear redis before testing
+        redisDS.flushall();
+
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.5, 2);
+        redisDS.hash(String.class).hset("1", Map.of(
+                "1-2-3-4-5-6", "{\"productName\":\"TestItemUser1\",\"productId\":\"1-2-3-4-5-6\",\"count\":2,\"price\":10.5}",
+                "total", "21.0",
+                "remainingBalance", "99.3"));
+
+        given()
+                .when().header("X-User-Id", "1")
+                .get("/basket")
+                .then()
+                .statusCode(200)
+                .body("total", is(21.0f))
+                .body("remainingBalance", is(99.3f));
+
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .patch("/basket/" + item.getProductId())
+                .then()
+                .statusCode(200)
+                .body("total", is(42.0f));
+
+        assertEquals("4200", redisDS.hash(String.class).hget("1", "totalCents"));
+        assertFalse(redisDS.hash(String.class).hexists("1", "total"));
+        // the changed item moved to the field of its packed product id
+        assertTrue(redisDS.hash(String.class).hexists("1", "123456"));
+        assertFalse(redisDS.hash(String.class).hexists("1", "1-2-3-4-5-6"));
+    }
+
+    /**
+     * Test case for product ids that start with zeros, which do not show in the packed product id.
+     */
+    @Test
+    void testProductIdWithLeadingZeros() {
+        // clear redis before testing
+        redisDS.flushall();
+
+        Item item = createTestingItem("0-0-0-0-4-2", "TestItemUser1", 10.0, 1);
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201)
+                .body("items[0].productId", is("0-0-0-0-4-2"));
+        assertTrue(redisDS.hash(String.class).hexists("1", "42"));
+
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(409);
+
+        // an id that is no product id is rejected before it is packed
+        given()
+                .when().header("X-User-Id", "1")
+                .delete("/basket/0-0-0-0-4")
+                .then()
+                .statusCode(400);
+
+        given()
+                .when().header("X-User-Id", "1")
+                .delete("/basket/" + item.getProductId())
+                .then()
+                .statusCode(200)
+                .body("items", hasSize(0));
+    }
+
+    /**
+     * Test case for amounts that float cannot hold exactly.
+     * Totals and balances are added up in cents, so nothing is lost between Redis and the database.
+     */
+    @Test
+    void testAmountsAddUpInCents() throws Exception {
+        // clear redis before testing
+        redisDS.flushall();
+        BigDecimal balance = getBalance(1);
+        setBalance(1, "100.00");
+        try {
+            Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 33.33, 3);
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(201)
+                    .body("total", is(99.99f))
+                    .body("remainingBalance", is(0.01f));
+
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .post("/basket/")
+                    .then()
+                    .statusCode(201)
+                    .body("total", is(99.99f));
+
+            assertEquals(new BigDecimal("0.01"), getBalance(1));
+            assertEquals(1, getLedger(1));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+    /**
+     * Test case for the item limit of the basket.
+     * The basket must not contain more than 10 items, the 11th item is rejected with 400 BAD REQUEST.
+     */
+    @Test
+    void testAddItemLimit() {
+        // clear redis before testing
+        redisDS.flushall();
+
+        for (int i = 0; i < 10; i++) {
+            Item item = createTestingItem(i + "-2-3-4-5-6", "TestItemUser4", 10.0, 1);
+            given()
+                    .when().header("X-User-Id", "4")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(201);
+        }
+        Item eleventhItem = createTestingItem("1-1-3-4-5-6", "TestItemUser4", 10.0, 1);
+        given()
+                .log().all()
+                .when().header("X-User-Id", "4")
+                .contentType(ContentType.JSON)
+                .body(eleventhItem)
+                .post("/basket/" + eleventhItem.getProductId())
+                .then()
+                .log().all()
+                .statusCode(400);
+    }
+
+    /**
+     * Test case for the ETag of the basket: a conditional request is answered with 304 NOT MODIFIED
+     * until the basket changes.
+     */
+    @Test
+    void testGetBasketNotModified() {
+        // clear redis before testing
+        redisDS.flushall();
+
+        // a basket that is not stored yet has no revision
+        given()
+                .when().header("X-User-Id", "1")
+                .get("/basket")
+                .then()
+                .statusCode(200)
+                .header("ETag", nullValue());
+
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1);
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+        String etag = given()
+                .when().header("X-User-Id", "1")
+                .get("/basket")
+                .then()
+                .statusCode(200)
+                .extract().header("ETag");
+
+        given()
+                .log().all()
+                .when().header("X-User-Id", "1")
+                .header("If-None-Match", etag)
+                .get("/basket")
+                .then()
+                .log().all()
+                .statusCode(304)
+                .header("ETag", etag);
+
+        // every change counts up the revision, also when the basket is cleared and filled again
+        given()
+                .when().header("X-User-Id", "1")
+                .delete("/basket")
+                .then()
+                .statusCode(204);
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+        given()
+                .when().header("X-User-Id", "1")
+                .header("If-None-Match", etag)
+                .get("/basket")
+                .then()
+                .statusCode(200)
+                .header("ETag", not(etag))
+                .body("items", hasSize(1));
+
+        // leave no basket and no ledger of user 1 for the following tests
+        redisDS.flushall();
+    }
+
+    /**
+     * Test case for the 'addItems' method.
+     * User 2 has a balance of 70.87: the items are checked in order against the basket the items
+     * before them left, a rejected item does not stop the others and the basket is written once.
+     */
+    @Test
+    void testAddItems() {
+        // clear redis before testing
+        redisDS.flushall();
+        Item inBasket = createTestingItem("1-2-3-4-5-6", "TestItemUser2", 10.0, 1);
+        given()
+                .when().header("X-User-Id", "2")
+                .contentType(ContentType.JSON)
+                .body(inBasket)
+                .post("/basket/" + inBasket.getProductId())
+                .then()
+                .statusCode(201);
+
+        List<Item> items = List.of(
+                inBasket,
+                createTestingItem("2-2-3-4-5-6", "TestItemUser2", 20.0, 2),
+                createTestingItem("2-2-3-4-5-6", "TestItemUser2", 20.0, 1),
+                createTestingItem("3-2-3-4-5-6", "TestItemUser2", 30.0, 1),
+                createTestingItem("4-2-3-4-5-6", "TestItemUser2", 20.0, 1));
+        given()
+                .log().all()
+                .when().header("X-User-Id", "2")
+                .contentType(ContentType.JSON)
+                .body(items)
+                .post("/basket/items")
+                .then()
+                .log().all()
+                .statusCode(200)
+                .body("results.productId", is(List.of("1-2-3-4-5-6", "2-2-3-4-5-6", "2-2-3-4-5-6", "3-2-3-4-5-6", "4-2-3-4-5-6")))
+                .body("results.status", is(List.of(409, 201, 409, 400, 201)))
+                .body("basket.items", hasSize(3))
+                .body("basket.total", is(70.0f))
+                .body("basket.remainingBalance", is(0.87f));
+
+        // the basket in Redis is the one the batch answered with
+        given()
+                .when().header("X-User-Id", "2")
+                .get("/basket")
+                .then()
+                .statusCode(200)
+                .body("items", hasSize(3))
+                .body("remainingBalance", is(0.87f));
+    }
+
+    /**
+     * Test case for the 'addItems' method with an invalid list: the whole request is rejected.
+     */
+    @Test
+    void testAddItemsBadRequests() {
+        // clear redis before testing
+        redisDS.flushall();
+        List<Item> tooMany = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            tooMany.add(createTestingItem(i % 10 + "-" + i / 10 + "-3-4-5-6", "TestItemUser3", 10.0, 1));
+        }
+        List<Item> invalidItem = List.of(
+                createTestingItem("1-2-3-4-5-6", "TestItemUser3", 10.0, 1),
+                createTestingItem("2-2-3-4-5-6", "TestItemUser3", 100.1, 1));
+
+        for (List<Item> items : List.of(tooMany, invalidItem, List.<Item>of())) {
+            given()
+                    .log().all()
+                    .when().header("X-User-Id", "3")
+                    .contentType(ContentType.JSON)
+                    .body(items)
+                    .post("/basket/items")
+                    .then()
+                    .log().all()
+                    .statusCode(400);
+        }
+        assertFalse(redisDS.key().exists("3"));
+    }
+
+    /**
+     * Test case for concurrent requests of the same user.
+     * User 2 has a balance of 70.87, so only 7 of 10 concurrent items for 10.0 each may be added.
+     */
+    @Test
+    void testConcurrentAddItemNeverOverdraws() throws Exception {
+        // clear redis before testing
+        redisDS.flushall();
+
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Callable<Integer>> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Item item = createTestingItem(i + "-2-3-4-5-6", "TestItemUser2", 10.0, 1);
+            requests.add(() -> given()
+                    .when().header("X-User-Id", "2")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .extract().statusCode());
+        }
+        int added = 0;
+        for (Future<Integer> status : executor.invokeAll(requests)) {
+            if (status.get() == 201) {
+                added++;
+            }
+        }
+        executor.shutdown();
+
+        assertEquals(7, added);
+        given()
+                .log().all()
+                .when().header("X-User-Id", "2")
+                .get("/basket")
+                .then()
+                .log().all()
+                .statusCode(200)
+                .body("items", hasSize(7));
+    }
+
+    @Test
+    void testConcurrentCheckoutDebitsOnce() throws Exception {
+        // clear redis before testing
+        redisDS.flushall();
+        BigDecimal balance = getBalance(1);
+        setBalance(1, "50.00");
+        try {
+            for (int i = 0; i < 4; i++) {
+                Item item = createTestingItem(i + "-2-3-4-5-6", "TestItemUser1", 10.0, 1);
+                given()
+                        .when().header("X-User-Id", "1")
+                        .contentType(ContentType.JSON)
+                        .body(item)
+                        .post("/basket/" + item.getProductId())
+                        .then()
+                        .statusCode(201);
+            }
+
+            // the same basket is checked out twice at once, the balance only suffices once
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            List<Callable<Integer>> requests = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                requests.add(() -> given()
+                        .when().header("X-User-Id", "1")
+                        .contentType(ContentType.JSON)
+                        .post("/basket/")
+                        .then()
+                        .extract().statusCode());
+            }
+            int checkedOut = 0;
+            for (Future<Integer> status : executor.invokeAll(requests)) {
+                if (status.get() == 201) {
+                    checkedOut++;
+                } else {
+                    assertTrue(status.get() == 400 || status.get() == 404);
+                }
+            }
+            executor.shutdown();
+
+            assertEquals(1, checkedOut);
+            assertEquals(0, new BigDecimal("10.00").compareTo(getBalance(1)));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testConcurrentCheckoutClaimsBasketOnce() throws Exception {
+        // clear redis before testing
+        redisDS.flushall();
+        BigDecimal balance = getBalance(1);
+        setBalance(1, "100.00");
+        try {
+            for (int i = 0; i < 4; i++) {
+                Item item = createTestingItem(i + "-2-3-4-5-6", "TestItemUser1", 10.0, 1);
+                given()
+                        .when().header("X-User-Id", "1")
+                        .contentType(ContentType.JSON)
+                        .body(item)
+                        .post("/basket/" + item.getProductId())
+                        .then()
+                        .statusCode(201);
+            }
+
+            // the balance suffices twice, only the basket must keep the second checkout from paying again
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            List<Callable<Integer>> requests = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                requests.add(() -> given()
+                        .when().header("X-User-Id", "1")
+                        .contentType(ContentType.JSON)
+                        .post("/basket/")
+                        .then()
+                        .extract().statusCode());
+            }
+            int checkedOut = 0;
+            for (Future<Integer> status : executor.invokeAll(requests)) {
+                if (status.get() == 201) {
+                    checkedOut++;
+                } else {
+                    assertTrue(status.get() == 400 || status.get() == 404);
+                }
+            }
+            executor.shutdown();
+
+            assertEquals(1, checkedOut);
+            assertEquals(0, new BigDecimal("60.00").compareTo(getBalance(1)));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testRejectedCheckoutRestoresBasket() throws Exception {
+        // clear redis before testing
+        redisDS.flushall();
+        BigDecimal balance = getBalance(1);
+        setBalance(1, "50.00");
+        try {
+            Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 20.0, 2);
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(201);
+
+            // the balance is lowered behind the back of the ledger, the database rejects the debit
+            setBalance(1, "10.00");
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .post("/basket/")
+                    .then()
+                    .statusCode(400);
+
+            assertEquals(0, new BigDecimal("10.00").compareTo(getBalance(1)));
+            given()
+                    .when().header("X-User-Id", "1")
+                    .get("/basket")
+                    .then()
+                    .statusCode(200)
+                    .body("items", hasSize(1))
+                    .body("items[0].productId", is("1-2-3-4-5-6"))
+                    .body("items[0].count", is(2))
+                    .body("total", is(40.0f));
+            // the ledger that allowed the rejected total is seeded again with the balance
+            assertEquals("-3000", redisDS.value(String.class).get("balance:1"));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+    private long getLedger(int userId) {
+        return Long.parseLong(redisDS.value(String.class).get("balance:" + userId));
+    }
+
+    @Test
+    void testBalanceLedgerKeepsReservationsInCents() throws Exception {
+        BigDecimal balance = getBalance(1);
+        setBalance(1, "50.00");
+        try {
+            Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.1, 1);
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(201);
+            assertEquals(3990, getLedger(1));
+
+            // a ledger that is gone is seeded again from the database minus the basket
+            redisDS.key().del("balance:1");
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .patch("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(200);
+            assertEquals(2980, getLedger(1));
+
+            given()
+                    .when().header("X-User-Id", "1")
+                    .delete("/basket")
+                    .then()
+                    .statusCode(204);
+            assertEquals(5000, getLedger(1));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+    @Test
+    void testBalanceLedgerDropsReservationOfExpiredBasket() throws Exception {
+        BigDecimal balance = getBalance(1);
+        setBalance(1, "50.00");
+        try {
+            Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 40.0, 1);
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(201);
+
+            // the basket expires, its items reserve nothing anymore
+            redisDS.key().del("1");
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(201);
+            assertEquals(1000, getLedger(1));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import jakarta.inject.Inject;
+
+/**
+ * Counts the commands Redis executes per request, so that every basket endpoint
+ * keeps its budget of at most one read and one write.
+ */
+@QuarkusTest
+class BasketRoundTripTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+    }
+
+    /**
+     * Resets the command statistics of Redis, runs the request and returns how often each command was called.
+     */
+    private Map<String, Long> commandCalls(Runnable request) {
+        redisDS.execute("CONFIG", "RESETSTAT");
+        request.run();
+        Map<String, Long> calls = new HashMap<>();
+        for (String line : redisDS.execute("INFO", "commandstats").toString().split("\r?\n")) {
+            // e.g. cmdstat_hgetall:calls=1,usec=12,usec_per_call=12.00
+            if (line.startsWith("cmdstat_")) {
+                String command = line.substring("cmdstat_".length(), line.indexOf(':'));
+                String stats = line.substring(line.indexOf("calls=") + "calls=".length());
+                calls.put(command, Long.valueOf(stats.substring(0, stats.indexOf(','))));
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Redis also counts the commands a script runs, so the HGETALL every basket script
+     * answers with is part of the expected HGETALL count, and the GET of the balance
+     * ledger is only allowed inside a script.
+     */
+    private void assertRoundTrips(long reads, long scripts, Map<String, Long> calls) {
+        assertEquals(scripts, calls.getOrDefault("evalsha", 0L), "EVALSHA " + calls);
+        assertEquals(reads + scripts, calls.getOrDefault("hgetall", 0L), "HGETALL " + calls);
+        assertEquals(0L, calls.getOrDefault("exec", 0L), "EXEC " + calls);
+        assertEquals(0L, calls.getOrDefault("setex", 0L), "SETEX " + calls);
+        if (scripts == 0) {
+            assertEquals(0L, calls.getOrDefault("get", 0L), "GET " + calls);
+            assertEquals(0L, calls.getOrDefault("hget", 0L), "HGET " + calls);
+            assertEquals(0L, calls.getOrDefault("hexists", 0L), "HEXISTS " + calls);
+        }
+    }
+
+    private void addItem(String userId, Item item) {
+        given()
+                .when().header("X-User-Id", userId)
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+    }
+
+    @Test
+    void testGetBasketReadsOnce() {
+        Map<String, Long> calls = commandCalls(() -> given()
+                .when().header("X-User-Id", "1")
+                .get("/basket")
+                .then()
+                .statusCode(200));
+
+        assertRoundTrips(1, 0, calls);
+    }
+
+    @Test
+    void testAddItemReadsAndWritesOnce() {
+        addItem("1", createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1));
+
+        Map<String, Long> calls = commandCalls(() -> addItem("1", createTestingItem("2-2-3-4-5-6", "TestItemUser1", 10.0, 1)));
+
+        assertRoundTrips(0, 1, calls);
+    }
+
+    @Test
+    void testRemoveItemReadsAndWritesOnce() {
+        addItem("1", createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1));
+
+        Map<String, Long> calls = commandCalls(() -> given()
+                .when().header("X-User-Id", "1")
+                .delete("/basket/1-2-3-4-5-6")
+                .then()
+                .statusCode(200));
+
+        assertRoundTrips(0, 1, calls);
+    }
+
+    @Test
+    void testChangeCountReadsAndWritesOnce() {
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1);
+        addItem("1", item);
+
+        Map<String, Long> calls = commandCalls(() -> given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .patch("/basket/" + item.getProductId())
+                .then()
+                .statusCode(200));
+
+        assertRoundTrips(0, 1, calls);
+    }
+
+    @Test
+    void testClearBasketReadsAndWritesOnce() {
+        addItem("1", createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1));
+
+        Map<String, Long> calls = commandCalls(() -> given()
+                .when().header("X-User-Id", "1")
+                .delete("/basket")
+                .then()
+                .statusCode(204));
+
+        assertRoundTrips(0, 1, calls);
+    }
+
+    @Test
+    void testCheckoutReadsAndWritesOnce() {
+        addItem("4", createTestingItem("1-2-3-4-5-6", "TestItemUser4", 10.0, 1));
+
+        Map<String, Long> calls = commandCalls(() -> given()
+                .when().header("X-User-Id", "4")
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(201));
+
+        // one more script puts the order in front of the recent orders of the user
+        assertEquals(1L, calls.getOrDefault("lindex", 0L), "LINDEX " + calls);
+        calls.merge("evalsha", -1L, Long::sum);
+        // the basket is read and emptied by the same script
+        assertRoundTrips(0, 1, calls);
+    }
+
+    @Test
+    void testUnchangedBasketReadsRevisionOnly() {
+        addItem("1", createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 1));
+        String etag = given()
+                .when().header("X-User-Id", "1")
+                .get("/basket")
+                .then()
+                .statusCode(200)
+                .extract().header("ETag");
+
+        Map<String, Long> calls = commandCalls(() -> given()
+                .when().header("X-User-Id", "1")
+                .header("If-None-Match", etag)
+                .get("/basket")
+                .then()
+                .statusCode(304));
+
+        // neither the basket nor the user is read
+        assertEquals(1L, calls.getOrDefault("hget", 0L), "HGET " + calls);
+        assertEquals(0L, calls.getOrDefault("hgetall", 0L), "HGETALL " + calls);
+        assertEquals(0L, calls.getOrDefault("evalsha", 0L), "EVALSHA " + calls);
+    }
+
+}
@@ -0,0 +1,20 @@
+package de.berlin.htw;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+/**
+ * Starts the application with basket items written in the binary format and checkouts
+ * queued in the checkout stream, so binary items also pass the checkout worker.
+ */
+public class BinaryItemFormatProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of("app.basket.item-format", "binary",
+                "app.checkout.async", "true",
+                "app.checkout.claim-after", "1S");
+    }
+
+}
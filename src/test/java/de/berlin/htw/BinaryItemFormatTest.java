@@ -0,0 +1,206 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.UserTransaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.function.BooleanSupplier;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Basket items in the binary format are read, changed and checked out like JSON items,
+ * and a basket may hold items of both formats while the format is switched.
+ */
+@QuarkusTest
+@TestProfile(BinaryItemFormatProfile.class)
+class BinaryItemFormatTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    @Inject
+    @CacheName("users")
+    Cache userCache;
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+    }
+
+    private void setBalance(int userId, String balance) throws Exception {
+        userTransaction.begin();
+        entityManager.createNativeQuery("UPDATE USER SET BALANCE = ?1 WHERE ID = ?2")
+                .setParameter(1, new BigDecimal(balance))
+                .setParameter(2, userId)
+                .executeUpdate();
+        userTransaction.commit();
+        userCache.invalidate(userId).await().indefinitely();
+    }
+
+    private BigDecimal getBalance(int userId) {
+        return (BigDecimal) entityManager.createNativeQuery("SELECT BALANCE FROM USER WHERE ID = ?1")
+                .setParameter(1, userId)
+                .getSingleResult();
+    }
+
+    private long countOrders(int userId) {
+        return ((Number) entityManager.createNativeQuery("SELECT COUNT(*) FROM ORD WHERE USERID = ?1")
+                .setParameter(1, userId)
+                .getSingleResult()).longValue();
+    }
+
+    /**
+     * Waits until the checkout worker has written what the condition waits for.
+     */
+    private void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(condition.getAsBoolean(), "checkout worker did not write the order in time");
+    }
+
+    private void addItem(String userId, String productId, String name, Double price, Integer count) {
+        Item item = createTestingItem(productId, name, price, count);
+
+        given()
+                .when().header("X-User-Id", userId)
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+    }
+
+    private byte[] storedItem(String userId, String field) {
+        return redisDS.hash(byte[].class).hget(userId, field);
+    }
+
+    @Test
+    void testItemIsStoredInBinaryFormat() {
+        addItem("1", "1-2-3-4-5-6", "Käse", 12.34, 2);
+
+        byte[] stored = storedItem("1", "123456");
+        // version, product id, count, price in cents, length of the name, name in UTF-8
+        assertEquals(1, stored[0]);
+        assertEquals(1 + 4 + 4 + 8 + 2 + "Käse".getBytes(StandardCharsets.UTF_8).length,
+                stored.length);
+
+        given()
+                .when().header("X-User-Id", "1")
+                .get("/basket")
+                .then()
+                .statusCode(200)
+                .body("items", hasSize(1))
+                .body("items[0].productId", is("1-2-3-4-5-6"))
+                .body("items[0].productName", is("Käse"))
+                .body("items[0].price", is(12.34f))
+                .body("items[0].count", is(2))
+                .body("total", is(24.68f));
+    }
+
+    @Test
+    void testBinaryItemIsChangedAndRemoved() {
+        addItem("1", "1-2-3-4-5-6", "TestItemUser1", 10.5, 1);
+        addItem("1", "2-2-3-4-5-6", "TestItemUser1", 12.25, 1);
+
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.5, 2))
+                .patch("/basket/1-2-3-4-5-6")
+                .then()
+                .statusCode(200)
+                .body("total", is(43.75f));
+        assertEquals(1, storedItem("1", "123456")[0]);
+
+        given()
+                .when().header("X-User-Id", "1")
+                .delete("/basket/1-2-3-4-5-6")
+                .then()
+                .statusCode(200)
+                .body("items", hasSize(1))
+                .body("total", is(12.25f));
+        assertEquals("1225", redisDS.hash(String.class).hget("1", "totalCents"));
+    }
+
+    @Test
+    void testBasketWithJsonAndBinaryItems() {
+        addItem("1", "1-2-3-4-5-6", "Binary", 10.0, 1);
+        // an item written by a node that still writes JSON
+        redisDS.hash(String.class).hset("1", "223456",
+                "{\"productId\":\"2-2-3-4-5-6\",\"productName\":\"Json\",\"price\":15.0,\"count\":1}");
+        redisDS.hash(String.class).hincrby("1", "totalCents", 1500);
+
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(createTestingItem("2-2-3-4-5-6", "Json", 15.0, 1))
+                .patch("/basket/2-2-3-4-5-6")
+                .then()
+                .statusCode(200)
+                .body("items", hasSize(2))
+                .body("total", is(40.0f));
+        // a changed item keeps the format it was written in
+        assertEquals('{', storedItem("1", "223456")[0]);
+        assertEquals(1, storedItem("1", "123456")[0]);
+    }
+
+    @Test
+    void testBinaryItemsAreCheckedOut() throws Exception {
+        BigDecimal balance = getBalance(1);
+        long orders = countOrders(1);
+        setBalance(1, "50.00");
+        try {
+            addItem("1", "0-0-0-0-4-2", "Käse", 10.5, 2);
+            addItem("1", "2-2-3-4-5-6", "TestItemUser1", 12.99, 1);
+
+            given()
+                    .when().header("X-User-Id", "1")
+                    .contentType(ContentType.JSON)
+                    .post("/basket/")
+                    .then()
+                    .statusCode(202)
+                    .body("items", hasSize(2))
+                    .body("total", is(33.99f));
+
+            await(() -> countOrders(1) == orders + 1);
+            await(() -> new BigDecimal("16.01").compareTo(getBalance(1)) == 0);
+            Object[] item = (Object[]) entityManager.createNativeQuery(
+                            "SELECT PRODUCTID, NAME, COUNT, PRICE FROM ORDER_ITEM WHERE PRODUCTID = '0-0-0-0-4-2'"
+                                    + " AND ORDERID = (SELECT MAX(ID) FROM ORD WHERE USERID = 1)")
+                    .getSingleResult();
+            assertArrayEquals(new Object[]{"0-0-0-0-4-2", "Käse", 2},
+                    new Object[]{item[0], item[1], ((Number) item[2]).intValue()});
+            assertEquals(0, new BigDecimal("10.50").compareTo((BigDecimal) item[3]));
+        } finally {
+            setBalance(1, balance.toPlainString());
+        }
+    }
+
+}
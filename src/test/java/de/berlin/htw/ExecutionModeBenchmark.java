@@ -0,0 +1,104 @@
+package de.berlin.htw;
+
+import io.quarkus.test.common.http.TestHTTPResource;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures throughput and p99 latency of GET /orders/stream with 100, 1000 and 10000 concurrent users.
+ * Unlike GET /orders, whose latest orders are served from Redis, the stream reads every page
+ * from the database, so each request makes at least one blocking call. The subclasses start the
+ * application in one thread model each; run them with mvn test -Pbenchmark and compare the printed lines.
+ */
+abstract class ExecutionModeBenchmark {
+
+    private static final int[] CONCURRENT_USERS = {100, 1_000, 10_000};
+    private static final int REQUESTS_PER_USER = 5;
+    private static final int WARMUP_REQUESTS = 2_000;
+    private static final int USERS_IN_DATABASE = 5;
+
+    @TestHTTPResource("/orders/stream")
+    URI orders;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    abstract String mode();
+
+    @Test
+    void benchmark() throws InterruptedException {
+        run(100, WARMUP_REQUESTS);
+        for (int users : CONCURRENT_USERS) {
+            Result result = run(users, users * REQUESTS_PER_USER);
+            System.out.printf("%-8s users=%6d requests=%6d failed=%5d throughput=%8.1f req/s p99=%8.1f ms%n",
+                    mode(), users, result.requests, result.failed, result.throughput(), result.p99Millis());
+        }
+    }
+
+    /**
+     * Sends the given number of requests with at most the given number in flight.
+     */
+    private Result run(int users, int requests) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(users);
+        AtomicInteger failed = new AtomicInteger();
+        long[] latencies = new long[requests];
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[requests];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int request = i;
+            HttpRequest get = HttpRequest.newBuilder(orders)
+                    .header("X-User-Id", String.valueOf(i % USERS_IN_DATABASE + 1))
+                    .timeout(Duration.ofSeconds(60))
+                    .build();
+            long sent = System.nanoTime();
+            responses[i] = client.sendAsync(get, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        latencies[request] = System.nanoTime() - sent;
+                        if (error != null || response.statusCode() != 200) {
+                            failed.incrementAndGet();
+                        }
+                        inFlight.release();
+                    });
+        }
+        CompletableFuture.allOf(responses).exceptionally(error -> null).join();
+        return new Result(requests, failed.get(), System.nanoTime() - start, latencies);
+    }
+
+    private static final class Result {
+
+        final int requests;
+        final int failed;
+        final long elapsedNanos;
+        final long[] latencies;
+
+        Result(int requests, int failed, long elapsedNanos, long[] latencies) {
+            this.requests = requests;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+        }
+
+        double throughput() {
+            return requests / (elapsedNanos / 1e9);
+        }
+
+        double p99Millis() {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return sorted[(int) Math.ceil(sorted.length * 0.99) - 1] / 1e6;
+        }
+    }
+
+}
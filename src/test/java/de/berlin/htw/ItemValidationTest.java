@@ -5,6 +5,7 @@ import io.quarkus.test.junit.QuarkusTest;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.junit.jupiter.api.Test;
 
+import static de.berlin.htw.TestItems.createTestingItem;
 import static io.restassured.RestAssured.given;
 
 /**
@@ -13,21 +14,11 @@ import static io.restassured.RestAssured.given;
 @QuarkusTest
 public class ItemValidationTest {
 
-    // to create Item for testing
-    public Item createTestingItem(String id, String name, Float price, Integer count) {
-        Item item = new Item();
-        item.setProductId(id);
-        item.setProductName(name);
-        item.setPrice(price);
-        item.setCount(count);
-        return item;
-    }
-
     @Test
     public void testItemNameTooLongValidation() {
         String invalidProductName = RandomStringUtils.randomAlphanumeric(260);
 
-        Item tooLongNameItem = createTestingItem("1-2-3-4-5-6", invalidProductName, 10.0f, 1);
+        Item tooLongNameItem = createTestingItem("1-2-3-4-5-6", invalidProductName, 10.0, 1);
 
         given()
                 .log().all()
@@ -43,7 +34,7 @@ public class ItemValidationTest {
 //    public void testItemNameTooShortValidation() {
 //        String invalidProductName = RandomStringUtils.randomAlphanumeric(0);
 //
-//        Item tooShortNameItem = createTestingItem("1-2-3-4-5-6", invalidProductName, 10.0f, 1);
+//        Item tooShortNameItem = createTestingItem("1-2-3-4-5-6", invalidProductName, 10.0, 1);
 //
 //        given()
 //                .log().all()
@@ -59,7 +50,7 @@ public class ItemValidationTest {
     public void testItemNameNullValidation() {
         String invalidProductName = null;
 
-        Item nullNameItem = createTestingItem("1-2-3-4-5-6", invalidProductName, 10.0f, 1);
+        Item nullNameItem = createTestingItem("1-2-3-4-5-6", invalidProductName, 10.0, 1);
 
         given()
                 .log().all()
@@ -75,7 +66,7 @@ public class ItemValidationTest {
     public void testItemProductIdTooLongValidation() {
         String invaildId = "1-2-3-4-5-6-7-8-9-10-11-12-13-14-15";
 
-        Item tooLongIdItem = createTestingItem(invaildId, "test", 10.0f, 1);
+        Item tooLongIdItem = createTestingItem(invaildId, "test", 10.0, 1);
 
         given()
                 .log().all()
@@ -91,7 +82,7 @@ public class ItemValidationTest {
     public void testItemProductIdTooShortValidation() {
         String invaildId = "1-2-3-4-5";
 
-        Item tooShortIdItem = createTestingItem(invaildId, "test", 10.0f, 1);
+        Item tooShortIdItem = createTestingItem(invaildId, "test", 10.0, 1);
 
         given()
                 .log().all()
@@ -106,7 +97,7 @@ public class ItemValidationTest {
     @Test
     public void testInvalidPatternValidation() {
 
-        Item invalidPatternItem = createTestingItem("123456", "test", 10.0f, 1);
+        Item invalidPatternItem = createTestingItem("123456", "test", 10.0, 1);
 
         given()
                 .log().all()
@@ -118,10 +109,36 @@ public class ItemValidationTest {
                 .statusCode(400);
     }
 
+    @Test
+    public void testInvalidPatternOnRemoveValidation() {
+
+        given()
+                .log().all()
+                .when().header("X-User-Id", "2")
+                .when().delete("/basket/{productId}", "123456")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void testInvalidPatternOnChangeValidation() {
+
+        Item item = createTestingItem("1-2-3-4-5-6", "test", 10.0, 1);
+
+        given()
+                .log().all()
+                .when().header("X-User-Id", "2")
+                .contentType("application/json")
+                .body(item)
+                .when().patch("/basket/{productId}", "123456")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     public void testItemPriceTooLowValidation() {
 
-        Item tooLowPriceItem = createTestingItem("1-2-3-4-5-6", "test", 9.9f, 1);
+        Item tooLowPriceItem = createTestingItem("1-2-3-4-5-6", "test", 9.9, 1);
 
         given()
                 .log().all()
@@ -136,7 +153,7 @@ public class ItemValidationTest {
     @Test
     public void testItemPriceTooHighValidation() {
 
-        Item tooHighPriceItem = createTestingItem("1-2-3-4-5-6", "test", 100.1f, 1);
+        Item tooHighPriceItem = createTestingItem("1-2-3-4-5-6", "test", 100.1, 1);
 
         given()
                 .log().all()
@@ -166,7 +183,7 @@ public class ItemValidationTest {
     @Test
     public void testItemCountTooLowValidation() {
 
-        Item tooLowCountItem = createTestingItem("1-2-3-4-5-6", "test", 10.0f, 0);
+        Item tooLowCountItem = createTestingItem("1-2-3-4-5-6", "test", 10.0, 0);
 
         given()
                 .log().all()
@@ -181,7 +198,7 @@ public class ItemValidationTest {
 //    @Test
 //    public void testItemCountTooHighValidation() {
 //
-//        Item tooHighCountItem = createTestingItem("1-2-3-4-5-6", "test", 10.0f, 11);
+//        Item tooHighCountItem = createTestingItem("1-2-3-4-5-6", "test", 10.0, 11);
 //
 //        given()
 //                .log().all()
@@ -196,7 +213,7 @@ public class ItemValidationTest {
     @Test
     public void testItemCountNullValidation() {
 
-        Item nullCountItem = createTestingItem("1-2-3-4-5-6", "test", 10.0f, null);
+        Item nullCountItem = createTestingItem("1-2-3-4-5-6", "test", 10.0, null);
 
         given()
                 .log().all()
@@ -211,7 +228,7 @@ public class ItemValidationTest {
     @Test
     public void testItemCountNegativeValidation(){
 
-        Item negativeCountItem = createTestingItem("1-2-3-4-5-6", "test", 10.0f, -1);
+        Item negativeCountItem = createTestingItem("1-2-3-4-5-6", "test", 10.0, -1);
 
         given()
                 .log().all()
@@ -226,7 +243,7 @@ public class ItemValidationTest {
     @Test
     public void testItemPriceNegativeValidation(){
 
-        Item negativePriceItem = createTestingItem("1-2-3-4-5-6", "test", -10.0f, 1);
+        Item negativePriceItem = createTestingItem("1-2-3-4-5-6", "test", -10.0, 1);
 
         given()
                 .log().all()
@@ -0,0 +1,84 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+
+/**
+ * The metrics on /q/metrics tell whether time is spent in Redis, in the database or waiting for a connection.
+ */
+@QuarkusTest
+class MetricsTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+    }
+
+    @Test
+    void testBasketAndCheckoutAreMeasured() {
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 2);
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+        given()
+                .when().header("X-User-Id", "1")
+                .delete("/basket/" + item.getProductId())
+                .then()
+                .statusCode(200);
+        // the basket is empty now
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(400);
+
+        given()
+                .when().get("/q/metrics")
+                .then()
+                .statusCode(200)
+                .body(containsString("http_server_requests_seconds_bucket{"))
+                .body(containsString("uri=\"/basket/{productId}\""))
+                .body(containsString("basket_redis_seconds_count{operation=\"ADD\""))
+                .body(containsString("basket_redis_seconds_count{operation=\"CHECKOUT\""))
+                .body(containsString("basket_items_count"))
+                .body(containsString("basket_value_cents_count"))
+                .body(containsString("checkouts_total{outcome=\"rejected\",reason=\"empty_basket\"}"))
+                .body(containsString("agroal_blocking_time_max_milliseconds"));
+    }
+
+    @Test
+    void testRepositoryCallsAreMeasured() {
+        given()
+                .when().header("X-User-Id", "2")
+                .get("/orders")
+                .then()
+                .statusCode(200);
+
+        given()
+                .when().get("/q/metrics")
+                .then()
+                .statusCode(200)
+                .body(containsString("repository_calls_seconds_count{class=\"de.berlin.htw.entity.dao.OrdersRepository\""))
+                // Redis was flushed, so the recent orders of the user were read from the database
+                .body(containsString("method=\"findLatestOrdersByUserId\""));
+    }
+
+}
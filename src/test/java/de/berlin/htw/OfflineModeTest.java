@@ -0,0 +1,90 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+
+/**
+ * The basket and the orders must work the same with H2 and the Redis stand-in,
+ * including the basket scripts, which run in the stand-in with luaj.
+ */
+@QuarkusTest
+@TestProfile(OfflineProfile.class)
+class OfflineModeTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+    }
+
+    @Test
+    void testBasketAndCheckout() {
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser3", 12.5, 1);
+
+        given()
+                .when().header("X-User-Id", "3")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201)
+                .body("items", hasSize(1))
+                .body("total", equalTo(12.5f));
+
+        item.setCount(2);
+        given()
+                .when().header("X-User-Id", "3")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .patch("/basket/" + item.getProductId())
+                .then()
+                .statusCode(200)
+                .body("items[0].count", equalTo(3))
+                .body("total", equalTo(37.5f));
+
+        given()
+                .when().header("X-User-Id", "3")
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(201)
+                .header("Location", containsString("/orders/"))
+                .body("total", equalTo(37.5f));
+
+        given()
+                .when().header("X-User-Id", "3")
+                .get("/basket")
+                .then()
+                .statusCode(200)
+                .body("items", hasSize(0));
+    }
+
+    @Test
+    void testBalanceTooLow() {
+        Item item = createTestingItem("6-5-4-3-2-1", "TestItemUser5", 10.0, 1);
+
+        given()
+                .when().header("X-User-Id", "5")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(400);
+    }
+
+}
@@ -0,0 +1,15 @@
+package de.berlin.htw;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+/**
+ * Starts the application without MySQL and Redis: H2 in memory and the {@link RedisStandIn}.
+ */
+public class OfflineProfile implements QuarkusTestProfile {
+
+    @Override
+    public String getConfigProfile() {
+        return OfflineResource.PROFILE;
+    }
+
+}
@@ -0,0 +1,54 @@
+package de.berlin.htw;
+
+import io.quarkus.runtime.configuration.DurationConverter;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.QuarkusTestResourceLifecycleManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Starts the {@link RedisStandIn} for the tests that run in the config profile offline,
+ * where the database is H2 in memory; with any other profile it starts nothing.
+ * The delay of every Redis reply is set with the system property offline.redis-latency, e.g. 1ms.
+ */
+@QuarkusTestResource(value = OfflineResource.class, restrictToAnnotatedClass = false)
+public class OfflineResource implements QuarkusTestResourceLifecycleManager {
+
+    static final String PROFILE = "offline";
+    static final String LATENCY_PROPERTY = "offline.redis-latency";
+
+    private RedisStandIn redis;
+
+    @Override
+    public Map<String, String> start() {
+        // set by mvn test -Poffline or by the config profile of a test profile
+        String profiles = System.getProperty("quarkus.test.profile", "");
+        if (!Arrays.asList(profiles.split(",")).contains(PROFILE)) {
+            return Map.of();
+        }
+        Duration latency = DurationConverter.parseDuration(System.getProperty(LATENCY_PROPERTY, "0ms"));
+        redis = new RedisStandIn(latency);
+        try {
+            int port = redis.start();
+            return Map.of("quarkus.redis.hosts", "redis://localhost:" + port + "/0");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (redis != null) {
+            try {
+                redis.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Money;
+import de.berlin.htw.entity.dao.OrdersRepository;
+import de.berlin.htw.entity.dao.UserRepository;
+import de.berlin.htw.entity.dto.OrdersEntity;
+import de.berlin.htw.entity.dto.UserEntity;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.UserTransaction;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Measures time and heap per request of reading a large order history, once as managed
+ * entities with their items and once as the rows of {@link OrdersRepository#findOrdersByUserId}.
+ * A user with 2000 orders of 5 items for 15.00 each is created for the run and deleted afterwards.
+ * Run it with mvn test -Pbenchmark and compare the printed lines.
+ */
+@QuarkusTest
+class OrderHistoryBenchmark {
+
+    private static final int ORDERS = 2_000;
+    private static final int ITEMS_PER_ORDER = 5;
+    private static final long PRICE_CENTS = 1_500L;
+    private static final int WARMUP_REQUESTS = 20;
+    private static final int REQUESTS = 50;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    @Inject
+    UserRepository userRepository;
+
+    @Inject
+    OrdersRepository ordersRepository;
+
+    @Test
+    void benchmark() throws Exception {
+        UserEntity user = new UserEntity();
+        user.setName("OrderHistoryBenchmark");
+        user.setBalance(0.0);
+        userRepository.persistUser(user);
+        try {
+            seed(user.getId());
+            measure("entities", () -> entityManager.createQuery(
+                            "SELECT DISTINCT o FROM OrdersEntity o LEFT JOIN FETCH o.items"
+                                    + " WHERE o.user.id = :id ORDER BY o.id", OrdersEntity.class)
+                    .setParameter("id", user.getId())
+                    .getResultList());
+            measure("rows", () -> ordersRepository.findOrdersByUserId(user.getId(), null, ORDERS));
+        } finally {
+            userTransaction.begin();
+            entityManager.createNativeQuery("DELETE FROM ORDER_ITEM WHERE ORDERID IN (SELECT ID FROM ORD WHERE USERID = ?1)")
+                    .setParameter(1, user.getId())
+                    .executeUpdate();
+            entityManager.createNativeQuery("DELETE FROM ORD WHERE USERID = ?1")
+                    .setParameter(1, user.getId())
+                    .executeUpdate();
+            entityManager.createQuery("DELETE FROM UserEntity u WHERE u.id = :id")
+                    .setParameter("id", user.getId())
+                    .executeUpdate();
+            userTransaction.commit();
+        }
+    }
+
+    /**
+     * Reads the history in a transaction per request, as a request of GET /orders does,
+     * and prints the mean time, the bytes allocated and the entities left in the persistence context.
+     */
+    private void measure(String path, Supplier<List<?>> history) throws Exception {
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            read(history);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        long entities = 0;
+        int orders = 0;
+        for (int i = 0; i < REQUESTS; i++) {
+            Read read = read(history);
+            entities += read.entities;
+            orders = read.orders;
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = threads.getCurrentThreadAllocatedBytes() - allocated;
+        System.out.printf("%-8s orders=%5d time=%8.2f ms/request heap=%8.2f MB/request entities=%6d/request%n",
+                path, orders, elapsed / 1e6 / REQUESTS, bytes / 1e6 / REQUESTS, entities / REQUESTS);
+    }
+
+    private Read read(Supplier<List<?>> history) throws Exception {
+        userTransaction.begin();
+        try {
+            List<?> orders = history.get();
+            // counted before the commit, which flushes and dirty-checks what is managed
+            int entities = entityManager.unwrap(Session.class).getStatistics().getEntityCount();
+            userTransaction.commit();
+            return new Read(orders.size(), entities);
+        } catch (Exception e) {
+            userTransaction.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Inserts the orders and their items with JDBC batches, which is much faster than persisting entities.
+     */
+    private void seed(Integer userId) throws Exception {
+        userTransaction.begin();
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            try (PreparedStatement order = connection.prepareStatement("INSERT INTO ORD (USERID, TOTAL) VALUES (?, ?)")) {
+                for (int i = 0; i < ORDERS; i++) {
+                    order.setInt(1, userId);
+                    order.setBigDecimal(2, Money.decimal(ITEMS_PER_ORDER * PRICE_CENTS));
+                    order.addBatch();
+                }
+                order.executeBatch();
+            }
+            List<Long> orderIds = new ArrayList<>();
+            try (PreparedStatement select = connection.prepareStatement("SELECT ID FROM ORD WHERE USERID = ?")) {
+                select.setInt(1, userId);
+                try (ResultSet ids = select.executeQuery()) {
+                    while (ids.next()) {
+                        orderIds.add(ids.getLong(1));
+                    }
+                }
+            }
+            try (PreparedStatement item = connection.prepareStatement(
+                    "INSERT INTO ORDER_ITEM (ORDERID, PRODUCTID, NAME, COUNT, PRICE) VALUES (?, ?, ?, ?, ?)")) {
+                for (Long orderId : orderIds) {
+                    for (int i = 0; i < ITEMS_PER_ORDER; i++) {
+                        item.setLong(1, orderId);
+                        item.setString(2, "1-2-3-4-5-" + i);
+                        item.setString(3, "Benchmark item " + i);
+                        item.setInt(4, 1);
+                        item.setBigDecimal(5, Money.decimal(PRICE_CENTS));
+                        item.addBatch();
+                    }
+                }
+                item.executeBatch();
+            }
+        });
+        userTransaction.commit();
+    }
+
+    private static final class Read {
+
+        final int orders;
+        final int entities;
+
+        Read(int orders, int entities) {
+            this.orders = orders;
+            this.entities = entities;
+        }
+    }
+
+}
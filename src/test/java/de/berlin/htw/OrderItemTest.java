@@ -0,0 +1,167 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import de.berlin.htw.control.OrderItemBackfill;
+import de.berlin.htw.entity.dto.OrdersEntity;
+import de.berlin.htw.entity.dto.UserEntity;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.UserTransaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * The items of an order are stored in ORDER_ITEM; old orders with JSON items are copied there.
+ */
+@QuarkusTest
+class OrderItemTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @Inject
+    OrderItemBackfill backfill;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+    }
+
+    @Test
+    void testCheckoutWithItemsLongerThanTheOldColumn() {
+        // ten items with long names did not fit into ORD.ITEMS VARCHAR(512)
+        for (int i = 0; i < 10; i++) {
+            Item item = createTestingItem("1-2-3-4-5-" + i, "X".repeat(250) + i, 10.0, 1);
+            given()
+                    .when().header("X-User-Id", "3")
+                    .contentType(ContentType.JSON)
+                    .body(item)
+                    .post("/basket/" + item.getProductId())
+                    .then()
+                    .statusCode(201);
+        }
+
+        String location = given()
+                .when().header("X-User-Id", "3")
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(201)
+                .body("items", hasSize(10))
+                .extract().header("Location");
+        Long orderId = Long.valueOf(location.substring(location.lastIndexOf('/') + 1));
+
+        given()
+                .when().header("X-User-Id", "3")
+                .queryParam("after", orderId.longValue() - 1)
+                .queryParam("size", 1)
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .body("orders[0].items", hasSize(10))
+                .body("orders[0].items[9].productName", is("X".repeat(250) + 9));
+    }
+
+    @Test
+    void testJsonItemsAreCopied() throws Exception {
+        userTransaction.begin();
+        entityManager.createNativeQuery("INSERT INTO ORD (ITEMS, USERID, TOTAL) VALUES (?, 2, 30.0)")
+                .setParameter(1, "[{\"productName\":\"Legacy\",\"productId\":\"9-9-9-9-9-9\",\"count\":3,\"price\":10.0}]")
+                .executeUpdate();
+        Number orderId = (Number) entityManager.createNativeQuery("SELECT MAX(ID) FROM ORD").getSingleResult();
+        userTransaction.commit();
+
+        // shown from the JSON until it is copied
+        given()
+                .when().header("X-User-Id", "2")
+                .queryParam("after", orderId.longValue() - 1)
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .body("orders[0].items[0].productName", is("Legacy"));
+
+        backfill.run();
+
+        assertNull(entityManager.createNativeQuery("SELECT ITEMS FROM ORD WHERE ID = ?")
+                .setParameter(1, orderId).getSingleResult());
+        assertEquals(3, ((Number) entityManager.createNativeQuery("SELECT COUNT FROM ORDER_ITEM WHERE ORDERID = ?")
+                .setParameter(1, orderId).getSingleResult()).intValue());
+        given()
+                .when().header("X-User-Id", "2")
+                .queryParam("after", orderId.longValue() - 1)
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .body("orders[0].items[0].productName", is("Legacy"))
+                .body("orders[0].items[0].count", is(3));
+    }
+
+    @Test
+    void testOrderWithUnreadableItemsFails() throws Exception {
+        userTransaction.begin();
+        entityManager.createNativeQuery("INSERT INTO ORD (ITEMS, USERID, TOTAL) VALUES (?, 2, 30.0)")
+                .setParameter(1, "[{\"productName\":\"Legacy\",")
+                .executeUpdate();
+        Number orderId = (Number) entityManager.createNativeQuery("SELECT MAX(ID) FROM ORD").getSingleResult();
+        userTransaction.commit();
+        try {
+            // the order is not shown without its items
+            given()
+                    .when().header("X-User-Id", "2")
+                    .queryParam("after", orderId.longValue() - 1)
+                    .get("/orders")
+                    .then()
+                    .statusCode(500);
+        } finally {
+            userTransaction.begin();
+            entityManager.createNativeQuery("DELETE FROM ORD WHERE ID = ?")
+                    .setParameter(1, orderId)
+                    .executeUpdate();
+            userTransaction.commit();
+        }
+    }
+
+    @Test
+    void testOrderTotalIsExact() throws Exception {
+        // more digits than a float holds
+        OrdersEntity order = new OrdersEntity();
+        order.totalCents(123_456_789);
+        userTransaction.begin();
+        order.setUser(entityManager.getReference(UserEntity.class, 5));
+        entityManager.persist(order);
+        userTransaction.commit();
+
+        try {
+            assertEquals(new BigDecimal("1234567.89"), entityManager.createNativeQuery("SELECT TOTAL FROM ORD WHERE ID = ?")
+                    .setParameter(1, order.getId()).getSingleResult());
+            userTransaction.begin();
+            assertEquals(123_456_789, entityManager.find(OrdersEntity.class, order.getId()).totalCents());
+            userTransaction.commit();
+        } finally {
+            userTransaction.begin();
+            entityManager.createNativeQuery("DELETE FROM ORD WHERE ID = ?").setParameter(1, order.getId()).executeUpdate();
+            userTransaction.commit();
+        }
+    }
+
+}
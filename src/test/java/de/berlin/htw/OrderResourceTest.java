@@ -1,13 +1,92 @@
 package de.berlin.htw;
 
+import de.berlin.htw.boundary.dto.Item;
+import de.berlin.htw.control.RecentOrders;
+import de.berlin.htw.entity.dao.OrdersRepository;
+import de.berlin.htw.entity.dao.UserRepository;
+import de.berlin.htw.entity.dto.OrdersEntity;
+import de.berlin.htw.entity.dto.UserEntity;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.redis.datasource.RedisDataSource;
 import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import io.restassured.path.json.JsonPath;
+import io.restassured.specification.RequestSpecification;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.UserTransaction;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
+import static de.berlin.htw.TestItems.createTestingItem;
 import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @QuarkusTest
 class OrderResourceTest {
 
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @Inject
+    RecentOrders recentOrders;
+
+    @ConfigProperty(name = "app.orders.recent-size")
+    int recentSize;
+
+    @Inject
+    UserRepository userRepository;
+
+    @Inject
+    MeterRegistry registry;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    /**
+     * Number of calls of the OrdersRepository so far.
+     */
+    private long countRepositoryCalls() {
+        return registry.find("repository.calls").tag("class", OrdersRepository.class.getName()).timers().stream()
+                .mapToLong(Timer::count)
+                .sum();
+    }
+
+    /**
+     * Checks out a basket with one item, so that the user has one more order.
+     */
+    private void checkoutOneItem(String userId) {
+        redisDS.flushall();
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser" + userId, 10.0, 1);
+
+        given()
+                .when().header("X-User-Id", userId)
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+        given()
+                .when().header("X-User-Id", userId)
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(201);
+    }
+
     @Test
     void testUnauthorized() {
         given()
@@ -29,4 +108,282 @@ class OrderResourceTest {
         	.statusCode(200);
     }
 
-}
\ No newline at end of file
+    @Test
+    void testKeysetPagination() {
+        for (int i = 0; i < 3; i++) {
+            checkoutOneItem("3");
+        }
+
+        // read all pages with two orders each, the oldest first; the ids must not repeat
+        int orders = 0;
+        Long after = null;
+        do {
+            RequestSpecification request = given().header("X-User-Id", "3").queryParam("size", 2);
+            if (after != null) {
+                request.queryParam("after", after);
+            }
+            JsonPath page = request
+                    .when().get("/orders")
+                    .then()
+                    .statusCode(200)
+                    .extract().jsonPath();
+            int size = page.getList("orders").size();
+            assertTrue(size <= 2);
+            orders += size;
+            Long next = page.getObject("next", Long.class);
+            assertTrue(next == null || after == null || next > after);
+            after = next;
+        } while (after != null);
+        assertTrue(orders >= 3);
+
+        // the stream returns the same orders in one array
+        given()
+                .when().header("X-User-Id", "3")
+                .get("/orders/stream")
+                .then()
+                .statusCode(200)
+                .body("$", hasSize(orders));
+    }
+
+    @Test
+    void testFirstPageIsLimited() {
+        checkoutOneItem("3");
+        checkoutOneItem("3");
+
+        given()
+                .when().header("X-User-Id", "3")
+                .queryParam("size", 1)
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .body("orders", hasSize(1))
+                .body("next", notNullValue());
+    }
+
+    @Test
+    void testLatestOrdersAreReadFromRecentOrders() throws Exception {
+        redisDS.flushall();
+        UserEntity user = new UserEntity();
+        user.setName("OrderResourceTest");
+        user.setBalance(0.0);
+        userRepository.persistUser(user);
+        String userId = String.valueOf(user.getId());
+        try {
+            // more orders than the recent orders hold
+            userTransaction.begin();
+            for (int i = 0; i < recentSize + 5; i++) {
+                entityManager.createNativeQuery("INSERT INTO ORD (USERID, TOTAL) VALUES (?1, 10.0)")
+                        .setParameter(1, user.getId())
+                        .executeUpdate();
+            }
+            userTransaction.commit();
+
+            // the oldest orders are not in Redis, the first page is read from the database;
+            // it ends with the oldest of the recent orders
+            long next = given()
+                    .when().header("X-User-Id", userId)
+                    .queryParam("size", 6)
+                    .get("/orders")
+                    .then()
+                    .statusCode(200)
+                    .body("orders", hasSize(6))
+                    .body("next", notNullValue())
+                    .extract().jsonPath().getLong("next");
+
+            // the pages after them are the recent orders
+            long calls = countRepositoryCalls();
+            given()
+                    .when().header("X-User-Id", userId)
+                    .queryParam("after", next)
+                    .queryParam("size", recentSize)
+                    .get("/orders")
+                    .then()
+                    .statusCode(200)
+                    .body("orders", hasSize(recentSize - 1));
+            assertEquals(calls, countRepositoryCalls());
+        } finally {
+            userTransaction.begin();
+            entityManager.createNativeQuery("DELETE FROM ORD WHERE USERID = ?1")
+                    .setParameter(1, user.getId())
+                    .executeUpdate();
+            entityManager.createQuery("DELETE FROM UserEntity u WHERE u.id = :id")
+                    .setParameter("id", user.getId())
+                    .executeUpdate();
+            userTransaction.commit();
+            redisDS.flushall();
+        }
+    }
+
+    @Test
+    void testAllOrdersWithoutPageSize() throws Exception {
+        redisDS.flushall();
+        UserEntity user = new UserEntity();
+        user.setName("OrderResourceTest");
+        user.setBalance(0.0);
+        userRepository.persistUser(user);
+        String userId = String.valueOf(user.getId());
+        try {
+            userTransaction.begin();
+            for (int i = 0; i < 60; i++) {
+                entityManager.createNativeQuery("INSERT INTO ORD (USERID, TOTAL) VALUES (?1, 10.0)")
+                        .setParameter(1, user.getId())
+                        .executeUpdate();
+            }
+            userTransaction.commit();
+
+            // a client that does not page gets every order
+            given()
+                    .when().header("X-User-Id", userId)
+                    .get("/orders")
+                    .then()
+                    .statusCode(200)
+                    .body("orders", hasSize(60))
+                    .body("next", nullValue());
+        } finally {
+            userTransaction.begin();
+            entityManager.createNativeQuery("DELETE FROM ORD WHERE USERID = ?1")
+                    .setParameter(1, user.getId())
+                    .executeUpdate();
+            entityManager.createQuery("DELETE FROM UserEntity u WHERE u.id = :id")
+                    .setParameter("id", user.getId())
+                    .executeUpdate();
+            userTransaction.commit();
+            redisDS.flushall();
+        }
+    }
+
+    @Test
+    void testInvalidPageSize() {
+        given()
+                .when().header("X-User-Id", "1")
+                .queryParam("size", 0)
+                .get("/orders")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    void testUnchangedOrdersAreNotModified() {
+        checkoutOneItem("3");
+        String etag = given()
+                .when().header("X-User-Id", "3")
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .header("ETag", notNullValue())
+                .extract().header("ETag");
+
+        given()
+                .when().header("X-User-Id", "3")
+                .header("If-None-Match", etag)
+                .get("/orders")
+                .then()
+                .statusCode(304)
+                .header("ETag", etag);
+
+        // a new order changes the version
+        checkoutOneItem("3");
+        given()
+                .when().header("X-User-Id", "3")
+                .header("If-None-Match", etag)
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .header("ETag", not(etag));
+    }
+
+    @Test
+    void testCheckoutPushesRecentOrder() {
+        checkoutOneItem("3");
+        // the first read builds the recent orders from the database
+        given()
+                .when().header("X-User-Id", "3")
+                .get("/orders")
+                .then()
+                .statusCode(200);
+        List<String> before = redisDS.list(String.class).lrange("orders:3", 0, -1);
+
+        Item item = createTestingItem("2-2-3-4-5-6", "TestItemUser3", 12.5, 2);
+        given()
+                .when().header("X-User-Id", "3")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+        String location = given()
+                .when().header("X-User-Id", "3")
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(201)
+                .extract().header("Location");
+        long id = Long.parseLong(location.substring(location.lastIndexOf('/') + 1));
+
+        // the order is put in front, the list is not built again
+        List<String> after = redisDS.list(String.class).lrange("orders:3", 0, -1);
+        assertTrue(after.get(0).startsWith(id + ":2500:"));
+        assertEquals(before.subList(0, after.size() - 1), after.subList(1, after.size()));
+        given()
+                .when().header("X-User-Id", "3")
+                .queryParam("after", id - 1)
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .body("orders", hasSize(1))
+                .body("orders[0].total", is(25.0f))
+                .body("orders[0].items[0].productId", is("2-2-3-4-5-6"))
+                .body("orders[0].items[0].count", is(2));
+    }
+
+    @Test
+    void testEvictedRecentOrdersAreRebuilt() {
+        checkoutOneItem("3");
+        String page = given()
+                .when().header("X-User-Id", "3")
+                .queryParam("size", 500)
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .extract().asString();
+
+        redisDS.key().del("orders:3");
+        given()
+                .when().header("X-User-Id", "3")
+                .queryParam("size", 500)
+                .get("/orders")
+                .then()
+                .statusCode(200)
+                .body(is(page));
+        assertTrue(redisDS.key().exists("orders:3"));
+    }
+
+    @Test
+    void testRecentOrdersAreTrimmed() {
+        redisDS.flushall();
+        // a user without orders
+        redisDS.list(String.class).rpush("orders:999", "complete");
+        for (long id = 1; id <= recentSize; id++) {
+            recentOrders.push("999", order(id), List.of()).await().indefinitely();
+        }
+        // all orders of the user fit, the list still says it holds all of them
+        assertEquals(recentSize + 1, redisDS.list(String.class).llen("orders:999"));
+        assertEquals("complete", redisDS.list(String.class).lindex("orders:999", -1));
+
+        recentOrders.push("999", order(recentSize + 1), List.of()).await().indefinitely();
+        recentOrders.push("999", order(recentSize + 2), List.of()).await().indefinitely();
+        assertEquals(recentSize, redisDS.list(String.class).llen("orders:999"));
+        assertTrue(redisDS.list(String.class).lindex("orders:999", 0).startsWith((recentSize + 2) + ":"));
+        assertTrue(redisDS.list(String.class).lindex("orders:999", -1).startsWith("3:"));
+        redisDS.flushall();
+    }
+
+    private static OrdersEntity order(long id) {
+        OrdersEntity order = new OrdersEntity();
+        order.setId(id);
+        order.previousOrderId(id == 1 ? null : id - 1);
+        order.totalCents(1_000);
+        return order;
+    }
+
+}
@@ -0,0 +1,1209 @@
+package de.berlin.htw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A Redis stand-in that runs in the JVM of the tests and speaks the Redis protocol (RESP2 and RESP3),
+ * so the application can run without the Redis container.
+ * It covers the commands of the application and the tests: strings, hashes, lists, the checkout stream
+ * with its consumer group, WATCH/MULTI/EXEC, Pub/Sub and the basket scripts, which run in
+ * {@link RedisStandInScripts} with the same Lua sources as in Redis. INFO commandstats counts the
+ * commands like Redis does, including the commands of the scripts.
+ * <p>
+ * Like Redis, it runs one command at a time. Every reply is delayed by the configured latency,
+ * so benchmarks can simulate the round trip to a remote Redis.
+ */
+class RedisStandIn implements Closeable {
+
+    private static final Object NIL_ARRAY = new Object();
+    private static final Status OK = new Status("OK");
+    private static final Status QUEUED = new Status("QUEUED");
+
+    /**
+     * A simple string reply, e.g. +OK.
+     */
+    record Status(String text) {
+    }
+
+    /**
+     * Data sent with RESP3 outside of a reply, e.g. a message of a subscribed channel.
+     */
+    record Push(List<Object> values) {
+    }
+
+    /**
+     * An error reply, e.g. -WRONGTYPE Operation against a key holding the wrong kind of value.
+     */
+    static final class ErrorReply extends RuntimeException {
+        ErrorReply(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final Duration latency;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition streamsChanged = lock.newCondition();
+
+    private final Map<String, Object> data = new HashMap<>();
+    private final Map<String, Long> expiries = new HashMap<>();
+    private final Map<String, Long> versions = new HashMap<>();
+    private long version;
+    private final Map<String, Long> commandCalls = new TreeMap<>();
+    private final Map<String, Set<Connection>> channels = new ConcurrentHashMap<>();
+    private final RedisStandInScripts scripts = new RedisStandInScripts(this);
+
+    private final Set<Connection> connections = new CopyOnWriteArraySet<>();
+    private ServerSocket server;
+
+    /**
+     * @param latency the delay of every reply, zero for none
+     */
+    RedisStandIn(Duration latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Starts listening on a free port of the loopback interface.
+     *
+     * @return the port
+     */
+    int start() throws IOException {
+        server = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "redis-stand-in");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread thread = new Thread(connection::serve, "redis-stand-in-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    /**
+     * One client connection with its transaction and subscriptions.
+     */
+    private final class Connection {
+
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+
+        final Map<String, Long> watched = new HashMap<>();
+        List<List<byte[]>> queued;
+        final Set<String> subscriptions = new TreeSet<>();
+        int protocol = 2;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void serve() {
+            try {
+                while (true) {
+                    List<byte[]> command = readCommand(in);
+                    if (command == null) {
+                        break;
+                    }
+                    Object reply;
+                    try {
+                        reply = handle(this, command);
+                    } catch (ErrorReply e) {
+                        reply = e;
+                    }
+                    if (!latency.isZero()) {
+                        Thread.sleep(latency.toMillis(), latency.toNanosPart() % 1_000_000);
+                    }
+                    write(reply);
+                }
+            } catch (IOException | InterruptedException e) {
+                // the client went away
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Writes a reply; messages of channels are sent as arrays with RESP2 and as push data with RESP3.
+         */
+        synchronized void write(Object reply) throws IOException {
+            if (protocol == 2 && reply instanceof Push push) {
+                reply = push.values();
+            } else if (protocol == 2 && reply instanceof Map<?, ?> map) {
+                List<Object> flat = new ArrayList<>();
+                map.forEach((key, value) -> {
+                    flat.add(key);
+                    flat.add(value);
+                });
+                reply = flat;
+            }
+            writeReply(out, reply);
+            out.flush();
+        }
+
+        void close() {
+            connections.remove(this);
+            for (Set<Connection> subscribers : channels.values()) {
+                subscribers.remove(this);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private Object handle(Connection connection, List<byte[]> command) throws InterruptedException {
+        String name = text(command.get(0)).toLowerCase(Locale.ROOT);
+        switch (name) {
+            case "hello":
+                // the Redis client of Vert.x prefers RESP3, which does not need an own connection for Pub/Sub
+                if (command.size() > 1) {
+                    connection.protocol = (int) number(command.get(1));
+                }
+                Map<Object, Object> hello = new LinkedHashMap<>();
+                hello.put(bytes("server"), bytes("redis"));
+                hello.put(bytes("version"), bytes("6.2.0"));
+                hello.put(bytes("proto"), (long) connection.protocol);
+                hello.put(bytes("mode"), bytes("standalone"));
+                hello.put(bytes("role"), bytes("master"));
+                hello.put(bytes("modules"), List.of());
+                return hello;
+            case "multi":
+                if (connection.queued != null) {
+                    throw new ErrorReply("ERR MULTI calls can not be nested");
+                }
+                connection.queued = new ArrayList<>();
+                return OK;
+            case "exec":
+                return exec(connection);
+            case "discard":
+                connection.queued = null;
+                unwatch(connection);
+                return OK;
+            case "subscribe":
+                for (int i = 1; i < command.size(); i++) {
+                    String channel = text(command.get(i));
+                    channels.computeIfAbsent(channel, c -> new CopyOnWriteArraySet<>()).add(connection);
+                    connection.subscriptions.add(channel);
+                    if (i < command.size() - 1) {
+                        try {
+                            connection.write(new Push(List.of(bytes("subscribe"), command.get(i),
+                                    (long) connection.subscriptions.size())));
+                        } catch (IOException e) {
+                            throw new ErrorReply("ERR " + e.getMessage());
+                        }
+                    }
+                }
+                return new Push(List.of(bytes("subscribe"), command.get(command.size() - 1),
+                        (long) connection.subscriptions.size()));
+            case "unsubscribe": {
+                List<String> unsubscribed = command.size() > 1 ? new ArrayList<>() : List.copyOf(connection.subscriptions);
+                for (int i = 1; i < command.size(); i++) {
+                    unsubscribed.add(text(command.get(i)));
+                }
+                Push last = new Push(List.of(bytes("unsubscribe"), NIL_ARRAY, 0L));
+                for (String channel : unsubscribed) {
+                    channels.getOrDefault(channel, Set.of()).remove(connection);
+                    connection.subscriptions.remove(channel);
+                    last = new Push(List.of(bytes("unsubscribe"), raw(channel), (long) connection.subscriptions.size()));
+                    if (!channel.equals(unsubscribed.get(unsubscribed.size() - 1))) {
+                        try {
+                            connection.write(last);
+                        } catch (IOException e) {
+                            throw new ErrorReply("ERR " + e.getMessage());
+                        }
+                    }
+                }
+                return last;
+            }
+            case "xreadgroup":
+                if (connection.queued == null) {
+                    return readGroup(command);
+                }
+                break;
+            default:
+                break;
+        }
+        if (connection.queued != null) {
+            connection.queued.add(command);
+            return QUEUED;
+        }
+        lock.lock();
+        try {
+            if (name.equals("watch")) {
+                for (int i = 1; i < command.size(); i++) {
+                    String key = text(command.get(i));
+                    connection.watched.put(key, versionOf(key));
+                }
+                return OK;
+            }
+            if (name.equals("unwatch")) {
+                unwatch(connection);
+                return OK;
+            }
+            return call(command);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object exec(Connection connection) {
+        List<List<byte[]>> queued = connection.queued;
+        if (queued == null) {
+            throw new ErrorReply("ERR EXEC without MULTI");
+        }
+        connection.queued = null;
+        lock.lock();
+        try {
+            count("exec");
+            for (Map.Entry<String, Long> watched : connection.watched.entrySet()) {
+                if (versionOf(watched.getKey()) != watched.getValue()) {
+                    unwatch(connection);
+                    return NIL_ARRAY;
+                }
+            }
+            unwatch(connection);
+            List<Object> replies = new ArrayList<>();
+            for (List<byte[]> command : queued) {
+                try {
+                    replies.add(call(command));
+                } catch (ErrorReply e) {
+                    replies.add(e);
+                }
+            }
+            return replies;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void unwatch(Connection connection) {
+        connection.watched.clear();
+    }
+
+    /**
+     * Runs a command; the caller holds the lock. Also called by the scripts.
+     */
+    Object call(List<byte[]> command) {
+        String name = text(command.get(0)).toLowerCase(Locale.ROOT);
+        count(name);
+        switch (name) {
+            case "ping":
+                return command.size() > 1 ? command.get(1) : new Status("PONG");
+            case "echo":
+                return command.get(1);
+            case "select":
+            case "client":
+            case "readonly":
+                return OK;
+            case "config":
+                if (text(command.get(1)).equalsIgnoreCase("resetstat")) {
+                    commandCalls.clear();
+                    return OK;
+                }
+                return List.of();
+            case "info":
+                return info();
+            case "flushall":
+            case "flushdb":
+                for (String key : List.copyOf(data.keySet())) {
+                    delete(key);
+                }
+                return OK;
+            case "dbsize":
+                expireAll();
+                return (long) data.size();
+            case "del":
+            case "unlink": {
+                long deleted = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    deleted += delete(text(command.get(i))) ? 1 : 0;
+                }
+                return deleted;
+            }
+            case "exists": {
+                long existing = 0;
+                for (int i = 1; i < command.size(); i++) {
+                    existing += get(text(command.get(i))) != null ? 1 : 0;
+                }
+                return existing;
+            }
+            case "type": {
+                Object value = get(text(command.get(1)));
+                return new Status(value == null ? "none" : value instanceof byte[] ? "string"
+                        : value instanceof Map ? "hash" : value instanceof List ? "list" : "stream");
+            }
+            case "expire":
+            case "pexpire": {
+                String key = text(command.get(1));
+                if (get(key) == null) {
+                    return 0L;
+                }
+                long amount = number(command.get(2));
+                expiries.put(key, now() + (name.equals("expire") ? TimeUnit.SECONDS.toMillis(amount) : amount));
+                touch(key);
+                return 1L;
+            }
+            case "persist":
+                return expiries.remove(text(command.get(1))) != null ? 1L : 0L;
+            case "ttl":
+            case "pttl": {
+                String key = text(command.get(1));
+                if (get(key) == null) {
+                    return -2L;
+                }
+                Long expiry = expiries.get(key);
+                if (expiry == null) {
+                    return -1L;
+                }
+                long left = expiry - now();
+                return name.equals("ttl") ? (left + 999) / 1000 : left;
+            }
+            case "keys": {
+                expireAll();
+                String pattern = text(command.get(1));
+                List<Object> keys = new ArrayList<>();
+                for (String key : data.keySet()) {
+                    if (matches(pattern, key)) {
+                        keys.add(raw(key));
+                    }
+                }
+                return keys;
+            }
+            case "get":
+                return string(text(command.get(1)));
+            case "set":
+                return set(command);
+            case "setex":
+                return set(List.of(command.get(0), command.get(1), command.get(3), bytes("EX"), command.get(2)));
+            case "incr":
+            case "decr":
+            case "incrby":
+            case "decrby": {
+                String key = text(command.get(1));
+                long by = command.size() > 2 ? number(command.get(2)) : 1;
+                byte[] current = string(key);
+                long value = (current == null ? 0 : number(current)) + (name.startsWith("decr") ? -by : by);
+                data.put(key, bytes(String.valueOf(value)));
+                touch(key);
+                return value;
+            }
+            case "hget": {
+                Map<String, byte[]> hash = hash(text(command.get(1)), false);
+                return hash == null ? null : hash.get(text(command.get(2)));
+            }
+            case "hmget": {
+                Map<String, byte[]> hash = hash(text(command.get(1)), false);
+                List<Object> values = new ArrayList<>();
+                for (int i = 2; i < command.size(); i++) {
+                    values.add(hash == null ? null : hash.get(text(command.get(i))));
+                }
+                return values;
+            }
+            case "hset":
+            case "hmset": {
+                String key = text(command.get(1));
+                Map<String, byte[]> hash = hash(key, true);
+                long added = 0;
+                for (int i = 2; i + 1 < command.size(); i += 2) {
+                    added += hash.put(text(command.get(i)), command.get(i + 1)) == null ? 1 : 0;
+                }
+                touch(key);
+                return name.equals("hset") ? (Object) added : OK;
+            }
+            case "hdel": {
+                String key = text(command.get(1));
+                Map<String, byte[]> hash = hash(key, false);
+                if (hash == null) {
+                    return 0L;
+                }
+                long deleted = 0;
+                for (int i = 2; i < command.size(); i++) {
+                    deleted += hash.remove(text(command.get(i))) != null ? 1 : 0;
+                }
+                if (hash.isEmpty()) {
+                    delete(key);
+                }
+                touch(key);
+                return deleted;
+            }
+            case "hexists": {
+                Map<String, byte[]> hash = hash(text(command.get(1)), false);
+                return hash != null && hash.containsKey(text(command.get(2))) ? 1L : 0L;
+            }
+            case "hlen": {
+                Map<String, byte[]> hash = hash(text(command.get(1)), false);
+                return hash == null ? 0L : (long) hash.size();
+            }
+            case "hgetall": {
+                Map<String, byte[]> hash = hash(text(command.get(1)), false);
+                List<Object> fields = new ArrayList<>();
+                if (hash != null) {
+                    for (Map.Entry<String, byte[]> field : hash.entrySet()) {
+                        fields.add(raw(field.getKey()));
+                        fields.add(field.getValue());
+                    }
+                }
+                return fields;
+            }
+            case "hincrby": {
+                String key = text(command.get(1));
+                Map<String, byte[]> hash = hash(key, true);
+                byte[] current = hash.get(text(command.get(2)));
+                long value = (current == null ? 0 : number(current)) + number(command.get(3));
+                hash.put(text(command.get(2)), bytes(String.valueOf(value)));
+                touch(key);
+                return value;
+            }
+            case "lpush":
+            case "rpush": {
+                String key = text(command.get(1));
+                List<byte[]> list = list(key, true);
+                for (int i = 2; i < command.size(); i++) {
+                    if (name.equals("lpush")) {
+                        list.add(0, command.get(i));
+                    } else {
+                        list.add(command.get(i));
+                    }
+                }
+                touch(key);
+                return (long) list.size();
+            }
+            case "llen": {
+                List<byte[]> list = list(text(command.get(1)), false);
+                return list == null ? 0L : (long) list.size();
+            }
+            case "lindex": {
+                List<byte[]> list = list(text(command.get(1)), false);
+                int index = list == null ? -1 : index(number(command.get(2)), list.size());
+                return index < 0 || index >= list.size() ? null : list.get(index);
+            }
+            case "lrange": {
+                List<byte[]> list = list(text(command.get(1)), false);
+                if (list == null) {
+                    return List.of();
+                }
+                int from = Math.max(index(number(command.get(2)), list.size()), 0);
+                int to = Math.min(index(number(command.get(3)), list.size()), list.size() - 1);
+                return from > to ? List.of() : new ArrayList<Object>(list.subList(from, to + 1));
+            }
+            case "ltrim": {
+                String key = text(command.get(1));
+                List<byte[]> list = list(key, false);
+                if (list == null) {
+                    return OK;
+                }
+                int from = Math.max(index(number(command.get(2)), list.size()), 0);
+                int to = Math.min(index(number(command.get(3)), list.size()), list.size() - 1);
+                if (from > to) {
+                    delete(key);
+                } else {
+                    list.subList(to + 1, list.size()).clear();
+                    list.subList(0, from).clear();
+                    touch(key);
+                }
+                return OK;
+            }
+            case "publish": {
+                Set<Connection> subscribers = channels.getOrDefault(text(command.get(1)), Set.of());
+                for (Connection subscriber : subscribers) {
+                    try {
+                        subscriber.write(new Push(List.of(bytes("message"), command.get(1), command.get(2))));
+                    } catch (IOException e) {
+                        subscriber.close();
+                    }
+                }
+                return (long) subscribers.size();
+            }
+            case "script":
+                return script(command);
+            case "eval":
+                return scripts.eval(command.get(1), command.subList(2, command.size()));
+            case "evalsha":
+                return scripts.evalSha(text(command.get(1)), command.subList(2, command.size()));
+            case "xadd":
+                return xadd(command);
+            case "xlen": {
+                StandInStream stream = stream(text(command.get(1)), false);
+                return stream == null ? 0L : (long) stream.entries.size();
+            }
+            case "xrange": {
+                StandInStream stream = stream(text(command.get(1)), false);
+                List<Object> entries = new ArrayList<>();
+                if (stream != null) {
+                    for (Map.Entry<StreamId, List<byte[]>> entry : stream.entries.entrySet()) {
+                        entries.add(entryReply(entry.getKey(), entry.getValue()));
+                    }
+                }
+                return entries;
+            }
+            case "xdel": {
+                StandInStream stream = stream(text(command.get(1)), false);
+                long deleted = 0;
+                for (int i = 2; stream != null && i < command.size(); i++) {
+                    deleted += stream.entries.remove(StreamId.parse(text(command.get(i)))) != null ? 1 : 0;
+                }
+                return deleted;
+            }
+            case "xgroup":
+                return xgroup(command);
+            case "xack":
+                return xack(command);
+            case "xpending":
+                return xpending(command);
+            case "xautoclaim":
+                return xautoclaim(command);
+            case "xreadgroup":
+                return readGroupNow(command);
+            default:
+                throw new ErrorReply("ERR unknown command '" + name + "'");
+        }
+    }
+
+    private Object set(List<byte[]> command) {
+        String key = text(command.get(1));
+        Long expiry = null;
+        boolean onlyNew = false;
+        boolean onlyExisting = false;
+        for (int i = 3; i < command.size(); i++) {
+            String option = text(command.get(i)).toUpperCase(Locale.ROOT);
+            switch (option) {
+                case "EX" -> expiry = now() + TimeUnit.SECONDS.toMillis(number(command.get(++i)));
+                case "PX" -> expiry = now() + number(command.get(++i));
+                case "NX" -> onlyNew = true;
+                case "XX" -> onlyExisting = true;
+                default -> throw new ErrorReply("ERR syntax error");
+            }
+        }
+        boolean exists = get(key) != null;
+        if ((onlyNew && exists) || (onlyExisting && !exists)) {
+            return null;
+        }
+        data.put(key, command.get(2));
+        if (expiry != null) {
+            expiries.put(key, expiry);
+        } else {
+            expiries.remove(key);
+        }
+        touch(key);
+        return OK;
+    }
+
+    private Object script(List<byte[]> command) {
+        String subcommand = text(command.get(1)).toLowerCase(Locale.ROOT);
+        switch (subcommand) {
+            case "load":
+                return bytes(scripts.load(command.get(2)));
+            case "exists": {
+                List<Object> exists = new ArrayList<>();
+                for (int i = 2; i < command.size(); i++) {
+                    exists.add(scripts.exists(text(command.get(i))) ? 1L : 0L);
+                }
+                return exists;
+            }
+            case "flush":
+                scripts.flush();
+                return OK;
+            default:
+                throw new ErrorReply("ERR unknown subcommand '" + subcommand + "'");
+        }
+    }
+
+    private Object info() {
+        StringBuilder info = new StringBuilder("# Server\r\nredis_version:6.2.0\r\nredis_mode:standalone\r\n");
+        info.append("# Commandstats\r\n");
+        for (Map.Entry<String, Long> calls : commandCalls.entrySet()) {
+            info.append("cmdstat_").append(calls.getKey()).append(":calls=").append(calls.getValue())
+                    .append(",usec=0,usec_per_call=0.00\r\n");
+        }
+        return bytes(info.toString());
+    }
+
+    // --- streams
+
+    record StreamId(long millis, long sequence) implements Comparable<StreamId> {
+
+        static final StreamId ZERO = new StreamId(0, 0);
+
+        static StreamId parse(String id) {
+            int dash = id.indexOf('-');
+            try {
+                return dash < 0 ? new StreamId(Long.parseLong(id), 0)
+                        : new StreamId(Long.parseLong(id.substring(0, dash)), Long.parseLong(id.substring(dash + 1)));
+            } catch (NumberFormatException e) {
+                throw new ErrorReply("ERR Invalid stream ID specified as stream command argument");
+            }
+        }
+
+        @Override
+        public int compareTo(StreamId other) {
+            int compared = Long.compare(millis, other.millis);
+            return compared != 0 ? compared : Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public String toString() {
+            return millis + "-" + sequence;
+        }
+    }
+
+    private static final class Pending {
+        String consumer;
+        long deliveredAt;
+        long deliveries;
+    }
+
+    private static final class Group {
+        StreamId lastDelivered;
+        final TreeMap<StreamId, Pending> pending = new TreeMap<>();
+    }
+
+    private static final class StandInStream {
+        final TreeMap<StreamId, List<byte[]>> entries = new TreeMap<>();
+        StreamId last = StreamId.ZERO;
+        final Map<String, Group> groups = new LinkedHashMap<>();
+    }
+
+    private Object xadd(List<byte[]> command) {
+        String key = text(command.get(1));
+        int i = 2;
+        boolean create = true;
+        if (text(command.get(i)).equalsIgnoreCase("NOMKSTREAM")) {
+            create = false;
+            i++;
+        }
+        StandInStream stream = stream(key, create);
+        if (stream == null) {
+            return null;
+        }
+        String requested = text(command.get(i++));
+        StreamId id;
+        if (requested.equals("*")) {
+            long millis = now();
+            id = millis > stream.last.millis ? new StreamId(millis, 0)
+                    : new StreamId(stream.last.millis, stream.last.sequence + 1);
+        } else {
+            id = StreamId.parse(requested);
+            if (id.compareTo(stream.last) <= 0) {
+                throw new ErrorReply("ERR The ID specified in XADD is equal or smaller than the target stream top item");
+            }
+        }
+        stream.entries.put(id, new ArrayList<>(command.subList(i, command.size())));
+        stream.last = id;
+        touch(key);
+        streamsChanged.signalAll();
+        return bytes(id.toString());
+    }
+
+    private Object xgroup(List<byte[]> command) {
+        String subcommand = text(command.get(1)).toLowerCase(Locale.ROOT);
+        String key = text(command.get(2));
+        String group = text(command.get(3));
+        switch (subcommand) {
+            case "create": {
+                boolean mkstream = command.size() > 5 && text(command.get(5)).equalsIgnoreCase("MKSTREAM");
+                StandInStream stream = stream(key, mkstream);
+                if (stream == null) {
+                    throw new ErrorReply("ERR The XGROUP subcommand requires the key to exist. "
+                            + "Note that for CREATE you may want to use the MKSTREAM option to create an empty stream automatically.");
+                }
+                if (stream.groups.containsKey(group)) {
+                    throw new ErrorReply("BUSYGROUP Consumer Group name already exists");
+                }
+                String start = text(command.get(4));
+                Group created = new Group();
+                created.lastDelivered = start.equals("$") ? stream.last : StreamId.parse(start);
+                stream.groups.put(group, created);
+                touch(key);
+                return OK;
+            }
+            case "destroy": {
+                StandInStream stream = stream(key, false);
+                return stream != null && stream.groups.remove(group) != null ? 1L : 0L;
+            }
+            default:
+                throw new ErrorReply("ERR unknown subcommand '" + subcommand + "'");
+        }
+    }
+
+    private Group group(String key, String group) {
+        StandInStream stream = stream(key, false);
+        Group found = stream == null ? null : stream.groups.get(group);
+        if (found == null) {
+            throw new ErrorReply("NOGROUP No such key '" + key + "' or consumer group '" + group + "'");
+        }
+        return found;
+    }
+
+    /**
+     * XREADGROUP, waiting outside of the lock for new entries if BLOCK is given.
+     */
+    private Object readGroup(List<byte[]> command) throws InterruptedException {
+        long block = -1;
+        for (int i = 1; i < command.size() - 1; i++) {
+            if (text(command.get(i)).equalsIgnoreCase("BLOCK")) {
+                block = number(command.get(i + 1));
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(block);
+        lock.lock();
+        try {
+            while (true) {
+                Object reply = call(command);
+                if (reply != NIL_ARRAY || block < 0) {
+                    return reply;
+                }
+                long left = deadline - System.nanoTime();
+                if (block > 0 && left <= 0) {
+                    return NIL_ARRAY;
+                }
+                if (block == 0) {
+                    streamsChanged.await();
+                } else {
+                    streamsChanged.awaitNanos(left);
+                }
+                commandCalls.merge("xreadgroup", -1L, Long::sum);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object readGroupNow(List<byte[]> command) {
+        String group = text(command.get(2));
+        String consumer = text(command.get(3));
+        long count = Long.MAX_VALUE;
+        boolean noAck = false;
+        int i = 4;
+        while (!text(command.get(i)).equalsIgnoreCase("STREAMS")) {
+            String option = text(command.get(i)).toUpperCase(Locale.ROOT);
+            if (option.equals("COUNT")) {
+                count = number(command.get(++i));
+            } else if (option.equals("BLOCK")) {
+                i++;
+            } else if (option.equals("NOACK")) {
+                noAck = true;
+            }
+            i++;
+        }
+        int streams = (command.size() - i - 1) / 2;
+        List<Object> reply = new ArrayList<>();
+        for (int s = 0; s < streams; s++) {
+            String key = text(command.get(i + 1 + s));
+            String from = text(command.get(i + 1 + streams + s));
+            Group read = group(key, group);
+            StandInStream stream = stream(key, false);
+            List<Object> entries = new ArrayList<>();
+            if (from.equals(">")) {
+                for (Map.Entry<StreamId, List<byte[]>> entry : stream.entries.tailMap(read.lastDelivered, false).entrySet()) {
+                    if (entries.size() >= count) {
+                        break;
+                    }
+                    read.lastDelivered = entry.getKey();
+                    if (!noAck) {
+                        Pending pending = new Pending();
+                        pending.consumer = consumer;
+                        pending.deliveredAt = now();
+                        pending.deliveries = 1;
+                        read.pending.put(entry.getKey(), pending);
+                    }
+                    entries.add(entryReply(entry.getKey(), entry.getValue()));
+                }
+            } else {
+                for (Map.Entry<StreamId, Pending> pending : read.pending.tailMap(StreamId.parse(from), false).entrySet()) {
+                    if (entries.size() >= count) {
+                        break;
+                    }
+                    if (pending.getValue().consumer.equals(consumer)) {
+                        entries.add(entryReply(pending.getKey(), stream.entries.get(pending.getKey())));
+                    }
+                }
+            }
+            if (!entries.isEmpty() || !from.equals(">")) {
+                reply.add(List.of(raw(key), entries));
+            }
+        }
+        return reply.isEmpty() ? NIL_ARRAY : reply;
+    }
+
+    private Object xack(List<byte[]> command) {
+        Group group = group(text(command.get(1)), text(command.get(2)));
+        long acknowledged = 0;
+        for (int i = 3; i < command.size(); i++) {
+            acknowledged += group.pending.remove(StreamId.parse(text(command.get(i)))) != null ? 1 : 0;
+        }
+        return acknowledged;
+    }
+
+    /**
+     * XPENDING in the summary form: count, smallest and greatest id and the count per consumer;
+     * with a range and a count, the id, consumer, idle time and deliveries of each pending entry.
+     */
+    private Object xpending(List<byte[]> command) {
+        Group group = group(text(command.get(1)), text(command.get(2)));
+        if (command.size() > 3) {
+            return xpendingRange(group, command);
+        }
+        if (group.pending.isEmpty()) {
+            return Arrays.asList(0L, null, null, NIL_ARRAY);
+        }
+        Map<String, Long> consumers = new TreeMap<>();
+        for (Pending pending : group.pending.values()) {
+            consumers.merge(pending.consumer, 1L, Long::sum);
+        }
+        List<Object> perConsumer = new ArrayList<>();
+        consumers.forEach((consumer, count) -> perConsumer.add(List.of(bytes(consumer), bytes(String.valueOf(count)))));
+        return List.of((long) group.pending.size(), bytes(group.pending.firstKey().toString()),
+                bytes(group.pending.lastKey().toString()), perConsumer);
+    }
+
+    private Object xpendingRange(Group group, List<byte[]> command) {
+        int i = 3;
+        long minIdle = 0;
+        if (text(command.get(i)).equalsIgnoreCase("IDLE")) {
+            minIdle = number(command.get(i + 1));
+            i += 2;
+        }
+        StreamId start = rangeBound(text(command.get(i)), StreamId.ZERO);
+        StreamId end = rangeBound(text(command.get(i + 1)), new StreamId(Long.MAX_VALUE, Long.MAX_VALUE));
+        long count = number(command.get(i + 2));
+        String consumer = command.size() > i + 3 ? text(command.get(i + 3)) : null;
+        List<Object> reply = new ArrayList<>();
+        long now = now();
+        for (Map.Entry<StreamId, Pending> entry : group.pending.subMap(start, true, end, true).entrySet()) {
+            Pending pending = entry.getValue();
+            if (reply.size() >= count) {
+                break;
+            }
+            if (now - pending.deliveredAt < minIdle || (consumer != null && !consumer.equals(pending.consumer))) {
+                continue;
+            }
+            reply.add(List.of(bytes(entry.getKey().toString()), bytes(pending.consumer),
+                    now - pending.deliveredAt, pending.deliveries));
+        }
+        return reply;
+    }
+
+    private static StreamId rangeBound(String id, StreamId unbounded) {
+        return id.equals("-") || id.equals("+") ? unbounded : StreamId.parse(id);
+    }
+
+    /**
+     * XAUTOCLAIM in the reply format of Redis 6.2: the next start id and the claimed entries.
+     */
+    private Object xautoclaim(List<byte[]> command) {
+        String key = text(command.get(1));
+        Group group = group(key, text(command.get(2)));
+        String consumer = text(command.get(3));
+        long minIdle = number(command.get(4));
+        StreamId start = StreamId.parse(text(command.get(5)));
+        long count = 100;
+        boolean justId = false;
+        for (int i = 6; i < command.size(); i++) {
+            String option = text(command.get(i)).toUpperCase(Locale.ROOT);
+            if (option.equals("COUNT")) {
+                count = number(command.get(++i));
+            } else if (option.equals("JUSTID")) {
+                justId = true;
+            }
+        }
+        StandInStream stream = stream(key, false);
+        List<Object> claimed = new ArrayList<>();
+        StreamId next = StreamId.ZERO;
+        long now = now();
+        Iterator<Map.Entry<StreamId, Pending>> pending = group.pending.tailMap(start, true).entrySet().iterator();
+        while (pending.hasNext()) {
+            Map.Entry<StreamId, Pending> entry = pending.next();
+            if (claimed.size() >= count) {
+                next = entry.getKey();
+                break;
+            }
+            if (now - entry.getValue().deliveredAt < minIdle) {
+                continue;
+            }
+            List<byte[]> fields = stream.entries.get(entry.getKey());
+            if (fields == null) {
+                pending.remove();
+                continue;
+            }
+            entry.getValue().consumer = consumer;
+            entry.getValue().deliveredAt = now;
+            if (!justId) {
+                entry.getValue().deliveries++;
+            }
+            claimed.add(justId ? bytes(entry.getKey().toString()) : entryReply(entry.getKey(), fields));
+        }
+        return List.of(bytes(next.toString()), claimed);
+    }
+
+    private static Object entryReply(StreamId id, List<byte[]> fields) {
+        return List.of(bytes(id.toString()), new ArrayList<Object>(fields));
+    }
+
+    // --- keyspace
+
+    private Object get(String key) {
+        Long expiry = expiries.get(key);
+        if (expiry != null && expiry <= now()) {
+            delete(key);
+            return null;
+        }
+        return data.get(key);
+    }
+
+    private boolean delete(String key) {
+        expiries.remove(key);
+        boolean deleted = data.remove(key) != null;
+        if (deleted) {
+            touch(key);
+        }
+        return deleted;
+    }
+
+    private void expireAll() {
+        for (String key : List.copyOf(expiries.keySet())) {
+            get(key);
+        }
+    }
+
+    private void touch(String key) {
+        versions.put(key, ++version);
+    }
+
+    private long versionOf(String key) {
+        get(key);
+        return versions.getOrDefault(key, 0L);
+    }
+
+    private byte[] string(String key) {
+        Object value = get(key);
+        if (value != null && !(value instanceof byte[])) {
+            throw wrongType();
+        }
+        return (byte[]) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, byte[]> hash(String key, boolean create) {
+        Object value = get(key);
+        if (value == null && create) {
+            value = new LinkedHashMap<String, byte[]>();
+            data.put(key, value);
+        }
+        if (value != null && !(value instanceof Map)) {
+            throw wrongType();
+        }
+        return (Map<String, byte[]>) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<byte[]> list(String key, boolean create) {
+        Object value = get(key);
+        if (value == null && create) {
+            value = new ArrayList<byte[]>();
+            data.put(key, value);
+        }
+        if (value != null && !(value instanceof List)) {
+            throw wrongType();
+        }
+        return (List<byte[]>) value;
+    }
+
+    /**
+     * A list index as Redis takes it, negative from the end of the list.
+     */
+    private static int index(long index, int size) {
+        return (int) (index < 0 ? size + index : index);
+    }
+
+    private StandInStream stream(String key, boolean create) {
+        Object value = get(key);
+        if (value == null && create) {
+            value = new StandInStream();
+            data.put(key, value);
+        }
+        if (value != null && !(value instanceof StandInStream)) {
+            throw wrongType();
+        }
+        return (StandInStream) value;
+    }
+
+    private void count(String command) {
+        commandCalls.merge(command, 1L, Long::sum);
+    }
+
+    private static ErrorReply wrongType() {
+        return new ErrorReply("WRONGTYPE Operation against a key holding the wrong kind of value");
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+    private static boolean matches(String pattern, String key) {
+        return key.matches(pattern.replace("?", ".").replace("*", ".*"));
+    }
+
+    // --- protocol
+
+    /**
+     * Keys and fields are kept as strings of their bytes, one char per byte, so binary keys survive.
+     */
+    static String text(byte[] value) {
+        return new String(value, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] raw(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long number(byte[] value) {
+        try {
+            return Long.parseLong(text(value));
+        } catch (NumberFormatException e) {
+            throw new ErrorReply("ERR value is not an integer or out of range");
+        }
+    }
+
+    private static List<byte[]> readCommand(InputStream in) throws IOException {
+        int type = in.read();
+        if (type == -1) {
+            return null;
+        }
+        if (type != '*') {
+            // an inline command, e.g. PING typed into telnet
+            String line = (char) type + readLine(in);
+            List<byte[]> command = new ArrayList<>();
+            for (String part : line.trim().split(" +")) {
+                command.add(bytes(part));
+            }
+            return command;
+        }
+        int count = Integer.parseInt(readLine(in));
+        List<byte[]> command = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (in.read() != '$') {
+                throw new IOException("Expected a bulk string");
+            }
+            int length = Integer.parseInt(readLine(in));
+            byte[] value = in.readNBytes(length);
+            if (value.length < length) {
+                throw new EOFException();
+            }
+            readLine(in);
+            command.add(value);
+        }
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int next;
+        while ((next = in.read()) != '\r') {
+            if (next == -1) {
+                throw new EOFException();
+            }
+            line.append((char) next);
+        }
+        in.read();
+        return line.toString();
+    }
+
+    private static void writeReply(OutputStream out, Object reply) throws IOException {
+        if (reply == null) {
+            out.write("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply == NIL_ARRAY) {
+            out.write("*-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof Status status) {
+            out.write(("+" + status.text() + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof ErrorReply error) {
+            out.write(("-" + error.getMessage() + "\r\n").getBytes(StandardCharsets.UTF_8));
+        } else if (reply instanceof Long number) {
+            out.write((":" + number + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof byte[] value) {
+            out.write(("$" + value.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(value);
+            out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else if (reply instanceof Push push) {
+            out.write((">" + push.values().size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object value : push.values()) {
+                writeReply(out, value);
+            }
+        } else if (reply instanceof Map<?, ?> values) {
+            out.write(("%" + values.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Map.Entry<?, ?> value : values.entrySet()) {
+                writeReply(out, value.getKey());
+                writeReply(out, value.getValue());
+            }
+        } else if (reply instanceof List<?> values) {
+            out.write(("*" + values.size() + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            for (Object value : values) {
+                writeReply(out, value);
+            }
+        } else {
+            throw new IllegalStateException("Unknown reply " + reply);
+        }
+    }
+
+    static boolean isNilArray(Object reply) {
+        return reply == NIL_ARRAY;
+    }
+
+}
@@ -0,0 +1,433 @@
+package de.berlin.htw;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.berlin.htw.RedisStandIn.ErrorReply;
+import de.berlin.htw.RedisStandIn.Status;
+import org.luaj.vm2.Globals;
+import org.luaj.vm2.LuaError;
+import org.luaj.vm2.LuaString;
+import org.luaj.vm2.LuaTable;
+import org.luaj.vm2.LuaValue;
+import org.luaj.vm2.Varargs;
+import org.luaj.vm2.lib.OneArgFunction;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the Lua scripts of {@link RedisStandIn} with luaj, with the parts of the Redis scripting
+ * environment the basket scripts use: redis.call and redis.pcall, cjson and struct.
+ * Values cross between Lua and Redis as Redis converts them: integers, bulk strings as Lua strings,
+ * a missing value as false, arrays as tables and a status reply as a table with the field ok.
+ */
+class RedisStandInScripts {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private final RedisStandIn redis;
+    private final Globals globals = JsePlatform.standardGlobals();
+    private final Map<String, LuaValue> scripts = new HashMap<>();
+
+    RedisStandInScripts(RedisStandIn redis) {
+        this.redis = redis;
+        LuaTable api = new LuaTable();
+        api.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return redisCall(args, false);
+            }
+        });
+        api.set("pcall", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return redisCall(args, true);
+            }
+        });
+        api.set("status_reply", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue status) {
+                return LuaValue.tableOf(new LuaValue[] {LuaValue.valueOf("ok"), status});
+            }
+        });
+        api.set("error_reply", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue error) {
+                return LuaValue.tableOf(new LuaValue[] {LuaValue.valueOf("err"), error});
+            }
+        });
+        globals.set("redis", api);
+        globals.set("cjson", cjson());
+        globals.set("struct", struct());
+        // Redis runs Lua 5.1, where unpack is global
+        globals.set("unpack", globals.get("table").get("unpack"));
+    }
+
+    /**
+     * Compiles the script and remembers it under its SHA1 like SCRIPT LOAD.
+     */
+    String load(byte[] source) {
+        String sha = sha1(source);
+        if (!scripts.containsKey(sha)) {
+            try {
+                scripts.put(sha, globals.load(new String(source, StandardCharsets.UTF_8), "@user_script"));
+            } catch (LuaError e) {
+                throw new ErrorReply("ERR Error compiling script " + e.getMessage());
+            }
+        }
+        return sha;
+    }
+
+    boolean exists(String sha) {
+        return scripts.containsKey(sha);
+    }
+
+    void flush() {
+        scripts.clear();
+    }
+
+    Object eval(byte[] source, List<byte[]> keysAndArgs) {
+        return evalSha(load(source), keysAndArgs);
+    }
+
+    /**
+     * Runs a loaded script; the caller holds the lock of the stand-in, so the script runs atomically.
+     *
+     * @param keysAndArgs the number of keys, the keys and the arguments
+     */
+    Object evalSha(String sha, List<byte[]> keysAndArgs) {
+        LuaValue script = scripts.get(sha.toLowerCase());
+        if (script == null) {
+            throw new ErrorReply("NOSCRIPT No matching script. Please use EVAL.");
+        }
+        int keyCount = Integer.parseInt(RedisStandIn.text(keysAndArgs.get(0)));
+        LuaTable keys = new LuaTable();
+        LuaTable argv = new LuaTable();
+        for (int i = 1; i < keysAndArgs.size(); i++) {
+            LuaString value = LuaString.valueOf(keysAndArgs.get(i));
+            if (i <= keyCount) {
+                keys.set(i, value);
+            } else {
+                argv.set(i - keyCount, value);
+            }
+        }
+        globals.set("KEYS", keys);
+        globals.set("ARGV", argv);
+        try {
+            return toRedis(script.call());
+        } catch (LuaError e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ErrorReply reply) {
+                throw reply;
+            }
+            throw new ErrorReply("ERR Error running script (call to f_" + sha + "): " + e.getMessage());
+        }
+    }
+
+    private Varargs redisCall(Varargs args, boolean protectedCall) {
+        List<byte[]> command = new ArrayList<>();
+        for (int i = 1; i <= args.narg(); i++) {
+            LuaValue arg = args.arg(i);
+            if (!arg.isstring()) {
+                throw new LuaError("Lua redis() command arguments must be strings or integers");
+            }
+            command.add(bytes(arg.strvalue()));
+        }
+        try {
+            return toLua(redis.call(command));
+        } catch (ErrorReply e) {
+            if (protectedCall) {
+                return LuaValue.tableOf(new LuaValue[] {LuaValue.valueOf("err"), LuaValue.valueOf(e.getMessage())});
+            }
+            throw new LuaError(e);
+        }
+    }
+
+    private static LuaValue toLua(Object reply) {
+        if (reply == null || RedisStandIn.isNilArray(reply)) {
+            return LuaValue.FALSE;
+        }
+        if (reply instanceof Long number) {
+            return LuaValue.valueOf(number.doubleValue());
+        }
+        if (reply instanceof byte[] value) {
+            return LuaString.valueOf(value);
+        }
+        if (reply instanceof Status status) {
+            return LuaValue.tableOf(new LuaValue[] {LuaValue.valueOf("ok"), LuaValue.valueOf(status.text())});
+        }
+        if (reply instanceof ErrorReply error) {
+            return LuaValue.tableOf(new LuaValue[] {LuaValue.valueOf("err"), LuaValue.valueOf(error.getMessage())});
+        }
+        List<?> values = (List<?>) reply;
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < values.size(); i++) {
+            table.set(i + 1, toLua(values.get(i)));
+        }
+        return table;
+    }
+
+    private static Object toRedis(LuaValue value) {
+        if (value.type() == LuaValue.TNUMBER) {
+            return (long) value.todouble();
+        }
+        if (value.isstring()) {
+            return bytes(value.strvalue());
+        }
+        if (value.istable()) {
+            LuaValue ok = value.get("ok");
+            if (ok.isstring()) {
+                return new Status(ok.tojstring());
+            }
+            LuaValue err = value.get("err");
+            if (err.isstring()) {
+                return new ErrorReply(err.tojstring());
+            }
+            List<Object> values = new ArrayList<>();
+            for (int i = 1; !value.get(i).isnil(); i++) {
+                values.add(toRedis(value.get(i)));
+            }
+            return values;
+        }
+        if (value.isboolean() && value.toboolean()) {
+            return 1L;
+        }
+        return null;
+    }
+
+    private static byte[] bytes(LuaString value) {
+        byte[] bytes = new byte[value.length()];
+        value.copyInto(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    private static String sha1(byte[] source) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(source));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // --- cjson
+
+    private static LuaTable cjson() {
+        LuaTable cjson = new LuaTable();
+        cjson.set("decode", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue text) {
+                try {
+                    return fromJson(JSON.readTree(bytes(text.checkstring())));
+                } catch (java.io.IOException e) {
+                    throw new LuaError("Expected value but found invalid token: " + e.getMessage());
+                }
+            }
+        });
+        cjson.set("encode", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue value) {
+                try {
+                    return LuaString.valueOf(JSON.writeValueAsBytes(toJson(value)));
+                } catch (JsonProcessingException e) {
+                    throw new LuaError("Cannot serialise: " + e.getMessage());
+                }
+            }
+        });
+        return cjson;
+    }
+
+    private static LuaValue fromJson(JsonNode node) {
+        if (node.isObject()) {
+            LuaTable table = new LuaTable();
+            for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                table.set(field.getKey(), fromJson(field.getValue()));
+            }
+            return table;
+        }
+        if (node.isArray()) {
+            LuaTable table = new LuaTable();
+            for (int i = 0; i < node.size(); i++) {
+                table.set(i + 1, fromJson(node.get(i)));
+            }
+            return table;
+        }
+        if (node.isNumber()) {
+            return LuaValue.valueOf(node.asDouble());
+        }
+        if (node.isTextual()) {
+            return LuaString.valueOf(node.asText().getBytes(StandardCharsets.UTF_8));
+        }
+        if (node.isBoolean()) {
+            return LuaValue.valueOf(node.asBoolean());
+        }
+        return LuaValue.NIL;
+    }
+
+    /**
+     * A table with the keys 1 to n is an array, any other table an object, like cjson encodes them.
+     */
+    private static JsonNode toJson(LuaValue value) {
+        JsonNodeFactory nodes = JsonNodeFactory.instance;
+        if (value.type() == LuaValue.TNUMBER) {
+            double number = value.todouble();
+            return number == Math.rint(number) && Math.abs(number) < 1e15
+                    ? nodes.numberNode((long) number) : nodes.numberNode(number);
+        }
+        if (value.isstring()) {
+            return nodes.textNode(new String(bytes(value.strvalue()), StandardCharsets.UTF_8));
+        }
+        if (value.isboolean()) {
+            return nodes.booleanNode(value.toboolean());
+        }
+        if (value.istable()) {
+            LuaTable table = value.checktable();
+            int length = table.length();
+            if (length > 0 && length == table.keyCount()) {
+                ArrayNode array = nodes.arrayNode();
+                for (int i = 1; i <= length; i++) {
+                    array.add(toJson(table.get(i)));
+                }
+                return array;
+            }
+            ObjectNode object = nodes.objectNode();
+            for (LuaValue key : table.keys()) {
+                object.set(key.tojstring(), toJson(table.get(key)));
+            }
+            return object;
+        }
+        return nodes.nullNode();
+    }
+
+    // --- struct
+
+    /**
+     * The formats of the struct library that the scripts use: an endianness, b/B, h/H, i/I with
+     * an optional size, l/L and c with a size, where c0 takes the length from the previous number
+     * and returns the string in its place.
+     */
+    private static LuaTable struct() {
+        LuaTable struct = new LuaTable();
+        struct.set("pack", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                String format = args.checkjstring(1);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteOrder order = ByteOrder.nativeOrder();
+                int arg = 2;
+                for (int i = 0; i < format.length(); i++) {
+                    char code = format.charAt(i);
+                    int size = 0;
+                    while (i + 1 < format.length() && Character.isDigit(format.charAt(i + 1))) {
+                        size = size * 10 + format.charAt(++i) - '0';
+                    }
+                    switch (code) {
+                        case '>', '!' -> order = ByteOrder.BIG_ENDIAN;
+                        case '<' -> order = ByteOrder.LITTLE_ENDIAN;
+                        case '=' -> order = ByteOrder.nativeOrder();
+                        case 'c' -> {
+                            byte[] value = bytes(args.checkstring(arg++));
+                            out.write(value, 0, size == 0 ? value.length : size);
+                        }
+                        default -> {
+                            int width = width(code, size);
+                            ByteBuffer buffer = ByteBuffer.allocate(8).order(order);
+                            buffer.putLong(args.checklong(arg++));
+                            byte[] all = buffer.array();
+                            byte[] value = order == ByteOrder.BIG_ENDIAN
+                                    ? java.util.Arrays.copyOfRange(all, 8 - width, 8)
+                                    : java.util.Arrays.copyOfRange(all, 0, width);
+                            out.write(value, 0, width);
+                        }
+                    }
+                }
+                return LuaString.valueOf(out.toByteArray());
+            }
+        });
+        struct.set("unpack", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                String format = args.checkjstring(1);
+                byte[] data = bytes(args.checkstring(2));
+                int position = args.optint(3, 1) - 1;
+                ByteOrder order = ByteOrder.nativeOrder();
+                List<LuaValue> values = new ArrayList<>();
+                long previous = 0;
+                for (int i = 0; i < format.length(); i++) {
+                    char code = format.charAt(i);
+                    int size = 0;
+                    boolean sized = false;
+                    while (i + 1 < format.length() && Character.isDigit(format.charAt(i + 1))) {
+                        size = size * 10 + format.charAt(++i) - '0';
+                        sized = true;
+                    }
+                    switch (code) {
+                        case '>', '!' -> order = ByteOrder.BIG_ENDIAN;
+                        case '<' -> order = ByteOrder.LITTLE_ENDIAN;
+                        case '=' -> order = ByteOrder.nativeOrder();
+                        case 'c' -> {
+                            int length = size;
+                            if (sized && size == 0) {
+                                // c0 takes the previous number as length and replaces it
+                                length = (int) previous;
+                                values.remove(values.size() - 1);
+                            }
+                            if (position + length > data.length) {
+                                throw new LuaError("data string too short");
+                            }
+                            values.add(LuaString.valueOf(java.util.Arrays.copyOfRange(data, position, position + length)));
+                            position += length;
+                        }
+                        default -> {
+                            int width = width(code, size);
+                            if (position + width > data.length) {
+                                throw new LuaError("data string too short");
+                            }
+                            long value = 0;
+                            for (int b = 0; b < width; b++) {
+                                int index = order == ByteOrder.BIG_ENDIAN ? position + b : position + width - 1 - b;
+                                value = (value << 8) | (data[index] & 0xff);
+                            }
+                            if (Character.isLowerCase(code) && width < 8 && (value & (1L << (width * 8 - 1))) != 0) {
+                                value -= 1L << (width * 8);
+                            }
+                            position += width;
+                            previous = value;
+                            values.add(LuaValue.valueOf((double) value));
+                        }
+                    }
+                }
+                values.add(LuaValue.valueOf(position + 1));
+                return LuaValue.varargsOf(values.toArray(new LuaValue[0]));
+            }
+        });
+        return struct;
+    }
+
+    private static int width(char code, int size) {
+        return switch (Character.toLowerCase(code)) {
+            case 'b' -> 1;
+            case 'h' -> 2;
+            case 'i' -> size == 0 ? 4 : size;
+            case 'l' -> 8;
+            default -> throw new LuaError("invalid format option '" + code + "'");
+        };
+    }
+
+}
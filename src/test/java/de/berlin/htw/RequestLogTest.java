@@ -0,0 +1,106 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import de.berlin.htw.boundary.filter.RequestLogFilter;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every request is logged with one summary line.
+ */
+@QuarkusTest
+class RequestLogTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    private final List<String> lines = new CopyOnWriteArrayList<>();
+
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            // the filter logs with infof, the parameters are formatted by the log manager
+            lines.add(String.format(record.getMessage(), record.getParameters()));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final Logger requestLog = Logger.getLogger(RequestLogFilter.class.getName());
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+        requestLog.addHandler(handler);
+    }
+
+    @AfterEach
+    void tearDown() {
+        requestLog.removeHandler(handler);
+    }
+
+    @Test
+    void testOneSummaryLinePerRequest() {
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 2);
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+
+        List<String> summaries = lines.stream().filter(line -> line.contains("op=BasketResource.addItem")).toList();
+        assertEquals(1, summaries.size(), "summary lines " + lines);
+        String summary = summaries.get(0);
+        assertTrue(summary.startsWith("user=1 "), summary);
+        assertTrue(summary.contains(" status=201 items=1 totalCents=2000 "), summary);
+        assertTrue(summary.matches(".* ms=\\d+[.,]\\d$"), summary);
+    }
+
+    @Test
+    void testCheckoutSummaryHasItemsAndTotal() {
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser1", 10.0, 2);
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+        given()
+                .when().header("X-User-Id", "1")
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(201);
+
+        List<String> summaries = lines.stream().filter(line -> line.contains("op=BasketResource.checkout")).toList();
+        assertEquals(1, summaries.size(), "summary lines " + lines);
+        assertTrue(summaries.get(0).contains(" status=201 items=1 totalCents=2000 "), summaries.get(0));
+    }
+
+}
@@ -0,0 +1,22 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+
+/**
+ * The items the tests put into baskets.
+ */
+final class TestItems {
+
+    private TestItems() {
+    }
+
+    static Item createTestingItem(String id, String name, Double price, Integer count) {
+        Item item = new Item();
+        item.setProductId(id);
+        item.setProductName(name);
+        item.setPrice(price);
+        item.setCount(count);
+        return item;
+    }
+
+}
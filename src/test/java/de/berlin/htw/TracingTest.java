@@ -0,0 +1,102 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A checkout is one trace: the endpoint, the Redis commands, the repositories and their JDBC statements.
+ */
+@QuarkusTest
+class TracingTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @Inject
+    InMemorySpanExporter spanExporter;
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+    }
+
+    /**
+     * Waits until the span with the given name is exported and answers with all spans of its trace.
+     * Only a span that started after the given time counts, a request of an earlier test may end late.
+     */
+    private List<SpanData> trace(String spanName, long startedAfterMillis) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            for (SpanData span : spanExporter.getFinishedSpanItems()) {
+                if (span.getName().equals(spanName)
+                        && span.getStartEpochNanos() >= TimeUnit.MILLISECONDS.toNanos(startedAfterMillis)) {
+                    // the spans of the trace end before the server span, so they are exported with it or earlier
+                    return spanExporter.getFinishedSpanItems().stream()
+                            .filter(other -> other.getTraceId().equals(span.getTraceId()))
+                            .toList();
+                }
+            }
+            Thread.sleep(50);
+        }
+        throw new AssertionError("No span " + spanName + " in " + names(spanExporter.getFinishedSpanItems()));
+    }
+
+    private static String names(List<SpanData> spans) {
+        return spans.stream().map(SpanData::getName).collect(Collectors.joining(", "));
+    }
+
+    private static SpanData span(List<SpanData> spans, String name) {
+        return spans.stream().filter(span -> span.getName().equals(name)).findFirst()
+                .orElseThrow(() -> new AssertionError("No span " + name + " in " + names(spans)));
+    }
+
+    @Test
+    void testCheckoutIsOneTrace() throws Exception {
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser4", 10.0, 1);
+        given()
+                .when().header("X-User-Id", "4")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+        spanExporter.reset();
+        long started = System.currentTimeMillis();
+
+        given()
+                .when().header("X-User-Id", "4")
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(201);
+
+        List<SpanData> spans = trace("POST /basket", started);
+        SpanData server = span(spans, "POST /basket");
+        SpanData checkout = span(spans, "OrdersRepository.checkout");
+        SpanData debit = span(spans, "UserRepository.debitBalance");
+        // the transaction runs off the event loop, but in the trace of the request
+        assertTrue(checkout.getParentSpanId().equals(server.getSpanId())
+                || spans.stream().anyMatch(span -> span.getSpanId().equals(checkout.getParentSpanId())), names(spans));
+        assertTrue(debit.getParentSpanId().equals(checkout.getSpanId()), names(spans));
+        // the basket is read and emptied by one script in Redis
+        assertTrue(spans.stream().anyMatch(span -> span.getName().toLowerCase().contains("evalsha")), names(spans));
+        // the statements of the transaction
+        assertTrue(spans.stream().anyMatch(span -> span.getParentSpanId().equals(debit.getSpanId())), names(spans));
+    }
+
+}
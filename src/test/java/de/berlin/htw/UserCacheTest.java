@@ -0,0 +1,86 @@
+package de.berlin.htw;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import de.berlin.htw.control.UserCache;
+import de.berlin.htw.entity.dao.UserRepository;
+import de.berlin.htw.entity.dto.UserEntity;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.cache.CaffeineCache;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.transaction.UserTransaction;
+
+import org.junit.jupiter.api.Test;
+
+@QuarkusTest
+class UserCacheTest {
+
+    @Inject
+    UserCache userCache;
+
+    @Inject
+    @CacheName("users")
+    Cache cache;
+
+    @Inject
+    UserRepository repository;
+
+    @Inject
+    RedisDataSource redisDS;
+
+    @PersistenceContext
+    EntityManager entityManager;
+
+    @Inject
+    UserTransaction userTransaction;
+
+    private boolean isCached(Integer userId) {
+        return cache.as(CaffeineCache.class).keySet().contains(userId);
+    }
+
+    @Test
+    void testCachedUserIsReused() {
+        assertSame(userCache.findUserById(1), userCache.findUserById(1));
+        assertTrue(isCached(1));
+    }
+
+    @Test
+    void testUpdateUserInvalidatesCache() throws Exception {
+        UserEntity user = userCache.findUserById(5);
+        assertTrue(isCached(5));
+
+        user.setBalance(user.getBalance() + 1);
+        repository.updateUser(user);
+        assertFalse(isCached(5));
+
+        // restore the balance of the test data
+        userTransaction.begin();
+        entityManager
+                .createQuery("UPDATE UserEntity u SET u.balance = u.balance - 1 WHERE u.id = 5")
+                .executeUpdate();
+        userTransaction.commit();
+    }
+
+    @Test
+    void testPublishedUserIdInvalidatesCache() throws InterruptedException {
+        userCache.findUserById(2);
+        assertTrue(isCached(2));
+
+        // another node changed user 2
+        redisDS.pubsub(Integer.class).publish("user-invalidation", 2);
+
+        // the message arrives asynchronously
+        for (int i = 0; i < 50 && isCached(2); i++) {
+            Thread.sleep(100);
+        }
+        assertFalse(isCached(2));
+    }
+
+}
@@ -34,7 +34,7 @@ public class UserRepositoryTest {
     void testAddUser() throws NotSupportedException, SystemException, SecurityException, IllegalStateException, RollbackException, HeuristicMixedException, HeuristicRollbackException {
         UserEntity user = new UserEntity();
         user.setName("TestUser");
-        user.setBalance(10f);
+        user.setBalance(10.0);
         repository.persistUser(user);
         
         userTransaction.begin();
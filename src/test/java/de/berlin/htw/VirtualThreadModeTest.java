@@ -0,0 +1,89 @@
+package de.berlin.htw;
+
+import de.berlin.htw.boundary.dto.Item;
+import de.berlin.htw.control.BlockingExecutor;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+import static de.berlin.htw.TestItems.createTestingItem;
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The endpoints that call the database must work the same when the calls run on virtual threads.
+ * Only a JVM of Java 21 or later runs them on virtual threads, older ones on the worker pool.
+ */
+@QuarkusTest
+@TestProfile(VirtualThreadsProfile.class)
+class VirtualThreadModeTest {
+
+    @Inject
+    protected RedisDataSource redisDS;
+
+    @Inject
+    BlockingExecutor blockingExecutor;
+
+    @BeforeEach
+    void setUp() {
+        // clear redis before testing
+        redisDS.flushall();
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21,
+            disabledReason = "virtual threads need Java 21 or later, on older JVMs the mode virtual runs on the worker pool")
+    void testBlockingCallsRunOnVirtualThreads() {
+        assertTrue(BlockingExecutor.virtualThreadsSupported());
+        // Thread.isVirtual() does not compile for Java 17, the virtual threads of Quarkus are named after them
+        String thread = blockingExecutor.run(() -> Thread.currentThread().getName()).await().indefinitely();
+        assertTrue(thread.startsWith("quarkus-virtual-thread"), thread);
+    }
+
+    @Test
+    @EnabledForJreRange(max = JRE.JAVA_20, disabledReason = "virtual threads are available")
+    void testBlockingCallsFallBackToWorkerPool() {
+        assertFalse(BlockingExecutor.virtualThreadsSupported());
+        String thread = blockingExecutor.run(() -> Thread.currentThread().getName()).await().indefinitely();
+        assertFalse(thread.startsWith("quarkus-virtual-thread"), thread);
+    }
+
+    @Test
+    void testGetOrders() {
+        given()
+                .when().header("X-User-Id", "1")
+                .get("/orders")
+                .then()
+                .statusCode(200);
+    }
+
+    @Test
+    void testCheckout() {
+        Item item = createTestingItem("1-2-3-4-5-6", "TestItemUser4", 10.0, 1);
+
+        given()
+                .when().header("X-User-Id", "4")
+                .contentType(ContentType.JSON)
+                .body(item)
+                .post("/basket/" + item.getProductId())
+                .then()
+                .statusCode(201);
+
+        given()
+                .when().header("X-User-Id", "4")
+                .contentType(ContentType.JSON)
+                .post("/basket/")
+                .then()
+                .statusCode(201)
+                .header("Location", containsString("/orders/"));
+    }
+
+}
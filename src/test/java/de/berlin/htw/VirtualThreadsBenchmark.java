@@ -0,0 +1,23 @@
+package de.berlin.htw;
+
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+/**
+ * Database calls on virtual threads. Before Java 21 Quarkus falls back to the worker pool,
+ * so the benchmark would only measure the worker pool a second time and is skipped.
+ */
+@QuarkusTest
+@TestProfile(VirtualThreadsProfile.class)
+@EnabledForJreRange(min = JRE.JAVA_21,
+        disabledReason = "virtual threads need Java 21 or later, on older JVMs the mode virtual runs on the worker pool")
+class VirtualThreadsBenchmark extends ExecutionModeBenchmark {
+
+    @Override
+    String mode() {
+        return "virtual";
+    }
+
+}
@@ -0,0 +1,17 @@
+package de.berlin.htw;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+/**
+ * Starts the application with the blocking JPA calls on virtual threads.
+ */
+public class VirtualThreadsProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of("app.blocking.mode", "virtual");
+    }
+
+}
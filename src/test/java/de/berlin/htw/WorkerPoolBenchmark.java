@@ -0,0 +1,16 @@
+package de.berlin.htw;
+
+import io.quarkus.test.junit.QuarkusTest;
+
+/**
+ * Database calls on the worker pool, the default thread model.
+ */
+@QuarkusTest
+class WorkerPoolBenchmark extends ExecutionModeBenchmark {
+
+    @Override
+    String mode() {
+        return "worker";
+    }
+
+}